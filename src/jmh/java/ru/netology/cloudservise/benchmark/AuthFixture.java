@@ -0,0 +1,59 @@
+package ru.netology.cloudservise.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.netology.cloudservise.security.LoginAttemptLimiter;
+import ru.netology.cloudservise.security.OffHeapSessionTable;
+import ru.netology.cloudservise.security.PasswordHashingExecutor;
+import ru.netology.cloudservise.security.SecureTokenService;
+import ru.netology.cloudservise.security.SignedTokenCodec;
+import ru.netology.cloudservise.security.TokenCache;
+import ru.netology.cloudservise.security.TokenDigester;
+import ru.netology.cloudservise.security.TokenRevocationList;
+
+import java.time.Duration;
+
+/**
+ * Сборка SecureTokenService на репозиториях в памяти с заданной стоимостью BCrypt и размером кэша.
+ */
+final class AuthFixture {
+
+    final InMemoryRepositories repositories = new InMemoryRepositories();
+    final BCryptPasswordEncoder passwordEncoder;
+    final TokenDigester tokenDigester = new TokenDigester("benchmark-secret");
+    final TokenCache tokenCache;
+    final OffHeapSessionTable sessionTable;
+    final PasswordHashingExecutor hashingExecutor;
+    final SecureTokenService tokenService;
+
+    AuthFixture(int bcryptCost, long cacheSize) {
+        this(bcryptCost, cacheSize, false);
+    }
+
+    AuthFixture(int bcryptCost, long cacheSize, boolean sessionTableEnabled) {
+        this.passwordEncoder = new BCryptPasswordEncoder(bcryptCost);
+        this.tokenCache = new TokenCache(cacheSize, Duration.ofMinutes(5));
+        this.sessionTable = new OffHeapSessionTable(sessionTableEnabled, (int) Math.min(Integer.MAX_VALUE, cacheSize * 2),
+                Duration.ofMinutes(5));
+        int threads = Runtime.getRuntime().availableProcessors();
+        this.hashingExecutor = new PasswordHashingExecutor(passwordEncoder, new SimpleMeterRegistry(),
+                threads, 1024, 60_000, 1);
+        this.tokenService = new SecureTokenService(
+                repositories.authTokenRepository(),
+                repositories.userRepository(),
+                hashingExecutor,
+                tokenDigester,
+                sessionTable,
+                tokenCache,
+                new SignedTokenCodec(tokenDigester),
+                new TokenRevocationList(repositories.revokedTokenRepository(), 1 << 20),
+                new LoginAttemptLimiter(new SimpleMeterRegistry(), 5, 20, Duration.ofMinutes(15), 1 << 20));
+        ReflectionTestUtils.setField(tokenService, "tokenExpirationHours", 24);
+    }
+
+    void close() {
+        hashingExecutor.shutdown();
+        sessionTable.close();
+    }
+}
@@ -0,0 +1,45 @@
+package ru.netology.cloudservise.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.netology.cloudservise.entity.User;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Проверка логина и пароля при разной стоимости BCrypt, в том числе для несуществующего логина.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthenticateBenchmark {
+
+    @Param({"4", "10", "12"})
+    public int bcryptCost;
+
+    private AuthFixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = new AuthFixture(bcryptCost, 1000);
+        fixture.repositories.addUser("bench", fixture.passwordEncoder.encode("password"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public Optional<User> authenticateValid() {
+        return fixture.tokenService.authenticate("bench", "password");
+    }
+
+    @Benchmark
+    public Optional<User> authenticateUnknownLogin() {
+        return fixture.tokenService.authenticate("missing", "password");
+    }
+}
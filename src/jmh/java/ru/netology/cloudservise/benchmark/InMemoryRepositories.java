@@ -0,0 +1,107 @@
+package ru.netology.cloudservise.benchmark;
+
+import ru.netology.cloudservise.entity.AuthToken;
+import ru.netology.cloudservise.entity.RevokedToken;
+import ru.netology.cloudservise.entity.User;
+import ru.netology.cloudservise.repository.AuthTokenRepository;
+import ru.netology.cloudservise.repository.RevokedTokenRepository;
+import ru.netology.cloudservise.repository.UserRepository;
+import ru.netology.cloudservise.security.TokenLookup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Заменители Spring Data репозиториев в памяти для бенчмарков.
+ * Реализованы только методы, которые вызывает код аутентификации; остальные бросают UnsupportedOperationException.
+ */
+final class InMemoryRepositories {
+
+    final Map<String, AuthToken> tokensByHash = new ConcurrentHashMap<>();
+    final Map<String, User> usersByLogin = new ConcurrentHashMap<>();
+    final Map<String, RevokedToken> revokedByHash = new ConcurrentHashMap<>();
+
+    private final AtomicLong ids = new AtomicLong();
+
+    User addUser(String login, String passwordHash) {
+        User user = new User();
+        user.setId(ids.incrementAndGet());
+        user.setLogin(login);
+        user.setPassword(passwordHash);
+        usersByLogin.put(login, user);
+        return user;
+    }
+
+    void addToken(String tokenHash, User user, LocalDateTime expiresAt) {
+        AuthToken token = new AuthToken();
+        token.setId(ids.incrementAndGet());
+        token.setTokenHash(tokenHash);
+        token.setUser(user);
+        token.setExpiresAt(expiresAt);
+        tokensByHash.put(tokenHash, token);
+    }
+
+    AuthTokenRepository authTokenRepository() {
+        return proxy(AuthTokenRepository.class, (proxy, method, args) -> switch (method.getName()) {
+            case "findByTokenHash" -> Optional.ofNullable(tokensByHash.get((String) args[0]))
+                    .map(t -> new TokenLookup(t.getTokenHash(), t.getExpiresAt(), t.getUser().getId(), t.getUser().getLogin()));
+            case "findActiveLegacyTokens" -> tokensByHash.values().stream()
+                    .filter(t -> t.getTokenHash().startsWith("$2") && t.getExpiresAt().isAfter((LocalDateTime) args[0]))
+                    .toList();
+            case "save" -> {
+                AuthToken token = (AuthToken) args[0];
+                tokensByHash.values().removeIf(existing -> existing == token);
+                tokensByHash.put(token.getTokenHash(), token);
+                yield token;
+            }
+            case "deleteByTokenHash" -> tokensByHash.remove((String) args[0]) != null ? 1 : 0;
+            case "countByExpiresAtBefore" -> tokensByHash.values().stream()
+                    .filter(t -> t.getExpiresAt().isBefore((LocalDateTime) args[0]))
+                    .count();
+            case "deleteExpiredBatch" -> 0;
+            default -> objectMethod(proxy, method.getName(), args);
+        });
+    }
+
+    UserRepository userRepository() {
+        return proxy(UserRepository.class, (proxy, method, args) -> switch (method.getName()) {
+            case "findByLogin" -> Optional.ofNullable(usersByLogin.get((String) args[0]));
+            case "existsByLogin" -> usersByLogin.containsKey((String) args[0]);
+            default -> objectMethod(proxy, method.getName(), args);
+        });
+    }
+
+    RevokedTokenRepository revokedTokenRepository() {
+        return proxy(RevokedTokenRepository.class, (proxy, method, args) -> switch (method.getName()) {
+            case "findActive" -> List.copyOf(revokedByHash.values());
+            case "existsByTokenHash" -> revokedByHash.containsKey((String) args[0]);
+            case "save" -> {
+                RevokedToken token = (RevokedToken) args[0];
+                revokedByHash.put(token.getTokenHash(), token);
+                yield token;
+            }
+            case "deleteExpired" -> 0;
+            default -> objectMethod(proxy, method.getName(), args);
+        });
+    }
+
+    private static Object objectMethod(Object proxy, String name, Object[] args) {
+        return switch (name) {
+            case "toString" -> "InMemoryRepository";
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            default -> throw new UnsupportedOperationException(name);
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
@@ -0,0 +1,61 @@
+package ru.netology.cloudservise.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import ru.netology.cloudservise.entity.AuthToken;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Исходная проверка токена: перебор всех активных токенов с BCrypt-сравнением до совпадения.
+ * Служит точкой отсчета для TokenValidationBenchmark. Искомый токен стоит в середине списка (средний случай);
+ * крупные значения запускаются явно, например -p activeTokens=1000 -p bcryptCost=12.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class LinearScanBaselineBenchmark {
+
+    @Param({"10", "100"})
+    public int activeTokens;
+
+    @Param({"4", "10"})
+    public int bcryptCost;
+
+    private BCryptPasswordEncoder passwordEncoder;
+    private List<AuthToken> activeTokenRows;
+    private String rawToken;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        passwordEncoder = new BCryptPasswordEncoder(bcryptCost);
+        rawToken = UUID.randomUUID().toString();
+
+        // Стоимость BCrypt не зависит от соли, поэтому непопадающие строки используют один хэш
+        String otherHash = passwordEncoder.encode(UUID.randomUUID().toString());
+        String targetHash = passwordEncoder.encode(rawToken);
+
+        activeTokenRows = new ArrayList<>(activeTokens);
+        for (int i = 0; i < activeTokens; i++) {
+            AuthToken token = new AuthToken();
+            token.setTokenHash(i == activeTokens / 2 ? targetHash : otherHash);
+            activeTokenRows.add(token);
+        }
+    }
+
+    @Benchmark
+    public AuthToken linearScan() {
+        for (AuthToken authToken : activeTokenRows) {
+            if (passwordEncoder.matches(rawToken, authToken.getTokenHash())) {
+                return authToken;
+            }
+        }
+        return null;
+    }
+}
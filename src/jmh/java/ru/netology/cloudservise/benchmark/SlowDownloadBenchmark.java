@@ -0,0 +1,118 @@
+package ru.netology.cloudservise.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.netology.cloudservise.service.LocalStorageBackend;
+import ru.netology.cloudservise.service.StorageCodec;
+import ru.netology.cloudservise.service.StorageSync;
+import ru.netology.cloudservise.service.StoredFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Пачка одновременных медленных скачиваний на пуле платформенных потоков размера Tomcat по умолчанию
+ * и на виртуальных потоках. Каждый запрос занимает соединение из пула размера Hikari только на время
+ * поиска метаданных, затем отдает файл из LocalStorageBackend клиенту, принимающему CHUNK байт
+ * за CLIENT_DELAY_MILLIS. Время пачки показывает, что ограничивает одновременность: пул потоков или пул БД.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SlowDownloadBenchmark {
+
+    private static final int TOMCAT_MAX_THREADS = 200;
+    private static final int DB_POOL_SIZE = 10;
+    private static final long QUERY_MILLIS = 1;
+    private static final int FILE_SIZE = 64 * 1024;
+    private static final int CHUNK = 8 * 1024;
+    private static final long CLIENT_DELAY_MILLIS = 20;
+    private static final String KEY = "blobs/bench";
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"200", "2000"})
+    public int downloads;
+
+    private Path root;
+    private LocalStorageBackend backend;
+    private Semaphore connections;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("slow-download-bench");
+        backend = new LocalStorageBackend(root.toString(), StorageSync.none());
+        byte[] content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+        Files.createDirectories(root.resolve("blobs"));
+        Files.write(root.resolve(KEY), content);
+
+        connections = new Semaphore(DB_POOL_SIZE, true);
+        executor = threads.equals("virtual")
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(TOMCAT_MAX_THREADS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public long concurrentSlowDownloads() throws Exception {
+        List<Future<Long>> responses = new ArrayList<>(downloads);
+        for (int i = 0; i < downloads; i++) {
+            responses.add(executor.submit(this::download));
+        }
+        long sent = 0;
+        for (Future<Long> response : responses) {
+            sent += response.get();
+        }
+        return sent;
+    }
+
+    private long download() throws Exception {
+        // Соединение занято только на время запроса метаданных (open-in-view выключен)
+        connections.acquire();
+        try {
+            Thread.sleep(QUERY_MILLIS);
+        } finally {
+            connections.release();
+        }
+
+        StoredFile file = new StoredFile(backend, KEY, FILE_SIZE, Instant.EPOCH, StorageCodec.NONE, "bench");
+        byte[] buffer = new byte[CHUNK];
+        long sent = 0;
+        try (InputStream content = file.resource().getInputStream()) {
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                // Запись в сокет медленного клиента блокирует поток запроса
+                Thread.sleep(CLIENT_DELAY_MILLIS);
+                sent += read;
+            }
+        }
+        return sent;
+    }
+}
@@ -0,0 +1,49 @@
+package ru.netology.cloudservise.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.netology.cloudservise.entity.User;
+import ru.netology.cloudservise.security.TokenMode;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Выдача токена в режимах database и signed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenIssueBenchmark {
+
+    @Param({"DATABASE", "SIGNED"})
+    public TokenMode tokenMode;
+
+    private AuthFixture fixture;
+    private User user;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = new AuthFixture(4, 1000);
+        ReflectionTestUtils.setField(fixture.tokenService, "tokenMode", tokenMode);
+        user = fixture.repositories.addUser("bench", "unused");
+    }
+
+    // Выданные токены копятся в репозитории в памяти, очищаем их между итерациями
+    @TearDown(Level.Iteration)
+    public void clearTokens() {
+        fixture.repositories.tokensByHash.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public String createToken() {
+        return fixture.tokenService.createToken(user);
+    }
+}
@@ -0,0 +1,114 @@
+package ru.netology.cloudservise.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import ru.netology.cloudservise.entity.User;
+import ru.netology.cloudservise.security.AuthenticatedUser;
+import ru.netology.cloudservise.security.TokenAuthenticationFilter;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Проверка токена и фильтр аутентификации при разном числе активных токенов и доле попаданий в кэш,
+ * с таблицей сессий вне кучи и без нее.
+ * Промах моделируется вытеснением записи после вызова, поэтому доля попаданий остается постоянной.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenValidationBenchmark {
+
+    @Param({"1000", "100000"})
+    public int activeTokens;
+
+    @Param({"0.0", "0.9", "1.0"})
+    public double cacheHitRatio;
+
+    @Param({"false", "true"})
+    public boolean sessionTable;
+
+    private AuthFixture fixture;
+    private TokenAuthenticationFilter filter;
+    private String[] rawTokens;
+    private String[] digests;
+    private boolean[] cached;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = new AuthFixture(4, activeTokens, sessionTable);
+        filter = new TokenAuthenticationFilter(fixture.tokenService, new ObjectMapper());
+
+        User user = fixture.repositories.addUser("bench", "unused");
+        LocalDateTime expiresAt = LocalDateTime.now().plusHours(24);
+        Random random = new Random(42);
+
+        rawTokens = new String[activeTokens];
+        digests = new String[activeTokens];
+        cached = new boolean[activeTokens];
+        for (int i = 0; i < activeTokens; i++) {
+            rawTokens[i] = fixture.tokenDigester.generateToken();
+            digests[i] = fixture.tokenDigester.digest(rawTokens[i]);
+            fixture.repositories.addToken(digests[i], user, expiresAt);
+
+            cached[i] = random.nextDouble() < cacheHitRatio;
+            if (cached[i]) {
+                fixture.tokenService.validateToken(rawTokens[i]);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int position;
+
+        int next(int bound) {
+            position = position + 1 < bound ? position + 1 : 0;
+            return position;
+        }
+    }
+
+    @Benchmark
+    public Optional<AuthenticatedUser> validateToken(Cursor cursor) {
+        int i = cursor.next(activeTokens);
+        Optional<AuthenticatedUser> user = fixture.tokenService.validateToken(rawTokens[i]);
+        if (!cached[i]) {
+            evict(i);
+        }
+        return user;
+    }
+
+    @Benchmark
+    public Object doFilterInternal(Cursor cursor) throws Exception {
+        int i = cursor.next(activeTokens);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/list");
+        request.addHeader("auth-token", rawTokens[i]);
+
+        filter.doFilterInternal(request, new MockHttpServletResponse(), (req, res) -> {});
+
+        Object principal = SecurityContextHolder.getContext().getAuthentication();
+        SecurityContextHolder.clearContext();
+        if (!cached[i]) {
+            evict(i);
+        }
+        return principal;
+    }
+
+    private void evict(int i) {
+        fixture.sessionTable.evict(digests[i]);
+        fixture.tokenCache.evict(digests[i]);
+    }
+}
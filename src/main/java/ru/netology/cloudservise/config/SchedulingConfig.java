@@ -1,23 +1,121 @@
 package ru.netology.cloudservise.config;
 
 import ru.netology.cloudservise.security.SecureTokenService;
-import lombok.RequiredArgsConstructor;
+import ru.netology.cloudservise.service.BlobStore;
+import ru.netology.cloudservise.service.PackedStorageBackend;
+import ru.netology.cloudservise.service.UploadSessionService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
 @Configuration
 @EnableScheduling
-@RequiredArgsConstructor
 public class SchedulingConfig {
 
     private final SecureTokenService tokenService;
+    private final UploadSessionService uploadSessionService;
+    private final BlobStore blobStore;
+    private final ObjectProvider<PackedStorageBackend> packedStorage;
 
-    @Scheduled(fixedRate = 6 * 60 * 60 * 1000) // 6 часов
+    @Value("${app.storage.reclaim.batch-size:500}")
+    private int reclaimBatchSize = 500;
+
+    @Value("${app.storage.reclaim.max-batches:20}")
+    private int reclaimMaxBatches = 20;
+
+    private final Counter deletedCounter;
+    private final DistributionSummary deletedPerCycle;
+    private final AtomicLong expiredBacklog = new AtomicLong();
+
+    public SchedulingConfig(SecureTokenService tokenService, UploadSessionService uploadSessionService,
+                            BlobStore blobStore, ObjectProvider<PackedStorageBackend> packedStorage,
+                            MeterRegistry meterRegistry) {
+        this.tokenService = tokenService;
+        this.uploadSessionService = uploadSessionService;
+        this.blobStore = blobStore;
+        this.packedStorage = packedStorage;
+        this.deletedCounter = Counter.builder("auth.tokens.expired.deleted")
+                .description("Удалено просроченных токенов")
+                .register(meterRegistry);
+        this.deletedPerCycle = DistributionSummary.builder("auth.tokens.expired.deleted.per.cycle")
+                .description("Удалено просроченных токенов за один запуск очистки")
+                .register(meterRegistry);
+        Gauge.builder("auth.tokens.expired.backlog", expiredBacklog, AtomicLong::get)
+                .description("Просроченные токены, оставшиеся после последнего запуска очистки")
+                .register(meterRegistry);
+    }
+
+    // Частый запуск небольшими порциями вместо одного большого DELETE раз в 6 часов
+    @Scheduled(fixedDelayString = "${app.token.cleanup.interval:PT1M}",
+            initialDelayString = "${app.token.cleanup.interval:PT1M}")
     public void cleanupExpiredTokens() {
         log.debug("Запуск очистки просроченных токенов");
-        tokenService.cleanupExpiredTokens();
+        int deletedCount = tokenService.cleanupExpiredTokens();
+        deletedCounter.increment(deletedCount);
+        deletedPerCycle.record(deletedCount);
+
+        long backlog = tokenService.countExpiredTokens();
+        expiredBacklog.set(backlog);
+        if (deletedCount > 0 || backlog > 0) {
+            log.info("Очищено просроченных токенов: {}, осталось: {}", deletedCount, backlog);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.upload.cleanup.interval:PT10M}",
+            initialDelayString = "${app.upload.cleanup.interval:PT10M}")
+    public void cleanupAbandonedUploads() {
+        int deletedCount = uploadSessionService.cleanupExpiredSessions();
+        if (deletedCount > 0) {
+            log.info("Удалено брошенных сессий загрузки: {}", deletedCount);
+        }
+    }
+
+    // Каждая порция - отдельная транзакция, блокирующая только свои строки blobs
+    @Scheduled(fixedDelayString = "${app.storage.reclaim.interval:PT10M}",
+            initialDelayString = "${app.storage.reclaim.interval:PT10M}")
+    public void reclaimUnreferencedBlobs() {
+        int reclaimed = 0;
+        try {
+            for (int batch = 0; batch < reclaimMaxBatches; batch++) {
+                int deleted = blobStore.reclaimUnreferenced(reclaimBatchSize);
+                reclaimed += deleted;
+                if (deleted < reclaimBatchSize) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.error("Ошибка при удалении blob без ссылок", e);
+        }
+        if (reclaimed > 0) {
+            log.info("Удалено blob без ссылок: {}", reclaimed);
+        }
+    }
+
+    // Работает только при app.storage.backend=packed
+    @Scheduled(fixedDelayString = "${app.storage.packed.compaction-interval:PT30M}",
+            initialDelayString = "${app.storage.packed.compaction-interval:PT30M}")
+    public void compactPackedSegments() {
+        PackedStorageBackend packed = packedStorage.getIfAvailable();
+        if (packed == null) {
+            return;
+        }
+        try {
+            int compacted = packed.compact();
+            if (compacted > 0) {
+                log.info("Уплотнено сегментов: {}", compacted);
+            }
+        } catch (IOException e) {
+            log.error("Ошибка при уплотнении сегментов", e);
+        }
     }
 }
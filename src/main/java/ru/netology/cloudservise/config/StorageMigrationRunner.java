@@ -0,0 +1,117 @@
+package ru.netology.cloudservise.config;
+
+import ru.netology.cloudservise.service.StorageLayoutMigrator;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Фоновый перенос файлов в раскладку StorageLayout после старта приложения (app.storage.layout.migration.enabled).
+ * Несколько потоков разбирают диапазоны id из общего курсора, сервис при этом продолжает принимать запросы.
+ * Строки, занятые другими транзакциями, пропускаются и переносятся при следующем запуске.
+ */
+@Slf4j
+@Component
+public class StorageMigrationRunner {
+
+    private final StorageLayoutMigrator migrator;
+    private final boolean enabled;
+    private final int threads;
+    private final int batchSize;
+    private final boolean virtualThreads;
+
+    private volatile ExecutorService executor;
+
+    public StorageMigrationRunner(StorageLayoutMigrator migrator,
+                                  @Value("${app.storage.layout.migration.enabled:false}") boolean enabled,
+                                  @Value("${app.storage.layout.migration.threads:4}") int threads,
+                                  @Value("${app.storage.layout.migration.batch-size:200}") int batchSize,
+                                  @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.migrator = migrator;
+        this.enabled = enabled;
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.virtualThreads = virtualThreads;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        // Число потоков задает число отправленных задач (threads + координатор), а не пул
+        ThreadFactory factory = virtualThreads
+                ? Thread.ofVirtual().name("storage-migration-", 0).factory()
+                : Thread.ofPlatform().name("storage-migration-", 0).factory();
+        executor = Executors.newThreadPerTaskExecutor(factory);
+        executor.submit(this::migrate);
+    }
+
+    @PreDestroy
+    public void stop() {
+        ExecutorService current = executor;
+        if (current != null) {
+            current.shutdownNow();
+        }
+    }
+
+    private void migrate() {
+        long started = System.nanoTime();
+        long blobs = migrator.relayoutSupported()
+                ? runParallel("blob", migrator.maxBlobId(), migrator::migrateBlobs)
+                : 0;
+        long legacy = runParallel("файлы старого формата", migrator.maxUserFileId(), migrator::migrateLegacyFiles);
+        log.info("Перенос хранилища завершен за {} с: blob {}, файлов старого формата {}",
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started), blobs, legacy);
+        executor.shutdown();
+    }
+
+    private long runParallel(String name, long maxId, RangeMigration migration) {
+        AtomicLong cursor = new AtomicLong(1);
+        AtomicLong migrated = new AtomicLong();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(executor.submit(() -> {
+                long from;
+                while (!Thread.currentThread().isInterrupted() && (from = cursor.getAndAdd(batchSize)) <= maxId) {
+                    try {
+                        migrated.addAndGet(migration.migrate(from, from + batchSize));
+                    } catch (Exception e) {
+                        // Порция откатывается целиком и будет повторена при следующем запуске
+                        log.error("Ошибка переноса ({}) в диапазоне id {}-{}", name, from, from + batchSize - 1, e);
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                log.error("Перенос ({}) прерван", name, e.getCause());
+            }
+        }
+        log.info("Перенесено ({}): {}", name, migrated.get());
+        return migrated.get();
+    }
+
+    @FunctionalInterface
+    private interface RangeMigration {
+        int migrate(long fromId, long toId) throws Exception;
+    }
+}
@@ -4,10 +4,15 @@ import ru.netology.cloudservise.dto.ErrorResponse;
 import ru.netology.cloudservise.dto.LoginRequest;
 import ru.netology.cloudservise.dto.LoginResponse;
 import ru.netology.cloudservise.entity.User;
+import ru.netology.cloudservise.exception.ServiceOverloadedException;
+import ru.netology.cloudservise.exception.TooManyLoginAttemptsException;
+import ru.netology.cloudservise.security.LoginAttemptLimiter;
 import ru.netology.cloudservise.security.SecureTokenService;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -19,24 +24,45 @@ import java.util.Optional;
 public class AuthController {
 
     private final SecureTokenService tokenService;
+    private final LoginAttemptLimiter loginAttemptLimiter;
 
     @PostMapping("/login")
-    public ResponseEntity<?> login(@Valid @RequestBody LoginRequest request) {
+    public ResponseEntity<?> login(@Valid @RequestBody LoginRequest request, HttpServletRequest httpRequest) {
+        String clientIp = httpRequest.getRemoteAddr();
         try {
+            // Отклоняем до проверки пароля, чтобы перебор не тратил BCrypt; место в лимите занимается сразу,
+            // поэтому параллельные попытки его не превысят
+            loginAttemptLimiter.reserve(request.login(), clientIp);
+
             // Используем метод authenticate из SecureTokenService
-            Optional<User> user = tokenService.authenticate(request.login(), request.password());
+            Optional<User> user;
+            try {
+                user = tokenService.authenticate(request.login(), request.password());
+            } catch (RuntimeException e) {
+                // Пароль не проверен, попытка не засчитывается
+                loginAttemptLimiter.release(request.login(), clientIp);
+                throw e;
+            }
 
             if (user.isPresent()) {
+                loginAttemptLimiter.recordSuccess(request.login(), clientIp);
                 String token = tokenService.createToken(user.get());
                 return ResponseEntity.ok(new LoginResponse(token));
             } else {
+                loginAttemptLimiter.recordFailure();
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                         .body(new ErrorResponse("Неверные учетные данные", 400));
             }
-        } catch (Exception e) {
-            log.error("Ошибка при аутентификации", e);
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                    .body(new ErrorResponse("Неверные учетные данные", 400));
+        } catch (TooManyLoginAttemptsException e) {
+            log.warn("Вход отклонен: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(new ErrorResponse("Слишком много попыток входа, повторите попытку позже", 429));
+        } catch (ServiceOverloadedException e) {
+            log.warn("Вход отклонен: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(new ErrorResponse("Сервис перегружен, повторите попытку позже", 503));
         }
     }
 
@@ -1,159 +1,360 @@
 package ru.netology.cloudservise.controller;
 
 import ru.netology.cloudservise.dto.ErrorResponse;
-import ru.netology.cloudservise.dto.FileInfoResponse;
+import ru.netology.cloudservise.dto.InstantUploadRequest;
+import ru.netology.cloudservise.dto.InstantUploadResponse;
 import ru.netology.cloudservise.dto.RenameFileRequest;
-import ru.netology.cloudservise.entity.User;
-import ru.netology.cloudservise.security.SecureTokenService;
+import ru.netology.cloudservise.security.AuthenticatedUser;
+import ru.netology.cloudservise.service.FileListCursor;
+import ru.netology.cloudservise.service.FileListPage;
 import ru.netology.cloudservise.service.FileStorageService;
+import ru.netology.cloudservise.service.StorageObject;
+import ru.netology.cloudservise.service.StoredFile;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import java.io.IOException;
+import java.time.Instant;
+import java.util.Collections;
 import java.util.List;
-import java.util.Optional;
 
 
 @RestController
 @RequiredArgsConstructor
 public class FileController {
 
-    private final SecureTokenService tokenService;
+    // Курсор следующей страницы GET /list; отсутствует на последней странице
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    // Атрибуты запроса Tomcat для отдачи файла через sendfile после завершения обработчика
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    // Клиент может хранить ответ, но перед использованием обязан перепроверить его по ETag
+    private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
     private final FileStorageService fileStorageService;
 
     @PostMapping(value = "/file", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<?> uploadFile(
-            @RequestHeader("auth-token") String authToken,
+            @AuthenticationPrincipal AuthenticatedUser user,
             @RequestParam("filename") String filename,
             @RequestPart("file") MultipartFile file) {
 
-        Optional<User> user = tokenService.validateToken(authToken);
-        if (user.isEmpty()) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body(new ErrorResponse("Ошибка авторизации", 401));
-        }
-
         if (filename == null || filename.trim().isEmpty()) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                     .body(new ErrorResponse("Ошибка входных данных", 400));
         }
 
         try {
-            if (fileStorageService.fileExists(user.get(), filename)) {
+            if (fileStorageService.fileExists(user, filename)) {
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                         .body(new ErrorResponse("Файл уже существует", 400));
             }
 
-            fileStorageService.storeFile(user.get(), filename, file);
+            fileStorageService.storeFile(user, filename, file);
             return ResponseEntity.ok().build();
         } catch (IOException e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                     .body(new ErrorResponse("Ошибка входных данных", 400));
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(new ErrorResponse("Ошибка загрузки файла", 500));
         }
     }
 
-    @GetMapping("/file")
-    public ResponseEntity<?> downloadFile(
-            @RequestHeader("auth-token") String authToken,
-            @RequestParam("filename") String filename) {
+    // Проверка перед загрузкой: если такое содержимое уже есть на сервере, файл создается сразу
+    @PostMapping("/file/instant")
+    public ResponseEntity<?> instantUpload(
+            @AuthenticationPrincipal AuthenticatedUser user,
+            @RequestParam("filename") String filename,
+            @Valid @RequestBody InstantUploadRequest request) throws IOException {
+
+        if (filename == null || filename.trim().isEmpty()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(new ErrorResponse("Ошибка входных данных", 400));
+        }
 
-        Optional<User> user = tokenService.validateToken(authToken);
-        if (user.isEmpty()) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body(new ErrorResponse("Ошибка авторизации", 401));
+        if (fileStorageService.fileExists(user, filename)) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(new ErrorResponse("Файл уже существует", 400));
         }
 
+        boolean uploaded = fileStorageService.storeExisting(user, filename, request.hash(), request.size());
+        return ResponseEntity.ok(new InstantUploadResponse(uploaded));
+    }
+
+    @GetMapping("/file")
+    public ResponseEntity<?> downloadFile(
+            @AuthenticationPrincipal AuthenticatedUser user,
+            @RequestParam("filename") String filename,
+            HttpServletRequest request) {
+
         try {
-            byte[] fileContent = fileStorageService.loadFile(user.get(), filename);
+            StoredFile storedFile = fileStorageService.loadFile(user, filename);
+            String range = request.getHeader(HttpHeaders.RANGE);
+            // Сжатые байты отдаются без распаковки, если клиент их принимает; диапазоны считаются
+            // по исходному содержимому, поэтому запрос с Range получает распакованные данные
+            boolean encoded = storedFile.compressed() && range == null
+                    && acceptsEncoding(request, storedFile.codec().contentEncoding());
 
+            String eTag = storedFile.eTag(encoded);
             HttpHeaders headers = new HttpHeaders();
+            headers.setETag(eTag);
+            headers.setLastModified(storedFile.lastModified());
+            headers.setCacheControl(REVALIDATE);
+            if (storedFile.compressed()) {
+                headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            }
+
+            // Валидаторы берутся из метаданных, поэтому 304 отдается без обращения к хранилищу
+            if (notModified(request, eTag, storedFile.lastModified())) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+            }
+
+            // Отсутствующий в хранилище объект обнаруживается здесь, до начала ответа
+            StorageObject object = storedFile.stat();
             headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
             headers.setContentDispositionFormData("attachment", filename);
+            headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
 
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .body(fileContent);
+            if (encoded) {
+                return encodedContent(storedFile, object.size(), headers, request);
+            }
+
+            if (range == null || !ifRangeMatches(request, storedFile)) {
+                return fullContent(storedFile, headers, request, range != null);
+            }
+
+            List<ResourceRegion> regions;
+            try {
+                regions = HttpRange.toResourceRegions(HttpRange.parseRanges(range), storedFile.resource());
+            } catch (IllegalArgumentException e) {
+                headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + storedFile.size());
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).headers(headers).build();
+            }
+            return partialContent(storedFile, regions, headers, request);
         } catch (IOException e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                     .body(new ErrorResponse("Ошибка входных данных", 400));
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(new ErrorResponse("Ошибка загрузки файла", 500));
         }
     }
 
     @DeleteMapping("/file")
     public ResponseEntity<?> deleteFile(
-            @RequestHeader("auth-token") String authToken,
+            @AuthenticationPrincipal AuthenticatedUser user,
             @RequestParam("filename") String filename) {
 
-        Optional<User> user = tokenService.validateToken(authToken);
-        if (user.isEmpty()) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body(new ErrorResponse("Ошибка авторизации", 401));
-        }
-
-        try {
-            fileStorageService.deleteFile(user.get(), filename);
-            return ResponseEntity.ok().build();
-        } catch (IOException e) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                    .body(new ErrorResponse("Ошибка входных данных", 400));
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(new ErrorResponse("Ошибка удаления файла", 500));
-        }
+        fileStorageService.deleteFile(user, filename);
+        return ResponseEntity.ok().build();
     }
 
     @PutMapping("/file")
     public ResponseEntity<?> renameFile(
-            @RequestHeader("auth-token") String authToken,
+            @AuthenticationPrincipal AuthenticatedUser user,
             @RequestParam("filename") String filename,
             @Valid @RequestBody RenameFileRequest request) {
 
-        Optional<User> user = tokenService.validateToken(authToken);
-        if (user.isEmpty()) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body(new ErrorResponse("Ошибка авторизации", 401));
-        }
-
         try {
-            fileStorageService.renameFile(user.get(), filename, request.name());
+            fileStorageService.renameFile(user, filename, request.name());
             return ResponseEntity.ok().build();
         } catch (IOException e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                     .body(new ErrorResponse("Ошибка входных данных", 400));
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(new ErrorResponse("Ошибка загрузки файла", 500));
         }
     }
 
     @GetMapping("/list")
     public ResponseEntity<?> getFileList(
-            @RequestHeader("auth-token") String authToken,
-            @RequestParam(value = "limit", required = false) Integer limit) {
+            @AuthenticationPrincipal AuthenticatedUser user,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            HttpServletRequest request) {
 
-        Optional<User> user = tokenService.validateToken(authToken);
-        if (user.isEmpty()) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body(new ErrorResponse("Ошибка авторизации", 401));
+        try {
+            // Курсор разбирается до ETag: некорректный получает 400, а в ETag попадает только
+            // повторно закодированный base64url без кавычек и других недопустимых символов
+            FileListCursor after = cursor == null || cursor.isBlank() ? null : FileListCursor.decode(cursor);
+
+            // Неизменившийся список стоит одного запроса версии и отдается без тела
+            long version = fileStorageService.listingVersion(user);
+            String eTag = "\"" + version + (limit != null && limit > 0 ? "-" + limit : "")
+                    + (after != null ? "-" + after.encode() : "") + "\"";
+            if (eTagMatches(request, eTag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(REVALIDATE).build();
+            }
+
+            // Курсор следующей страницы передается заголовком, тело остается массивом файлов
+            FileListPage page = fileStorageService.getUserFiles(user, limit, after);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(eTag).cacheControl(REVALIDATE);
+            if (page.nextCursor() != null) {
+                response.header(NEXT_CURSOR_HEADER, page.nextCursor());
+            }
+            return response.body(page.files());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(new ErrorResponse("Ошибка входных данных", 400));
+        }
+    }
+
+    private ResponseEntity<?> fullContent(StoredFile storedFile, HttpHeaders headers,
+                                          HttpServletRequest request, boolean rangeIgnored) throws IOException {
+        headers.setContentLength(storedFile.size());
+
+        // Если контейнер поддерживает sendfile, файл отдает ядро без копирования через кучу,
+        // иначе Resource копируется в ответ потоком через буфер фиксированного размера.
+        // Сжатый файл распаковывается в приложении, поэтому sendfile для него не применяется
+        if (!storedFile.compressed() && sendfileSupported(request, storedFile)) {
+            sendfile(request, storedFile, 0, storedFile.size());
+            return ResponseEntity.ok().headers(headers).build();
+        }
+
+        // Spring сам нарезает Resource по заголовку Range; если диапазон отклонен по If-Range, отдаем простой поток
+        if (rangeIgnored) {
+            return ResponseEntity.ok()
+                    .headers(headers)
+                    .body(new InputStreamResource(storedFile.resource().getInputStream()));
+        }
+
+        return ResponseEntity.ok()
+                .headers(headers)
+                .body(storedFile.resource());
+    }
+
+    private ResponseEntity<?> partialContent(StoredFile storedFile, List<ResourceRegion> regions,
+                                             HttpHeaders headers, HttpServletRequest request) {
+        if (regions.size() == 1 && !storedFile.compressed() && sendfileSupported(request, storedFile)) {
+            ResourceRegion region = regions.get(0);
+            long end = region.getPosition() + region.getCount();
+            headers.set(HttpHeaders.CONTENT_RANGE,
+                    "bytes " + region.getPosition() + "-" + (end - 1) + "/" + storedFile.size());
+            headers.setContentLength(region.getCount());
+            sendfile(request, storedFile, region.getPosition(), end);
+            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers).build();
+        }
+
+        // Остальное нарезает Spring (206, Content-Range, multipart/byteranges для нескольких диапазонов):
+        // каждый диапазон читается из файла с нужной позиции, а не целиком
+        return ResponseEntity.ok()
+                .headers(headers)
+                .body(storedFile.resource());
+    }
+
+    private ResponseEntity<?> encodedContent(StoredFile storedFile, long storedSize, HttpHeaders headers,
+                                             HttpServletRequest request) {
+        headers.set(HttpHeaders.CONTENT_ENCODING, storedFile.codec().contentEncoding());
+        headers.setContentLength(storedSize);
+
+        if (sendfileSupported(request, storedFile)) {
+            sendfile(request, storedFile, 0, storedSize);
+            return ResponseEntity.ok().headers(headers).build();
+        }
+        return ResponseEntity.ok()
+                .headers(headers)
+                .body(storedFile.storedResource(storedSize));
+    }
+
+    // Accept-Encoding: кодировка подходит, если указана явно или через * с q > 0; явное значение важнее *
+    private boolean acceptsEncoding(HttpServletRequest request, String encoding) {
+        String header = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (header == null) {
+            return false;
         }
 
+        Double wildcard = null;
+        for (String item : header.split(",")) {
+            String[] parts = item.trim().split(";");
+            String coding = parts[0].trim();
+            if (coding.equalsIgnoreCase(encoding)) {
+                return quality(parts) > 0;
+            }
+            if (coding.equals("*")) {
+                wildcard = quality(parts);
+            }
+        }
+        return wildcard != null && wildcard > 0;
+    }
+
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String param = parts[i].trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    // If-None-Match важнее If-Modified-Since; дата сравнивается с точностью до секунды, как в заголовке
+    private boolean notModified(HttpServletRequest request, String eTag, Instant lastModified) {
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            return eTagMatches(request, eTag);
+        }
         try {
-            List<FileInfoResponse> files = fileStorageService.getUserFiles(user.get(), limit);
-            return ResponseEntity.ok(files);
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(new ErrorResponse("Ошибка получения списка файлов", 500));
+            long since = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+            return since != -1 && lastModified.getEpochSecond() <= since / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // If-None-Match: слабое сравнение (префикс W/ не учитывается), * совпадает с любым ETag
+    private boolean eTagMatches(HttpServletRequest request, String eTag) {
+        for (String header : Collections.list(request.getHeaders(HttpHeaders.IF_NONE_MATCH))) {
+            for (String candidate : header.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*") || opaqueTag(tag).equals(opaqueTag(eTag))) {
+                    return true;
+                }
+            }
         }
+        return false;
+    }
+
+    private static String opaqueTag(String eTag) {
+        return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+    }
+
+    // If-Range: диапазон отдается только для неизменившегося файла. ETag сравнивается строго
+    // (слабый не подходит), дата — с Last-Modified
+    private boolean ifRangeMatches(HttpServletRequest request, StoredFile storedFile) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(storedFile.eTag(false));
+        }
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == storedFile.lastModified().getEpochSecond();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // sendfile возможен, только если контейнер его поддерживает, а хранилище дает путь на локальном диске
+    private boolean sendfileSupported(HttpServletRequest request, StoredFile storedFile) {
+        return Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT)) && storedFile.localPath().isPresent();
+    }
+
+    // Диапазон [start, end) отправляется контейнером после завершения обработчика
+    private void sendfile(HttpServletRequest request, StoredFile storedFile, long start, long end) {
+        request.setAttribute(SENDFILE_FILENAME, storedFile.localPath().orElseThrow().toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_START, start);
+        request.setAttribute(SENDFILE_END, end);
     }
-}
\ No newline at end of file
+}
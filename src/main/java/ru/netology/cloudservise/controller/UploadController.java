@@ -0,0 +1,101 @@
+package ru.netology.cloudservise.controller;
+
+import ru.netology.cloudservise.dto.CreateUploadRequest;
+import ru.netology.cloudservise.dto.ErrorResponse;
+import ru.netology.cloudservise.exception.UploadSessionException;
+import ru.netology.cloudservise.security.AuthenticatedUser;
+import ru.netology.cloudservise.service.UploadSessionService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+import java.io.IOException;
+
+/**
+ * Возобновляемая загрузка частями: создать сессию, отправить части (PUT, в любом порядке и параллельно),
+ * узнать принятые части, завершить. Работает рядом с обычной загрузкой POST /file.
+ */
+@RestController
+@RequestMapping("/upload")
+@RequiredArgsConstructor
+public class UploadController {
+
+    private final UploadSessionService uploadSessionService;
+
+    @PostMapping
+    public ResponseEntity<?> createSession(
+            @AuthenticationPrincipal AuthenticatedUser user,
+            @Valid @RequestBody CreateUploadRequest request) throws IOException {
+
+        try {
+            return ResponseEntity.ok(uploadSessionService.createSession(user, request));
+        } catch (UploadSessionException e) {
+            return badRequest(e);
+        }
+    }
+
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<?> getSession(
+            @AuthenticationPrincipal AuthenticatedUser user,
+            @PathVariable Long uploadId) throws IOException {
+
+        try {
+            return ResponseEntity.ok(uploadSessionService.getSession(user, uploadId));
+        } catch (UploadSessionException e) {
+            return badRequest(e);
+        }
+    }
+
+    // Тело запроса - байты части как есть, без multipart
+    @PutMapping("/{uploadId}/chunks/{index}")
+    public ResponseEntity<?> uploadChunk(
+            @AuthenticationPrincipal AuthenticatedUser user,
+            @PathVariable Long uploadId,
+            @PathVariable int index,
+            HttpServletRequest request) {
+
+        try {
+            uploadSessionService.writeChunk(user, uploadId, index, request.getInputStream());
+            return ResponseEntity.ok().build();
+        } catch (UploadSessionException e) {
+            return badRequest(e);
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(new ErrorResponse("Ошибка входных данных", 400));
+        }
+    }
+
+    @PostMapping("/{uploadId}/commit")
+    public ResponseEntity<?> commit(
+            @AuthenticationPrincipal AuthenticatedUser user,
+            @PathVariable Long uploadId) throws IOException {
+
+        try {
+            uploadSessionService.commit(user, uploadId);
+            return ResponseEntity.ok().build();
+        } catch (UploadSessionException e) {
+            return badRequest(e);
+        }
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<?> abort(
+            @AuthenticationPrincipal AuthenticatedUser user,
+            @PathVariable Long uploadId) throws IOException {
+
+        try {
+            uploadSessionService.abort(user, uploadId);
+            return ResponseEntity.ok().build();
+        } catch (UploadSessionException e) {
+            return badRequest(e);
+        }
+    }
+
+    private ResponseEntity<ErrorResponse> badRequest(UploadSessionException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(new ErrorResponse(e.getMessage(), 400));
+    }
+}
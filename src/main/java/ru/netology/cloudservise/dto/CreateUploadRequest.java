@@ -0,0 +1,19 @@
+package ru.netology.cloudservise.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+
+
+public record CreateUploadRequest(
+        @NotBlank(message = "Имя файла обязательно")
+        String filename,
+
+        @NotNull(message = "Размер файла обязателен")
+        @Positive(message = "Размер файла должен быть положительным")
+        Long size,
+
+        // Необязательно: по умолчанию app.upload.default-chunk-size
+        @Positive(message = "Размер части должен быть положительным")
+        Long chunkSize
+) {}
@@ -0,0 +1,16 @@
+package ru.netology.cloudservise.dto;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.PositiveOrZero;
+
+
+public record InstantUploadRequest(
+        @NotNull(message = "Хэш содержимого обязателен")
+        @Pattern(regexp = "^[0-9a-fA-F]{64}$", message = "Хэш должен быть SHA-256 в hex")
+        String hash,
+
+        @NotNull(message = "Размер файла обязателен")
+        @PositiveOrZero(message = "Размер файла не может быть отрицательным")
+        Long size
+) {}
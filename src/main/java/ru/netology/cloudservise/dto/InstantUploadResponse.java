@@ -0,0 +1,7 @@
+package ru.netology.cloudservise.dto;
+
+
+// uploaded = false: содержимого на сервере нет, файл нужно отправить через POST /file
+public record InstantUploadResponse(
+        boolean uploaded
+) {}
@@ -0,0 +1,13 @@
+package ru.netology.cloudservise.dto;
+
+import java.util.List;
+
+
+public record UploadSessionResponse(
+        Long uploadId,
+        String filename,
+        long size,
+        long chunkSize,
+        int chunkCount,
+        List<Integer> receivedChunks
+) {}
@@ -2,22 +2,30 @@ package ru.netology.cloudservise.entity;
 
 import jakarta.persistence.*;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import java.time.LocalDateTime;
 
 
 @Entity
-@Table(name = "auth_tokens")
+@Table(name = "auth_tokens", indexes = {
+        @Index(name = "idx_auth_tokens_token_hash", columnList = "token_hash", unique = true),
+        @Index(name = "idx_auth_tokens_expires_at", columnList = "expires_at")
+})
 @Data
 public class AuthToken {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    // HMAC-SHA256 дайджест токена; у токенов, выданных до перехода на дайджесты, здесь BCrypt-хэш
     @Column(name = "token_hash", nullable = false, length = 255)
     private String tokenHash;
 
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id", nullable = false)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private User user;
 
     @Column(name = "created_at")
@@ -0,0 +1,50 @@
+package ru.netology.cloudservise.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import ru.netology.cloudservise.service.StorageCodec;
+import java.time.LocalDateTime;
+
+
+@Entity
+@Table(name = "blobs", indexes = {
+        @Index(name = "idx_blobs_content_hash", columnList = "content_hash", unique = true),
+        @Index(name = "idx_blobs_unreferenced_at", columnList = "unreferenced_at")
+})
+@Data
+public class Blob {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // SHA-256 содержимого в hex; одинаковое содержимое хранится на диске один раз
+    @Column(name = "content_hash", nullable = false, length = 64)
+    private String contentHash;
+
+    @Column(name = "blob_size", nullable = false)
+    private Long size;
+
+    @Column(name = "storage_path", nullable = false, length = 500)
+    private String storagePath;
+
+    // Кодек сжатия файла на диске; null у blob, сохраненных до появления сжатия, означает NONE
+    @Enumerated(EnumType.STRING)
+    @Column(name = "codec", length = 16)
+    private StorageCodec codec;
+
+    // Число строк user_files, ссылающихся на blob
+    @Column(name = "ref_count", nullable = false)
+    private Integer refCount;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    // Момент, когда ссылок не осталось; blob удаляется сборщиком после периода ожидания
+    @Column(name = "unreferenced_at")
+    private LocalDateTime unreferencedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+}
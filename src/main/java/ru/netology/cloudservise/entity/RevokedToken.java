@@ -0,0 +1,33 @@
+package ru.netology.cloudservise.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+
+@Entity
+@Table(name = "revoked_tokens", indexes = {
+        @Index(name = "idx_revoked_tokens_token_hash", columnList = "token_hash", unique = true)
+})
+@Data
+public class RevokedToken {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // HMAC-SHA256 дайджест отозванного подписанного токена
+    @Column(name = "token_hash", nullable = false, length = 255)
+    private String tokenHash;
+
+    // Запись нужна только до истечения срока действия самого токена
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+
+    @Column(name = "revoked_at")
+    private LocalDateTime revokedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        revokedAt = LocalDateTime.now();
+    }
+}
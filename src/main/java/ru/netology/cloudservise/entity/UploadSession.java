@@ -0,0 +1,58 @@
+package ru.netology.cloudservise.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import java.time.LocalDateTime;
+
+
+@Entity
+@Table(name = "upload_sessions", indexes = {
+        @Index(name = "idx_upload_sessions_expires_at", columnList = "expires_at")
+})
+@Data
+public class UploadSession {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id", nullable = false)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private User user;
+
+    @Column(name = "filename", nullable = false, length = 255)
+    private String filename;
+
+    @Column(name = "file_size", nullable = false)
+    private Long size;
+
+    @Column(name = "chunk_size", nullable = false)
+    private Long chunkSize;
+
+    @Column(name = "chunk_count", nullable = false)
+    private Integer chunkCount;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 20)
+    private UploadStatus status;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    // Незавершенная к этому времени сессия считается брошенной и удаляется вместе с частями
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+
+    // Когда началась сборка файла; завершение, не закончившееся за app.upload.commit-timeout,
+    // считается оборвавшимся, и сессия снова открывается
+    @Column(name = "committing_since")
+    private LocalDateTime committingSince;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+}
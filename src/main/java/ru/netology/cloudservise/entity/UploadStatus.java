@@ -0,0 +1,6 @@
+package ru.netology.cloudservise.entity;
+
+public enum UploadStatus {
+    OPEN,
+    COMMITTING
+}
@@ -2,6 +2,8 @@ package ru.netology.cloudservise.entity;
 
 import jakarta.persistence.*;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -28,10 +30,19 @@ public class User implements UserDetails {
     @Column(name = "created_at")
     private LocalDateTime createdAt;
 
+    // Версия списка файлов: увеличивается при каждом изменении, служит ETag для /list; null означает 0
+    @Column(name = "listing_version")
+    private Long listingVersion;
+
+    // Исключены из equals/hashCode/toString, чтобы случайный вызов не инициализировал ленивые коллекции
     @OneToMany(mappedBy = "user", cascade = CascadeType.ALL, orphanRemoval = true)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private List<AuthToken> tokens = new ArrayList<>();
 
     @OneToMany(mappedBy = "user", cascade = CascadeType.ALL, orphanRemoval = true)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private List<UserFile> files = new ArrayList<>();
 
     @PrePersist
@@ -2,11 +2,17 @@ package ru.netology.cloudservise.entity;
 
 import jakarta.persistence.*;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import ru.netology.cloudservise.service.StorageCodec;
 import java.time.LocalDateTime;
 
 
 @Entity
-@Table(name = "user_files")
+@Table(name = "user_files", indexes = {
+        // Порядок списка файлов; id различает файлы, загруженные в один момент
+        @Index(name = "idx_user_files_user_uploaded", columnList = "user_id, uploaded_at DESC, id DESC")
+})
 @Data
 public class UserFile {
     @Id
@@ -22,8 +28,26 @@ public class UserFile {
     @Column(name = "storage_path", length = 500)
     private String storagePath;
 
+    // Копия кодека blob, чтобы скачивание не требовало загрузки blob; null означает NONE
+    @Enumerated(EnumType.STRING)
+    @Column(name = "codec", length = 16)
+    private StorageCodec codec;
+
+    // Копия хэша содержимого blob, служит ETag файла; null у строк, сохраненных до ее появления
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    // Содержимое в хранилище blob; у файлов, загруженных до его появления, blob отсутствует
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "blob_id")
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private Blob blob;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id", nullable = false)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private User user;
 
     @Column(name = "uploaded_at")
@@ -1,8 +1,11 @@
 package ru.netology.cloudservise.exception;
 
 import ru.netology.cloudservise.dto.ErrorResponse;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.CannotCreateTransactionException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 import org.springframework.web.multipart.MaxUploadSizeExceededException;
@@ -17,6 +20,29 @@ public class GlobalExceptionHandler {
                 .body(new ErrorResponse("Размер файла превышает максимально допустимый", 400));
     }
 
+    @ExceptionHandler(ServiceOverloadedException.class)
+    public ResponseEntity<ErrorResponse> handleOverloadedException(ServiceOverloadedException exc) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(exc.getRetryAfterSeconds()))
+                .body(new ErrorResponse("Сервис перегружен, повторите попытку позже", 503));
+    }
+
+    // Пул соединений исчерпан дольше hikari.connection-timeout: при виртуальных потоках он и есть
+    // ограничитель нагрузки, поэтому ответ - 503, как при переполнении очереди хэширования
+    @ExceptionHandler({CannotCreateTransactionException.class, DataAccessResourceFailureException.class})
+    public ResponseEntity<ErrorResponse> handleDatabaseUnavailable(Exception exc) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(new ErrorResponse("Сервис перегружен, повторите попытку позже", 503));
+    }
+
+    @ExceptionHandler(TooManyLoginAttemptsException.class)
+    public ResponseEntity<ErrorResponse> handleTooManyLoginAttempts(TooManyLoginAttemptsException exc) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(exc.getRetryAfterSeconds()))
+                .body(new ErrorResponse("Слишком много попыток входа, повторите попытку позже", 429));
+    }
+
     @ExceptionHandler(Exception.class)
     public ResponseEntity<ErrorResponse> handleGenericException(Exception exc) {
         return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -0,0 +1,18 @@
+package ru.netology.cloudservise.exception;
+
+import lombok.Getter;
+
+/**
+ * Сервис временно не принимает запрос из-за исчерпания ограниченного ресурса.
+ * Отвечаем 503 с заголовком Retry-After, не ставя запрос в бесконечную очередь.
+ */
+@Getter
+public class ServiceOverloadedException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public ServiceOverloadedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
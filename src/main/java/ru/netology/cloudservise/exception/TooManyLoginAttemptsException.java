@@ -0,0 +1,18 @@
+package ru.netology.cloudservise.exception;
+
+import lombok.Getter;
+
+/**
+ * Превышен лимит неудачных попыток входа для логина или адреса клиента.
+ * Отвечаем 429 с заголовком Retry-After до проверки пароля.
+ */
+@Getter
+public class TooManyLoginAttemptsException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public TooManyLoginAttemptsException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
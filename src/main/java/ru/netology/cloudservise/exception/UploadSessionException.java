@@ -0,0 +1,12 @@
+package ru.netology.cloudservise.exception;
+
+/**
+ * Некорректная операция с сессией загрузки: сессия не найдена, неверный номер или размер части,
+ * получены не все части. Отвечаем 400 с текстом причины.
+ */
+public class UploadSessionException extends RuntimeException {
+
+    public UploadSessionException(String message) {
+        super(message);
+    }
+}
@@ -1,22 +1,44 @@
 package ru.netology.cloudservise.repository;
 
 import ru.netology.cloudservise.entity.AuthToken;
+import ru.netology.cloudservise.security.TokenLookup;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 
 @Repository
 public interface AuthTokenRepository extends JpaRepository<AuthToken, Long> {
 
-    @Query("SELECT t FROM AuthToken t WHERE t.expiresAt > :now")
-    List<AuthToken> findAllActiveTokens(@Param("now") LocalDateTime now);
+    @Query("SELECT new ru.netology.cloudservise.security.TokenLookup(t.tokenHash, t.expiresAt, u.id, u.login) " +
+            "FROM AuthToken t JOIN t.user u WHERE t.tokenHash = :tokenHash")
+    Optional<TokenLookup> findByTokenHash(@Param("tokenHash") String tokenHash);
 
+    // Токены старого формата, хранящиеся в виде BCrypt-хэша и еще не переведенные на дайджест;
+    // самые новые первыми, так как они вероятнее всего еще используются
+    @Query("SELECT t FROM AuthToken t JOIN FETCH t.user WHERE t.expiresAt > :now AND t.tokenHash LIKE '$2%' " +
+            "ORDER BY t.createdAt DESC")
+    List<AuthToken> findActiveLegacyTokens(@Param("now") LocalDateTime now, Limit limit);
+
+    @Modifying
+    @Query("DELETE FROM AuthToken t WHERE t.tokenHash = :tokenHash")
+    int deleteByTokenHash(@Param("tokenHash") String tokenHash);
+
+    long countByExpiresAtBefore(LocalDateTime now);
+
+    // Ограниченная порция по индексу expires_at в собственной короткой транзакции;
+    // SKIP LOCKED позволяет нескольким экземплярам чистить таблицу, не блокируя друг друга
     @Modifying
-    @Query("DELETE FROM AuthToken t WHERE t.expiresAt < :now")
-    int deleteExpiredTokens(@Param("now") LocalDateTime now);
-}
\ No newline at end of file
+    @Transactional
+    @Query(value = "DELETE FROM auth_tokens WHERE id IN (" +
+            "SELECT id FROM auth_tokens WHERE expires_at < :now ORDER BY expires_at LIMIT :limit FOR UPDATE SKIP LOCKED)",
+            nativeQuery = true)
+    int deleteExpiredBatch(@Param("now") LocalDateTime now, @Param("limit") int limit);
+}
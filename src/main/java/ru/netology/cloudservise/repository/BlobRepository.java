@@ -0,0 +1,48 @@
+package ru.netology.cloudservise.repository;
+
+import ru.netology.cloudservise.entity.Blob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+
+@Repository
+public interface BlobRepository extends JpaRepository<Blob, Long> {
+
+    Optional<Blob> findByContentHash(String contentHash);
+
+    boolean existsByContentHash(String contentHash);
+
+    // Атомарное увеличение счетчика ссылок; 0 означает, что такого содержимого еще нет
+    @Modifying
+    @Transactional
+    @Query("UPDATE Blob b SET b.refCount = b.refCount + 1, b.unreferencedAt = null WHERE b.contentHash = :hash")
+    int incrementRefCount(@Param("hash") String contentHash);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE Blob b SET b.refCount = b.refCount - 1, " +
+            "b.unreferencedAt = CASE WHEN b.refCount = 1 THEN :now ELSE b.unreferencedAt END " +
+            "WHERE b.id = :id AND b.refCount > 0")
+    int decrementRefCount(@Param("id") Long id, @Param("now") LocalDateTime now);
+
+    // Блокирует порцию blob без ссылок; параллельные сборщики пропускают уже заблокированные строки,
+    // а увеличение счетчика ссылок ждет завершения транзакции сборщика
+    @Query(value = "SELECT * FROM blobs WHERE ref_count = 0 AND unreferenced_at < :cutoff " +
+            "ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<Blob> lockUnreferenced(@Param("cutoff") LocalDateTime cutoff, @Param("limit") int limit);
+
+    // Диапазон id для переноса в новую раскладку; строки, занятые сборщиком, пропускаются
+    @Query(value = "SELECT * FROM blobs WHERE id >= :fromId AND id < :toId " +
+            "ORDER BY id FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<Blob> lockRange(@Param("fromId") long fromId, @Param("toId") long toId);
+
+    @Query("SELECT COALESCE(MAX(b.id), 0) FROM Blob b")
+    long findMaxId();
+}
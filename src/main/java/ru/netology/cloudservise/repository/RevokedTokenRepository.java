@@ -0,0 +1,24 @@
+package ru.netology.cloudservise.repository;
+
+import ru.netology.cloudservise.entity.RevokedToken;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import java.time.LocalDateTime;
+import java.util.List;
+
+
+@Repository
+public interface RevokedTokenRepository extends JpaRepository<RevokedToken, Long> {
+
+    @Query("SELECT t FROM RevokedToken t WHERE t.expiresAt > :now")
+    List<RevokedToken> findActive(@Param("now") LocalDateTime now);
+
+    boolean existsByTokenHash(String tokenHash);
+
+    @Modifying
+    @Query("DELETE FROM RevokedToken t WHERE t.expiresAt < :now")
+    int deleteExpired(@Param("now") LocalDateTime now);
+}
@@ -0,0 +1,48 @@
+package ru.netology.cloudservise.repository;
+
+import ru.netology.cloudservise.entity.UploadSession;
+import ru.netology.cloudservise.entity.UploadStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, Long> {
+
+    Optional<UploadSession> findByIdAndUserId(Long id, Long userId);
+
+    List<UploadSession> findTop100ByStatusAndExpiresAtBefore(UploadStatus status, LocalDateTime now);
+
+    // Условный переход статуса: из параллельных запросов на завершение сессии выигрывает только один
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadSession s SET s.status = :to WHERE s.id = :id AND s.status = :from")
+    int updateStatus(@Param("id") Long id, @Param("from") UploadStatus from, @Param("to") UploadStatus to);
+
+    // Начало завершения с отметкой времени, по которой очистка находит оборвавшиеся завершения
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadSession s SET s.status = :to, s.committingSince = :now WHERE s.id = :id AND s.status = :from")
+    int updateStatus(@Param("id") Long id, @Param("from") UploadStatus from, @Param("to") UploadStatus to,
+                     @Param("now") LocalDateTime now);
+
+    // Возвращает в OPEN сессии, завершение которых началось раньше before и так и не закончилось
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadSession s SET s.status = :to WHERE s.status = :from AND s.committingSince < :before")
+    int updateStaleStatus(@Param("from") UploadStatus from, @Param("to") UploadStatus to,
+                          @Param("before") LocalDateTime before);
+
+    // Удаление только в указанном статусе: сессия, которую успели начать завершать, не удаляется
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM UploadSession s WHERE s.id = :id AND s.status = :status")
+    int deleteByIdAndStatus(@Param("id") Long id, @Param("status") UploadStatus status);
+}
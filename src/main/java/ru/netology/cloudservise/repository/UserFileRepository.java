@@ -1,23 +1,60 @@
 package ru.netology.cloudservise.repository;
 
-import ru.netology.cloudservise.entity.User;
 import ru.netology.cloudservise.entity.UserFile;
+import ru.netology.cloudservise.service.FileListEntry;
+import org.springframework.data.domain.Limit;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
 
 @Repository
 public interface UserFileRepository extends JpaRepository<UserFile, Long> {
-    List<UserFile> findByUserOrderByUploadedAtDesc(User user);
-    Optional<UserFile> findByUserAndFilename(User user, String filename);
-    boolean existsByUserAndFilename(User user, String filename);
+    // Страница списка по индексу idx_user_files_user_uploaded: лимит выполняется в SQL, сущности не загружаются
+    @Query("SELECT new ru.netology.cloudservise.service.FileListEntry(f.id, f.filename, f.size, f.uploadedAt) " +
+            "FROM UserFile f WHERE f.user.id = :userId ORDER BY f.uploadedAt DESC, f.id DESC")
+    List<FileListEntry> findListPage(@Param("userId") Long userId, Limit limit);
+
+    // Следующая страница после курсора: просмотр индекса начинается с позиции курсора,
+    // поэтому стоимость не зависит от глубины
+    @Query("SELECT new ru.netology.cloudservise.service.FileListEntry(f.id, f.filename, f.size, f.uploadedAt) " +
+            "FROM UserFile f WHERE f.user.id = :userId " +
+            "AND (f.uploadedAt < :uploadedAt OR (f.uploadedAt = :uploadedAt AND f.id < :id)) " +
+            "ORDER BY f.uploadedAt DESC, f.id DESC")
+    List<FileListEntry> findListPageAfter(@Param("userId") Long userId, @Param("uploadedAt") LocalDateTime uploadedAt,
+                                          @Param("id") long id, Limit limit);
+
+    Optional<UserFile> findByUserIdAndFilename(Long userId, String filename);
+
+    // Строка блокируется до конца транзакции изменения: перенос раскладки пропускает ее (SKIP LOCKED)
+    // или, если успел первым, заставляет дождаться своей фиксации и прочитать уже перенесенную строку
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT f FROM UserFile f WHERE f.user.id = :userId AND f.filename = :filename")
+    Optional<UserFile> lockByUserIdAndFilename(@Param("userId") Long userId, @Param("filename") String filename);
+    boolean existsByUserIdAndFilename(Long userId, String filename);
+    boolean existsByUserIdAndBlobContentHash(Long userId, String contentHash);
+
+    // Файлы, загруженные до появления хранилища blob, в диапазоне id
+    @Query(value = "SELECT * FROM user_files WHERE id >= :fromId AND id < :toId AND blob_id IS NULL " +
+            "ORDER BY id FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<UserFile> lockLegacyRange(@Param("fromId") long fromId, @Param("toId") long toId);
+
+    @Query("SELECT COALESCE(MAX(f.id), 0) FROM UserFile f")
+    long findMaxId();
+
+    // storage_path дублирует путь blob, чтобы чтение не требовало join
+    @Modifying
+    @Query("UPDATE UserFile f SET f.storagePath = :path WHERE f.blob.id = :blobId")
+    int updateStoragePathByBlobId(@Param("blobId") Long blobId, @Param("path") String path);
 
     @Modifying
-    @Query("DELETE FROM UserFile f WHERE f.user = :user AND f.filename = :filename")
-    void deleteByUserAndFilename(@Param("user") User user, @Param("filename") String filename);
+    @Query("DELETE FROM UserFile f WHERE f.user.id = :userId AND f.filename = :filename")
+    void deleteByUserIdAndFilename(@Param("userId") Long userId, @Param("filename") String filename);
 }
\ No newline at end of file
@@ -2,7 +2,11 @@ package ru.netology.cloudservise.repository;
 
 import ru.netology.cloudservise.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import java.util.Optional;
 
 
@@ -10,4 +14,12 @@ import java.util.Optional;
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByLogin(String login);
     boolean existsByLogin(String login);
+
+    @Query("SELECT COALESCE(u.listingVersion, 0) FROM User u WHERE u.id = :userId")
+    Optional<Long> findListingVersion(@Param("userId") Long userId);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.listingVersion = COALESCE(u.listingVersion, 0) + 1 WHERE u.id = :userId")
+    int incrementListingVersion(@Param("userId") Long userId);
 }
@@ -0,0 +1,10 @@
+package ru.netology.cloudservise.security;
+
+/**
+ * Аутентифицированный пользователь в SecurityContext.
+ * В отличие от сущности User не тянет за собой ленивые коллекции tokens/files и пароль.
+ */
+public record AuthenticatedUser(
+        Long id,
+        String login
+) {}
@@ -0,0 +1,179 @@
+package ru.netology.cloudservise.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.netology.cloudservise.exception.TooManyLoginAttemptsException;
+import java.time.Duration;
+
+/**
+ * Ограничение неудачных попыток входа по логину и по адресу клиента.
+ * Для каждого ключа хранится скользящее окно из двух счетчиков (текущее и предыдущее окно),
+ * число ключей ограничено, поэтому память не растет при переборе логинов.
+ * Попытка резервирует место в окне до BCrypt: проверка и увеличение счетчика выполняются атомарно,
+ * поэтому параллельные попытки не превышают лимит, а отклоненная попытка не стоит процессорного времени.
+ * Успешный вход возвращает место, неудачный оставляет его занятым.
+ */
+@Component
+public class LoginAttemptLimiter {
+
+    private final int maxFailuresPerLogin;
+    private final int maxFailuresPerIp;
+    private final long windowMillis;
+
+    private final Cache<String, SlidingWindow> loginWindows;
+    private final Cache<String, SlidingWindow> ipWindows;
+
+    private final Counter failuresCounter;
+    private final Counter throttledByLogin;
+    private final Counter throttledByIp;
+
+    public LoginAttemptLimiter(MeterRegistry meterRegistry,
+                               @Value("${app.auth.throttle.max-failures-per-login:5}") int maxFailuresPerLogin,
+                               @Value("${app.auth.throttle.max-failures-per-ip:20}") int maxFailuresPerIp,
+                               @Value("${app.auth.throttle.window:PT15M}") Duration window,
+                               @Value("${app.auth.throttle.max-tracked-keys:100000}") long maxTrackedKeys) {
+        this.maxFailuresPerLogin = maxFailuresPerLogin;
+        this.maxFailuresPerIp = maxFailuresPerIp;
+        this.windowMillis = window.toMillis();
+
+        Duration keepFor = window.multipliedBy(2);
+        this.loginWindows = Caffeine.newBuilder().maximumSize(maxTrackedKeys).expireAfterAccess(keepFor).build();
+        this.ipWindows = Caffeine.newBuilder().maximumSize(maxTrackedKeys).expireAfterAccess(keepFor).build();
+
+        this.failuresCounter = Counter.builder("auth.login.failures")
+                .description("Неудачные попытки входа")
+                .register(meterRegistry);
+        this.throttledByLogin = Counter.builder("auth.login.throttled")
+                .description("Попытки входа, отклоненные до проверки пароля")
+                .tag("key", "login")
+                .register(meterRegistry);
+        this.throttledByIp = Counter.builder("auth.login.throttled")
+                .description("Попытки входа, отклоненные до проверки пароля")
+                .tag("key", "ip")
+                .register(meterRegistry);
+    }
+
+    // Засчитывает попытку как неудачную до проверки пароля; при исчерпанном лимите бросает исключение,
+    // ничего не засчитав. Место возвращается через recordSuccess или release
+    public void reserve(String login, String clientIp) {
+        long now = System.currentTimeMillis();
+
+        if (clientIp != null) {
+            reserve(ipWindows, clientIp, maxFailuresPerIp, now, throttledByIp, "Слишком много неудачных попыток входа с адреса");
+        }
+        if (login != null) {
+            try {
+                reserve(loginWindows, login, maxFailuresPerLogin, now, throttledByLogin,
+                        "Слишком много неудачных попыток входа для логина");
+            } catch (TooManyLoginAttemptsException e) {
+                unreserve(ipWindows, clientIp, now);
+                throw e;
+            }
+        }
+    }
+
+    // Пароль не подошел: зарезервированное место так и остается занятым
+    public void recordFailure() {
+        failuresCounter.increment();
+    }
+
+    public void recordSuccess(String login, String clientIp) {
+        if (login != null) {
+            loginWindows.invalidate(login);
+        }
+        unreserve(ipWindows, clientIp, System.currentTimeMillis());
+    }
+
+    // Попытка не состоялась (например, пул хэширования перегружен): место возвращается
+    public void release(String login, String clientIp) {
+        long now = System.currentTimeMillis();
+        unreserve(loginWindows, login, now);
+        unreserve(ipWindows, clientIp, now);
+    }
+
+    private void reserve(Cache<String, SlidingWindow> windows, String key, int maxFailures, long now,
+                         Counter throttled, String message) {
+        long[] retryAfterSeconds = {0};
+        windows.asMap().compute(key, (k, window) -> {
+            SlidingWindow current = window != null ? window : new SlidingWindow(windowMillis);
+            if (current.estimate(now) >= maxFailures) {
+                retryAfterSeconds[0] = current.retryAfterSeconds(now);
+            } else {
+                current.increment(now);
+            }
+            return current;
+        });
+
+        if (retryAfterSeconds[0] > 0) {
+            throttled.increment();
+            throw new TooManyLoginAttemptsException(message, retryAfterSeconds[0]);
+        }
+    }
+
+    private void unreserve(Cache<String, SlidingWindow> windows, String key, long now) {
+        if (key != null) {
+            windows.asMap().computeIfPresent(key, (k, window) -> {
+                window.decrement(now);
+                return window;
+            });
+        }
+    }
+
+    /**
+     * Приближенное скользящее окно: счетчик предыдущего окна учитывается с весом оставшейся доли.
+     */
+    private static final class SlidingWindow {
+
+        private final long windowMillis;
+        private long windowStart;
+        private int previous;
+        private int current;
+
+        SlidingWindow(long windowMillis) {
+            this.windowMillis = windowMillis;
+        }
+
+        synchronized void increment(long now) {
+            roll(now);
+            current++;
+        }
+
+        // Место могло перейти в предыдущее окно, пока шла проверка пароля
+        synchronized void decrement(long now) {
+            roll(now);
+            if (current > 0) {
+                current--;
+            } else if (previous > 0) {
+                previous--;
+            }
+        }
+
+        synchronized double estimate(long now) {
+            roll(now);
+            double previousWeight = 1.0 - (double) (now - windowStart) / windowMillis;
+            return previous * previousWeight + current;
+        }
+
+        synchronized long retryAfterSeconds(long now) {
+            roll(now);
+            return Math.max(1, (windowStart + windowMillis - now + 999) / 1000);
+        }
+
+        private void roll(long now) {
+            if (windowStart == 0) {
+                windowStart = now;
+                return;
+            }
+            long elapsedWindows = (now - windowStart) / windowMillis;
+            if (elapsedWindows >= 1) {
+                previous = elapsedWindows == 1 ? current : 0;
+                current = 0;
+                windowStart += elapsedWindows * windowMillis;
+            }
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package ru.netology.cloudservise.security;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Таблица сессий вне кучи: первые 128 бит дайджеста токена -> id пользователя и срок действия.
+ * Хранится в одном MemorySegment фиксированного размера (FFM API), поэтому миллионы сессий не нагружают GC.
+ * Таблица разбита на STRIPES независимых частей с открытой адресацией и линейным пробированием:
+ * запись под блокировкой части, чтение без блокировок по счетчику версий (seqlock).
+ * Заполненная часть сначала освобождается от просроченных записей, затем новые записи отклоняются -
+ * таблица остается кэшем, источник истины - auth_tokens. Как и в TokenCache, запись живет не дольше
+ * app.token.cache.ttl: так отзыв токена, не успевший вытеснить запись, действует не позже чем через ttl.
+ */
+@Slf4j
+@Component
+public class OffHeapSessionTable implements MeterBinder {
+
+    private static final int STRIPES = 64;
+    private static final int MIN_STRIPE_CAPACITY = 16;
+    // Счетчики версий разнесены по разным линиям кэша
+    private static final int VERSION_PADDING = 16;
+
+    private static final long SLOT_BYTES = 32;
+    private static final long KEY_HI = 0;
+    private static final long KEY_LO = 8;
+    private static final long USER_ID = 16;
+    private static final long EXPIRES_AT = 24;
+
+    private final boolean enabled;
+    private final Duration ttl;
+    private final int stripeCapacity;
+    private final int stripeMask;
+    private final int maxStripeSize;
+
+    private final Arena arena;
+    private final MemorySegment slots;
+    private final AtomicLongArray versions;
+    private final ReentrantLock[] locks;
+    private final int[] stripeSizes;
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    // Принципалы хранятся по одному на пользователя, а не на сессию, и переиспользуются при каждом попадании
+    private final Map<Long, AuthenticatedUser> principals = new ConcurrentHashMap<>();
+
+    public OffHeapSessionTable(@Value("${app.token.session-table.enabled:false}") boolean enabled,
+                               @Value("${app.token.session-table.capacity:1048576}") int capacity,
+                               @Value("${app.token.cache.ttl:5m}") Duration ttl) {
+        this.enabled = enabled;
+        this.ttl = ttl;
+        int perStripe = (int) Math.max(MIN_STRIPE_CAPACITY, ((long) capacity + STRIPES - 1) / STRIPES);
+        this.stripeCapacity = Integer.highestOneBit(perStripe - 1) << 1;
+        this.stripeMask = stripeCapacity - 1;
+        this.maxStripeSize = stripeCapacity / 4 * 3;
+
+        this.versions = new AtomicLongArray(STRIPES * VERSION_PADDING);
+        this.locks = new ReentrantLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.stripeSizes = new int[STRIPES];
+
+        if (enabled) {
+            this.arena = Arena.ofShared();
+            this.slots = arena.allocate((long) STRIPES * stripeCapacity * SLOT_BYTES, 64);
+            log.info("Таблица сессий вне кучи: {} слотов, {} МБ", (long) STRIPES * stripeCapacity,
+                    slots.byteSize() / (1024 * 1024));
+        } else {
+            this.arena = null;
+            this.slots = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Optional<AuthenticatedUser> get(String digest) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+
+        long hi = keyHi(digest);
+        long lo = keyLo(digest, hi);
+        int stripe = stripeOf(hi);
+        long now = toEpochSecond(LocalDateTime.now());
+
+        long userId;
+        while (true) {
+            long version = versions.get(stripe * VERSION_PADDING);
+            if ((version & 1) == 0) {
+                userId = find(stripe, hi, lo, now);
+                // Данные дочитаны до повторной проверки версии
+                VarHandle.acquireFence();
+                if (versions.get(stripe * VERSION_PADDING) == version) {
+                    break;
+                }
+            }
+            Thread.onSpinWait();
+        }
+
+        return userId < 0 ? Optional.empty() : Optional.ofNullable(principals.get(userId));
+    }
+
+    public boolean put(String digest, AuthenticatedUser principal, LocalDateTime expiresAt) {
+        if (!enabled) {
+            return false;
+        }
+
+        long hi = keyHi(digest);
+        long lo = keyLo(digest, hi);
+        int stripe = stripeOf(hi);
+        LocalDateTime cachedUntil = LocalDateTime.now().plus(ttl);
+        long expiresAtSecond = toEpochSecond(expiresAt.isBefore(cachedUntil) ? expiresAt : cachedUntil);
+
+        principals.putIfAbsent(principal.id(), principal);
+
+        ReentrantLock lock = locks[stripe];
+        lock.lock();
+        try {
+            int slot = findSlot(stripe, hi, lo);
+            boolean existing = !isEmpty(stripe, slot);
+            if (!existing && stripeSizes[stripe] >= maxStripeSize) {
+                beginWrite(stripe);
+                try {
+                    purgeExpired(stripe, toEpochSecond(LocalDateTime.now()));
+                } finally {
+                    endWrite(stripe);
+                }
+                if (stripeSizes[stripe] >= maxStripeSize) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+                slot = findSlot(stripe, hi, lo);
+            }
+
+            beginWrite(stripe);
+            try {
+                long offset = offset(stripe, slot);
+                slots.set(ValueLayout.JAVA_LONG, offset + USER_ID, principal.id());
+                slots.set(ValueLayout.JAVA_LONG, offset + EXPIRES_AT, expiresAtSecond);
+                slots.set(ValueLayout.JAVA_LONG, offset + KEY_LO, lo);
+                slots.set(ValueLayout.JAVA_LONG, offset + KEY_HI, hi);
+            } finally {
+                endWrite(stripe);
+            }
+            if (!existing) {
+                stripeSizes[stripe]++;
+                size.incrementAndGet();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void evict(String digest) {
+        if (!enabled) {
+            return;
+        }
+
+        long hi = keyHi(digest);
+        long lo = keyLo(digest, hi);
+        int stripe = stripeOf(hi);
+
+        ReentrantLock lock = locks[stripe];
+        lock.lock();
+        try {
+            int slot = findSlot(stripe, hi, lo);
+            if (!isEmpty(stripe, slot)) {
+                beginWrite(stripe);
+                try {
+                    removeAt(stripe, slot);
+                } finally {
+                    endWrite(stripe);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Вместе с просроченными записями убираются принципалы пользователей, у которых не осталось сессий.
+    // Принципал, добавленный одновременно с очисткой, может пропасть: такая сессия дочитается из БД
+    public int evictExpired(LocalDateTime now) {
+        if (!enabled) {
+            return 0;
+        }
+
+        long nowSecond = toEpochSecond(now);
+        int removed = 0;
+        Set<Long> liveUserIds = new HashSet<>();
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            ReentrantLock lock = locks[stripe];
+            lock.lock();
+            try {
+                beginWrite(stripe);
+                try {
+                    removed += purgeExpired(stripe, nowSecond);
+                } finally {
+                    endWrite(stripe);
+                }
+                collectUserIds(stripe, liveUserIds);
+            } finally {
+                lock.unlock();
+            }
+        }
+        principals.keySet().retainAll(liveUserIds);
+        return removed;
+    }
+
+    public int principalCount() {
+        return principals.size();
+    }
+
+    public long size() {
+        return size.get();
+    }
+
+    public long capacity() {
+        return (long) STRIPES * maxStripeSize;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!enabled) {
+            return;
+        }
+        Gauge.builder("auth.session.table.size", this, OffHeapSessionTable::size)
+                .description("Число сессий в таблице вне кучи")
+                .register(registry);
+        Gauge.builder("auth.session.table.capacity", this, OffHeapSessionTable::capacity)
+                .description("Максимальное число сессий в таблице вне кучи")
+                .register(registry);
+        Gauge.builder("auth.session.table.memory", slots, MemorySegment::byteSize)
+                .description("Память вне кучи, занятая таблицей сессий")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("auth.session.table.rejected", rejected, AtomicLong::get)
+                .description("Сессии, не помещенные в заполненную таблицу")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (arena != null) {
+            arena.close();
+        }
+    }
+
+    // Чтение без блокировки: значения могут быть рваными, поэтому пробирование ограничено размером части,
+    // а результат принимается только при неизменной версии
+    private long find(int stripe, long hi, long lo, long now) {
+        int slot = (int) (lo & stripeMask);
+        for (int probe = 0; probe < stripeCapacity; probe++) {
+            long offset = offset(stripe, slot);
+            long slotHi = slots.get(ValueLayout.JAVA_LONG, offset + KEY_HI);
+            long slotLo = slots.get(ValueLayout.JAVA_LONG, offset + KEY_LO);
+            if (slotHi == 0 && slotLo == 0) {
+                return -1;
+            }
+            if (slotHi == hi && slotLo == lo) {
+                long expiresAt = slots.get(ValueLayout.JAVA_LONG, offset + EXPIRES_AT);
+                return expiresAt > now ? slots.get(ValueLayout.JAVA_LONG, offset + USER_ID) : -1;
+            }
+            slot = (slot + 1) & stripeMask;
+        }
+        return -1;
+    }
+
+    // Слот с этим ключом либо первый пустой слот пробирования; вызывается под блокировкой части
+    private int findSlot(int stripe, long hi, long lo) {
+        int slot = (int) (lo & stripeMask);
+        while (!isEmpty(stripe, slot)) {
+            long offset = offset(stripe, slot);
+            if (slots.get(ValueLayout.JAVA_LONG, offset + KEY_HI) == hi
+                    && slots.get(ValueLayout.JAVA_LONG, offset + KEY_LO) == lo) {
+                return slot;
+            }
+            slot = (slot + 1) & stripeMask;
+        }
+        return slot;
+    }
+
+    private int purgeExpired(int stripe, long nowSecond) {
+        int removed = 0;
+        int slot = 0;
+        while (slot < stripeCapacity) {
+            long offset = offset(stripe, slot);
+            if (!isEmpty(stripe, slot) && slots.get(ValueLayout.JAVA_LONG, offset + EXPIRES_AT) <= nowSecond) {
+                // На освободившееся место могла сдвинуться следующая запись, слот проверяется повторно
+                removeAt(stripe, slot);
+                removed++;
+            } else {
+                slot++;
+            }
+        }
+        return removed;
+    }
+
+    private void collectUserIds(int stripe, Set<Long> userIds) {
+        for (int slot = 0; slot < stripeCapacity; slot++) {
+            if (!isEmpty(stripe, slot)) {
+                userIds.add(slots.get(ValueLayout.JAVA_LONG, offset(stripe, slot) + USER_ID));
+            }
+        }
+    }
+
+    // Удаление со сдвигом назад: записи цепочки пробирования подтягиваются в дыру, надгробия не нужны
+    private void removeAt(int stripe, int slot) {
+        int hole = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & stripeMask;
+            if (isEmpty(stripe, next)) {
+                break;
+            }
+            int home = (int) (slots.get(ValueLayout.JAVA_LONG, offset(stripe, next) + KEY_LO) & stripeMask);
+            boolean staysInPlace = hole <= next
+                    ? hole < home && home <= next
+                    : hole < home || home <= next;
+            if (!staysInPlace) {
+                MemorySegment.copy(slots, offset(stripe, next), slots, offset(stripe, hole), SLOT_BYTES);
+                hole = next;
+            }
+        }
+        slots.asSlice(offset(stripe, hole), SLOT_BYTES).fill((byte) 0);
+        stripeSizes[stripe]--;
+        size.decrementAndGet();
+    }
+
+    private void beginWrite(int stripe) {
+        versions.incrementAndGet(stripe * VERSION_PADDING);
+        VarHandle.storeStoreFence();
+    }
+
+    private void endWrite(int stripe) {
+        versions.incrementAndGet(stripe * VERSION_PADDING);
+    }
+
+    private boolean isEmpty(int stripe, int slot) {
+        long offset = offset(stripe, slot);
+        return slots.get(ValueLayout.JAVA_LONG, offset + KEY_HI) == 0
+                && slots.get(ValueLayout.JAVA_LONG, offset + KEY_LO) == 0;
+    }
+
+    private long offset(int stripe, int slot) {
+        return ((long) stripe * stripeCapacity + slot) * SLOT_BYTES;
+    }
+
+    private static int stripeOf(long hi) {
+        return (int) (hi >>> 58);
+    }
+
+    // Дайджест - hex HMAC-SHA256, ключом служат его первые 128 бит
+    private static long keyHi(String digest) {
+        return Long.parseUnsignedLong(digest, 0, 16, 16);
+    }
+
+    // Нулевой ключ означает пустой слот, поэтому единственный такой дайджест сдвигается на единицу
+    private static long keyLo(String digest, long hi) {
+        long lo = Long.parseUnsignedLong(digest, 16, 32, 16);
+        return hi == 0 && lo == 0 ? 1 : lo;
+    }
+
+    private static long toEpochSecond(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,120 @@
+package ru.netology.cloudservise.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+import ru.netology.cloudservise.exception.ServiceOverloadedException;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Отдельный ограниченный пул для BCrypt.
+ * Всплеск входов загружает только этот пул, а не потоки Tomcat, обслуживающие файлы;
+ * при переполнении очереди запрос сразу отклоняется с ServiceOverloadedException.
+ * Потоки платформенные и при spring.threads.virtual.enabled: BCrypt загружает процессор, и число
+ * одновременных вычислений по-прежнему ограничено ядрами, а виртуальный поток запроса ждет результат,
+ * не занимая несущий поток.
+ */
+@Slf4j
+@Component
+public class PasswordHashingExecutor {
+
+    private final PasswordEncoder passwordEncoder;
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMillis;
+    private final long retryAfterSeconds;
+
+    private final String dummyHash;
+
+    private final Timer hashTimer;
+    private final Counter rejectedCounter;
+
+    public PasswordHashingExecutor(PasswordEncoder passwordEncoder,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${app.auth.hashing.threads:0}") int threads,
+                                   @Value("${app.auth.hashing.queue-capacity:64}") int queueCapacity,
+                                   @Value("${app.auth.hashing.timeout-millis:10000}") long timeoutMillis,
+                                   @Value("${app.auth.hashing.retry-after-seconds:2}") long retryAfterSeconds) {
+        // 0 - половина доступных ядер, чтобы хэширование не вытесняло обработку остальных запросов
+        int poolSize = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+        this.passwordEncoder = passwordEncoder;
+        // Вычисляется при старте: иначе первый вход с несуществующим логином стоил бы двух хэширований
+        this.dummyHash = passwordEncoder.encode(UUID.randomUUID().toString());
+        this.timeoutMillis = timeoutMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name("password-hash-", 0).daemon(true).factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        this.hashTimer = Timer.builder("auth.password.hash")
+                .description("Время вычисления хэша пароля")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("auth.password.hash.rejected")
+                .description("Запросы, отклоненные из-за переполнения очереди хэширования")
+                .register(meterRegistry);
+        Gauge.builder("auth.password.hash.queue", executor, pool -> pool.getQueue().size())
+                .description("Задачи хэширования в очереди")
+                .register(meterRegistry);
+        Gauge.builder("auth.password.hash.active", executor, ThreadPoolExecutor::getActiveCount)
+                .register(meterRegistry);
+    }
+
+    public boolean matches(String rawPassword, String encodedPassword) {
+        return submit(() -> passwordEncoder.matches(rawPassword, encodedPassword));
+    }
+
+    // Проверка против фиктивного хэша той же стоимости: ответ для несуществующего логина
+    // занимает столько же времени, сколько для существующего
+    public boolean matchesDummy(String rawPassword) {
+        matches(rawPassword, dummyHash);
+        return false;
+    }
+
+    public String encode(String rawPassword) {
+        return submit(() -> passwordEncoder.encode(rawPassword));
+    }
+
+    private <T> T submit(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = executor.submit(() -> hashTimer.recordCallable(task));
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            throw new ServiceOverloadedException("Очередь хэширования паролей переполнена", retryAfterSeconds);
+        }
+
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            rejectedCounter.increment();
+            throw new ServiceOverloadedException("Превышено время ожидания хэширования пароля", retryAfterSeconds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new IllegalStateException("Хэширование пароля прервано", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ошибка при хэшировании пароля", e.getCause());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -2,20 +2,25 @@ package ru.netology.cloudservise.security;
 
 import ru.netology.cloudservise.entity.AuthToken;
 import ru.netology.cloudservise.entity.User;
+import ru.netology.cloudservise.exception.TooManyLoginAttemptsException;
 import ru.netology.cloudservise.repository.AuthTokenRepository;
 import ru.netology.cloudservise.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
-import java.util.UUID;
+import java.util.regex.Pattern;
 
 
 @Slf4j
@@ -23,13 +28,45 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class SecureTokenService implements UserDetailsService {
 
+    // Токены, выданные до перехода на дайджесты, были UUID и хранились в виде BCrypt-хэша
+    private static final Pattern LEGACY_TOKEN_PATTERN =
+            Pattern.compile("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$");
+
     private final AuthTokenRepository authTokenRepository;
     private final UserRepository userRepository; // Инжектим репозиторий напрямую
-    private final PasswordEncoder passwordEncoder;
+    private final PasswordHashingExecutor passwordHashingExecutor;
+    private final TokenDigester tokenDigester;
+    private final OffHeapSessionTable sessionTable;
+    private final TokenCache tokenCache;
+    private final SignedTokenCodec signedTokenCodec;
+    private final TokenRevocationList revocationList;
+    private final LoginAttemptLimiter loginAttemptLimiter;
 
     @Value("${app.token.expiration-hours}")
     private int tokenExpirationHours;
 
+    @Value("${app.token.cleanup.batch-size:1000}")
+    private int cleanupBatchSize = 1000;
+
+    @Value("${app.token.cleanup.max-batches:50}")
+    private int cleanupMaxBatches = 50;
+
+    @Value("${app.token.mode:database}")
+    private TokenMode tokenMode = TokenMode.DATABASE;
+
+    // Каждый неизвестный токен в формате UUID стоит до max-rows проверок BCrypt, поэтому перебор ограничен
+    // числом строк, сроком и адресом клиента: неудачный перебор считается неудачной попыткой входа с адреса.
+    // Токены старше последних max-rows строк и все токены старого формата после until не принимаются -
+    // клиент получает 401 и входит заново
+    @Value("${app.token.legacy-migration.max-rows:100}")
+    private int legacyMigrationMaxRows = 100;
+
+    @Value("${app.token.legacy-migration.until:2026-12-31T00:00:00Z}")
+    private Instant legacyMigrationUntil = Instant.parse("2026-12-31T00:00:00Z");
+
+    // Новые токены старого формата не выдаются: когда их не осталось, перебор больше не запускается
+    private volatile boolean legacyTokensRemain = true;
+
     @Override
     @Transactional(readOnly = true)
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
@@ -39,11 +76,16 @@ public class SecureTokenService implements UserDetailsService {
 
     @Transactional
     public String createToken(User user) {
-        String rawToken = UUID.randomUUID().toString();
-        String tokenHash = passwordEncoder.encode(rawToken);
+        if (tokenMode == TokenMode.SIGNED) {
+            log.debug("Создан подписанный токен для пользователя: {}", user.getLogin());
+            return signedTokenCodec.encode(user.getId(), user.getLogin(),
+                    LocalDateTime.now().plusHours(tokenExpirationHours));
+        }
+
+        String rawToken = tokenDigester.generateToken();
 
         AuthToken token = new AuthToken();
-        token.setTokenHash(tokenHash);
+        token.setTokenHash(tokenDigester.digest(rawToken));
         token.setUser(user);
         token.setCreatedAt(LocalDateTime.now());
         token.setExpiresAt(LocalDateTime.now().plusHours(tokenExpirationHours));
@@ -54,31 +96,48 @@ public class SecureTokenService implements UserDetailsService {
         return rawToken;
     }
 
-    @Transactional(readOnly = true)
-    public Optional<User> validateToken(String rawToken) {
+    // Без @Transactional: попадание в кэш не должно занимать соединение из пула,
+    // а запросы репозитория сами выполняются в своих транзакциях.
+    // Ошибки БД пробрасываются: TokenAuthenticationFilter отвечает на недоступную БД 503, а не 401
+    public Optional<AuthenticatedUser> validateToken(String rawToken) {
+        return validateToken(rawToken, null);
+    }
+
+    // clientIp ограничивает перебор токенов старого формата; без адреса перебор не ограничивается
+    public Optional<AuthenticatedUser> validateToken(String rawToken, String clientIp) {
         if (rawToken == null || rawToken.isBlank()) {
             return Optional.empty();
         }
 
-        try {
-            LocalDateTime now = LocalDateTime.now();
-            var activeTokens = authTokenRepository.findAllActiveTokens(now);
+        String digest = tokenDigester.digest(rawToken);
 
-            for (AuthToken authToken : activeTokens) {
-                if (passwordEncoder.matches(rawToken, authToken.getTokenHash())) {
-                    User user = authToken.getUser();
-                    log.debug("Токен подтвержден для пользователя: {}", user.getLogin());
-                    return Optional.of(user);
-                }
-            }
+        if (tokenMode == TokenMode.SIGNED) {
+            return validateSignedToken(rawToken, digest);
+        }
 
-            log.debug("Проверка токена не удалась: неверный или просроченный токен");
-            return Optional.empty();
+        // Первый уровень - таблица сессий вне кучи (если включена), второй - кэш в куче
+        Optional<AuthenticatedUser> cachedUser = sessionTable.get(digest);
+        if (cachedUser.isPresent()) {
+            return cachedUser;
+        }
+        cachedUser = tokenCache.get(digest);
+        if (cachedUser.isPresent()) {
+            return cachedUser;
+        }
 
-        } catch (Exception e) {
-            log.error("Ошибка при проверке токена", e);
-            return Optional.empty();
+        Optional<TokenLookup> authToken = findActiveToken(rawToken, digest, LocalDateTime.now(), clientIp);
+
+        if (authToken.isPresent()) {
+            AuthenticatedUser user = authToken.get().principal();
+            if (!sessionTable.put(digest, user, authToken.get().expiresAt())) {
+                tokenCache.put(digest, user, authToken.get().expiresAt());
+            }
+            log.debug("Токен подтвержден для пользователя: {}", user.login());
+            return Optional.of(user);
         }
+
+        log.debug("Проверка токена не удалась: неверный или просроченный токен");
+        return Optional.empty();
     }
 
     @Transactional
@@ -88,15 +147,24 @@ public class SecureTokenService implements UserDetailsService {
         }
 
         try {
-            LocalDateTime now = LocalDateTime.now();
-            var activeTokens = authTokenRepository.findAllActiveTokens(now);
+            String digest = tokenDigester.digest(rawToken);
+            evictAfterCommit(digest);
 
-            for (AuthToken authToken : activeTokens) {
-                if (passwordEncoder.matches(rawToken, authToken.getTokenHash())) {
-                    authTokenRepository.delete(authToken);
-                    log.debug("Пользователь вышел из системы");
-                    return;
-                }
+            if (tokenMode == TokenMode.SIGNED) {
+                signedTokenCodec.decode(rawToken).ifPresent(claims -> {
+                    revocationList.revoke(digest, claims.expiresAt());
+                    log.debug("Подписанный токен отозван");
+                });
+                return;
+            }
+
+            // Токен старого формата уже переведен на дайджест фильтром при проверке этого же запроса
+            Optional<TokenLookup> authToken = findActiveToken(digest, LocalDateTime.now());
+
+            if (authToken.isPresent()) {
+                authTokenRepository.deleteByTokenHash(digest);
+                log.debug("Пользователь вышел из системы");
+                return;
             }
 
             log.debug("Токен для выхода не найден");
@@ -106,26 +174,142 @@ public class SecureTokenService implements UserDetailsService {
         }
     }
 
-    @Transactional
-    public void cleanupExpiredTokens() {
+    // Вытеснение до фиксации удаления позволило бы параллельной проверке снова поместить токен в кэш
+    // из еще видимой строки; после фиксации строки уже нет
+    private void evictAfterCommit(String digest) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            sessionTable.evict(digest);
+            tokenCache.evict(digest);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                sessionTable.evict(digest);
+                tokenCache.evict(digest);
+            }
+        });
+    }
+
+    // Удаляет просроченные токены порциями по app.token.cleanup.batch-size, не более max-batches порций за запуск;
+    // каждая порция - отдельная транзакция, поэтому таблица не блокируется одним большим DELETE
+    public int cleanupExpiredTokens() {
+        int deletedCount = 0;
         try {
-            int deletedCount = authTokenRepository.deleteExpiredTokens(LocalDateTime.now());
-            log.info("Очищено просроченных токенов: {}", deletedCount);
+            LocalDateTime now = LocalDateTime.now();
+            sessionTable.evictExpired(now);
+            tokenCache.evictExpired(now);
+
+            for (int batch = 0; batch < cleanupMaxBatches; batch++) {
+                int deleted = authTokenRepository.deleteExpiredBatch(now, cleanupBatchSize);
+                deletedCount += deleted;
+                if (deleted < cleanupBatchSize) {
+                    break;
+                }
+            }
+
+            // Список отзыва используется только подписанными токенами
+            int deletedRevocations = tokenMode == TokenMode.SIGNED ? revocationList.deleteExpired(now) : 0;
+            log.debug("Очищено просроченных токенов: {}, записей об отзыве: {}", deletedCount, deletedRevocations);
         } catch (Exception e) {
             log.error("Ошибка при очистке просроченных токенов", e);
         }
+        return deletedCount;
     }
 
-    // Добавляем метод для проверки пользователя по логину и паролю
-    @Transactional(readOnly = true)
+    public long countExpiredTokens() {
+        return authTokenRepository.countByExpiresAtBefore(LocalDateTime.now());
+    }
+
+    // Подписанный токен проверяется без обращения к БД: подпись, срок действия и список отзыва
+    private Optional<AuthenticatedUser> validateSignedToken(String rawToken, String digest) {
+        Optional<SignedTokenCodec.Claims> claims = signedTokenCodec.decode(rawToken)
+                .filter(c -> c.expiresAt().isAfter(LocalDateTime.now()))
+                .filter(c -> !revocationList.isRevoked(digest));
+
+        if (claims.isEmpty()) {
+            log.debug("Проверка подписанного токена не удалась: неверный, просроченный или отозванный токен");
+            return Optional.empty();
+        }
+
+        return Optional.of(new AuthenticatedUser(claims.get().userId(), claims.get().login()));
+    }
+
+    // Поиск по индексу дайджеста; токены старого формата ищутся перебором и сразу переводятся на дайджест
+    private Optional<TokenLookup> findActiveToken(String rawToken, String digest, LocalDateTime now, String clientIp) {
+        Optional<TokenLookup> authToken = findActiveToken(digest, now);
+        if (authToken.isEmpty() && LEGACY_TOKEN_PATTERN.matcher(rawToken).matches()) {
+            authToken = migrateLegacyToken(rawToken, digest, now, clientIp)
+                    .filter(token -> token.expiresAt() != null && token.expiresAt().isAfter(now));
+        }
+        return authToken;
+    }
+
+    private Optional<TokenLookup> findActiveToken(String digest, LocalDateTime now) {
+        return authTokenRepository.findByTokenHash(digest)
+                .filter(token -> tokenDigester.matches(digest, token.tokenHash()))
+                .filter(token -> token.expiresAt() != null && token.expiresAt().isAfter(now));
+    }
+
+    private Optional<TokenLookup> migrateLegacyToken(String rawToken, String digest, LocalDateTime now, String clientIp) {
+        if (!legacyTokensRemain || (legacyMigrationUntil != null && Instant.now().isAfter(legacyMigrationUntil))) {
+            return Optional.empty();
+        }
+        try {
+            loginAttemptLimiter.reserve(null, clientIp);
+        } catch (TooManyLoginAttemptsException e) {
+            log.debug("Перебор токенов старого формата отклонен: {}", e.getMessage());
+            return Optional.empty();
+        }
+
+        // Занятое место возвращается, если перебор нашел токен или не состоялся
+        Optional<TokenLookup> migrated;
+        try {
+            migrated = scanLegacyTokens(rawToken, digest, now);
+        } catch (RuntimeException e) {
+            loginAttemptLimiter.release(null, clientIp);
+            throw e;
+        }
+        if (migrated.isPresent() || !legacyTokensRemain) {
+            loginAttemptLimiter.release(null, clientIp);
+        } else {
+            loginAttemptLimiter.recordFailure();
+        }
+        return migrated;
+    }
+
+    private Optional<TokenLookup> scanLegacyTokens(String rawToken, String digest, LocalDateTime now) {
+        List<AuthToken> legacyTokens = authTokenRepository.findActiveLegacyTokens(now, Limit.of(legacyMigrationMaxRows));
+        if (legacyTokens.isEmpty()) {
+            legacyTokensRemain = false;
+            log.info("Активных токенов старого формата не осталось, их перебор отключен");
+            return Optional.empty();
+        }
+
+        for (AuthToken authToken : legacyTokens) {
+            if (passwordHashingExecutor.matches(rawToken, authToken.getTokenHash())) {
+                authToken.setTokenHash(digest);
+                authTokenRepository.save(authToken);
+                log.info("Токен старого формата переведен на дайджест, id: {}", authToken.getId());
+                User user = authToken.getUser();
+                return Optional.of(new TokenLookup(digest, authToken.getExpiresAt(), user.getId(), user.getLogin()));
+            }
+        }
+        return Optional.empty();
+    }
+
+    // Добавляем метод для проверки пользователя по логину и паролю.
+    // Без @Transactional: соединение с БД не удерживается, пока BCrypt ждет очереди в пуле хэширования
     public Optional<User> authenticate(String login, String password) {
         Optional<User> userOpt = userRepository.findByLogin(login);
         if (userOpt.isEmpty()) {
+            // Хэшируем и для несуществующего логина, чтобы время ответа не выдавало наличие пользователя
+            passwordHashingExecutor.matchesDummy(password);
             return Optional.empty();
         }
 
         User user = userOpt.get();
-        if (passwordEncoder.matches(password, user.getPassword())) {
+        if (passwordHashingExecutor.matches(password, user.getPassword())) {
             return Optional.of(user);
         }
 
@@ -0,0 +1,62 @@
+package ru.netology.cloudservise.security;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Base64;
+import java.util.Optional;
+
+/**
+ * Кодирование самодостаточных токенов для режима app.token.mode=signed.
+ * Формат: base64url("v2|userId|expiresEpochSecond|nonce|login") + "." + HMAC-SHA256(payload)
+ * на ключе подписи (TokenDigester.sign), отличном от ключа дайджестов поиска.
+ */
+@Component
+@RequiredArgsConstructor
+public class SignedTokenCodec {
+
+    private static final String VERSION = "v2";
+    private static final String SEPARATOR = "|";
+
+    private final TokenDigester tokenDigester;
+
+    public String encode(Long userId, String login, LocalDateTime expiresAt) {
+        long expiresEpochSecond = expiresAt.atZone(ZoneId.systemDefault()).toEpochSecond();
+        String payload = String.join(SEPARATOR,
+                VERSION, userId.toString(), Long.toString(expiresEpochSecond), tokenDigester.generateToken(), login);
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(payload.getBytes(StandardCharsets.UTF_8))
+                + "." + tokenDigester.sign(payload);
+    }
+
+    public Optional<Claims> decode(String token) {
+        int dot = token.indexOf('.');
+        if (dot <= 0 || dot == token.length() - 1) {
+            return Optional.empty();
+        }
+
+        try {
+            String payload = new String(Base64.getUrlDecoder().decode(token.substring(0, dot)), StandardCharsets.UTF_8);
+            if (!tokenDigester.matches(tokenDigester.sign(payload), token.substring(dot + 1))) {
+                return Optional.empty();
+            }
+
+            // Логин идет последним и может сам содержать разделитель
+            String[] parts = payload.split("\\|", 5);
+            if (parts.length != 5 || !VERSION.equals(parts[0])) {
+                return Optional.empty();
+            }
+
+            LocalDateTime expiresAt = LocalDateTime.ofInstant(
+                    Instant.ofEpochSecond(Long.parseLong(parts[2])), ZoneId.systemDefault());
+            return Optional.of(new Claims(Long.parseLong(parts[1]), parts[4], expiresAt));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    public record Claims(Long userId, String login, LocalDateTime expiresAt) {}
+}
@@ -1,18 +1,24 @@
 package ru.netology.cloudservise.security;
 
-import ru.netology.cloudservise.entity.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
 import org.springframework.web.filter.OncePerRequestFilter;
+import ru.netology.cloudservise.dto.ErrorResponse;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.Optional;
 
@@ -24,6 +30,7 @@ public class TokenAuthenticationFilter extends OncePerRequestFilter {
 
     // Инжектим только SecureTokenService, убираем циклическую зависимость
     private final SecureTokenService tokenService;
+    private final ObjectMapper objectMapper;
 
     @Override
     public void doFilterInternal(HttpServletRequest request,
@@ -39,10 +46,10 @@ public class TokenAuthenticationFilter extends OncePerRequestFilter {
 
         if (authToken != null) {
             try {
-                Optional<User> userOptional = tokenService.validateToken(authToken);
+                Optional<AuthenticatedUser> userOptional = tokenService.validateToken(authToken, request.getRemoteAddr());
 
                 if (userOptional.isPresent()) {
-                    User user = userOptional.get();
+                    AuthenticatedUser user = userOptional.get();
 
                     UsernamePasswordAuthenticationToken authentication =
                             new UsernamePasswordAuthenticationToken(
@@ -52,10 +59,16 @@ public class TokenAuthenticationFilter extends OncePerRequestFilter {
                             );
 
                     SecurityContextHolder.getContext().setAuthentication(authentication);
-                    log.debug("Пользователь аутентифицирован: {}", user.getLogin());
+                    log.debug("Пользователь аутентифицирован: {}", user.login());
                 } else {
                     log.warn("Невалидный токен аутентификации");
                 }
+            } catch (CannotCreateTransactionException | DataAccessResourceFailureException e) {
+                // Исключения фильтра не доходят до GlobalExceptionHandler, а без БД токен не проверить:
+                // отвечаем 503 сразу, иначе клиент получил бы 401 и выбросил действующий токен
+                log.warn("БД недоступна при проверке токена: {}", e.getMessage());
+                serviceUnavailable(response);
+                return;
             } catch (Exception e) {
                 log.error("Ошибка при аутентификации токена", e);
             }
@@ -66,6 +79,14 @@ public class TokenAuthenticationFilter extends OncePerRequestFilter {
         filterChain.doFilter(request, response);
     }
 
+    private void serviceUnavailable(HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        objectMapper.writeValue(response.getOutputStream(), new ErrorResponse("Сервис перегружен, повторите попытку позже", 503));
+    }
+
     public String extractTokenFromHeader(HttpServletRequest request) {
         String authHeader = request.getHeader("auth-token");
 
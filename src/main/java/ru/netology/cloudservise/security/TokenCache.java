@@ -0,0 +1,60 @@
+package ru.netology.cloudservise.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * Ограниченный по размеру кэш проверенных токенов: дайджест токена -> AuthenticatedUser.
+ * Запись живет не дольше app.token.cache.ttl и не дольше срока действия самого токена.
+ * Статистика (попадания, промахи, вытеснения) публикуется в метриках cache.* с тегом cache=auth-tokens.
+ */
+@Component
+public class TokenCache implements MeterBinder {
+
+    private final Cache<String, CachedPrincipal> cache;
+
+    public TokenCache(@Value("${app.token.cache.max-size:10000}") long maxSize,
+                      @Value("${app.token.cache.ttl:5m}") Duration ttl) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(Expiry.creating((String digest, CachedPrincipal cached) -> {
+                    Duration untilExpiry = Duration.between(LocalDateTime.now(), cached.expiresAt());
+                    return untilExpiry.compareTo(ttl) < 0 ? untilExpiry : ttl;
+                }))
+                .recordStats()
+                .build();
+    }
+
+    public Optional<AuthenticatedUser> get(String digest) {
+        return Optional.ofNullable(cache.getIfPresent(digest)).map(CachedPrincipal::principal);
+    }
+
+    public void put(String digest, AuthenticatedUser principal, LocalDateTime expiresAt) {
+        cache.put(digest, new CachedPrincipal(principal, expiresAt));
+    }
+
+    public void evict(String digest) {
+        cache.invalidate(digest);
+    }
+
+    public void evictExpired(LocalDateTime now) {
+        cache.asMap().values().removeIf(cached -> !cached.expiresAt().isAfter(now));
+        cache.cleanUp();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "auth-tokens");
+    }
+
+    private record CachedPrincipal(AuthenticatedUser principal, LocalDateTime expiresAt) {}
+}
@@ -0,0 +1,77 @@
+package ru.netology.cloudservise.security;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HexFormat;
+
+/**
+ * Генерация токенов и вычисление их ключевого дайджеста (HMAC-SHA256).
+ * Дайджест хранится в auth_tokens.token_hash и служит индексируемым ключом поиска,
+ * поэтому проверка токена сводится к одному запросу по индексу вместо перебора BCrypt.
+ * Подписи токенов режима signed вычисляются отдельным ключом, выведенным из того же секрета,
+ * чтобы дайджест поиска и подпись нельзя было подставить друг вместо друга.
+ */
+@Component
+public class TokenDigester {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int TOKEN_BYTES = 32;
+    // Значение из примеров конфигурации: с ним дайджесты и подписи может вычислить кто угодно
+    private static final String PLACEHOLDER_SECRET = "change-me-in-production";
+    private static final String SIGNING_KEY_LABEL = "cloud-servise/signed-token/v2";
+
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final SecretKeySpec key;
+    private final SecretKeySpec signingKey;
+
+    public TokenDigester(@Value("${app.token.secret:}") String secret) {
+        if (secret == null || secret.isBlank() || PLACEHOLDER_SECRET.equals(secret)) {
+            throw new IllegalStateException("Не задан app.token.secret (TOKEN_SECRET): укажите собственный секрет");
+        }
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        this.signingKey = new SecretKeySpec(hmac(key, SIGNING_KEY_LABEL), ALGORITHM);
+    }
+
+    public String generateToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        secureRandom.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    public String digest(String rawToken) {
+        return HexFormat.of().formatHex(hmac(key, rawToken));
+    }
+
+    // Подпись содержимого токена режима signed
+    public String sign(String payload) {
+        return HexFormat.of().formatHex(hmac(signingKey, payload));
+    }
+
+    // Сравнение за постоянное время, чтобы не раскрывать совпадающий префикс
+    public boolean matches(String digest, String storedDigest) {
+        if (digest == null || storedDigest == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(
+                digest.getBytes(StandardCharsets.US_ASCII),
+                storedDigest.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] hmac(SecretKeySpec key, String data) {
+        try {
+            // Mac не потокобезопасен, экземпляр создается на каждый вызов
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Не удалось вычислить дайджест токена", e);
+        }
+    }
+}
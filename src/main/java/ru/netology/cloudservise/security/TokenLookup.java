@@ -0,0 +1,17 @@
+package ru.netology.cloudservise.security;
+
+import java.time.LocalDateTime;
+
+/**
+ * Проекция строки auth_tokens с данными владельца, выбираемая одним запросом по дайджесту.
+ */
+public record TokenLookup(
+        String tokenHash,
+        LocalDateTime expiresAt,
+        Long userId,
+        String login
+) {
+    public AuthenticatedUser principal() {
+        return new AuthenticatedUser(userId, login);
+    }
+}
@@ -0,0 +1,11 @@
+package ru.netology.cloudservise.security;
+
+/**
+ * Режим выдачи и проверки токенов (app.token.mode).
+ */
+public enum TokenMode {
+    // Токен - случайная строка, его дайджест хранится в auth_tokens
+    DATABASE,
+    // Токен самодостаточен и подписан HMAC, проверка не обращается к БД
+    SIGNED
+}
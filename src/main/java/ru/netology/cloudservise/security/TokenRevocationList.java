@@ -0,0 +1,134 @@
+package ru.netology.cloudservise.security;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.netology.cloudservise.entity.RevokedToken;
+import ru.netology.cloudservise.repository.RevokedTokenRepository;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Список отозванных подписанных токенов.
+ * Фильтр Блума отсекает подавляющее большинство проверок, точное множество исключает ложные срабатывания.
+ * Источник истины - таблица revoked_tokens; записи живут только до истечения срока действия токена.
+ * Отзыв на этом экземпляре действует сразу, а сделанный другим экземпляром - после очередного перечитывания
+ * таблицы, то есть не позже чем через app.token.revocation.refresh-interval.
+ */
+@Slf4j
+@Component
+public class TokenRevocationList {
+
+    private static final int HASH_FUNCTIONS = 4;
+
+    private final RevokedTokenRepository revokedTokenRepository;
+    private final int bloomBits;
+
+    private final Object lock = new Object();
+    private volatile Map<String, LocalDateTime> revoked = new ConcurrentHashMap<>();
+    private volatile AtomicLongArray bloom;
+
+    public TokenRevocationList(RevokedTokenRepository revokedTokenRepository,
+                               @Value("${app.token.revocation.bloom-bits:1048576}") int bloomBits) {
+        this.revokedTokenRepository = revokedTokenRepository;
+        this.bloomBits = bloomBits;
+        this.bloom = new AtomicLongArray((bloomBits + 63) / 64);
+    }
+
+    public boolean isRevoked(String digest) {
+        if (!mightContain(bloom, digest)) {
+            return false;
+        }
+        return revoked.containsKey(digest);
+    }
+
+    public void revoke(String digest, LocalDateTime expiresAt) {
+        if (!revokedTokenRepository.existsByTokenHash(digest)) {
+            RevokedToken revokedToken = new RevokedToken();
+            revokedToken.setTokenHash(digest);
+            revokedToken.setExpiresAt(expiresAt);
+            revokedTokenRepository.save(revokedToken);
+        }
+
+        synchronized (lock) {
+            add(bloom, digest);
+            revoked.put(digest, expiresAt);
+        }
+    }
+
+    // Перечитывает таблицу (в том числе отзывы, сделанные другими экземплярами) и пересобирает фильтр без просроченных записей;
+    // вызывается при старте и затем каждые refresh-interval
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${app.token.revocation.refresh-interval:PT30S}",
+            initialDelayString = "${app.token.revocation.refresh-interval:PT30S}")
+    public void reload() {
+        LocalDateTime now = LocalDateTime.now();
+        List<RevokedToken> active = revokedTokenRepository.findActive(now);
+
+        synchronized (lock) {
+            Map<String, LocalDateTime> rebuilt = new ConcurrentHashMap<>();
+            active.forEach(token -> rebuilt.put(token.getTokenHash(), token.getExpiresAt()));
+            revoked.forEach((digest, expiresAt) -> {
+                if (expiresAt.isAfter(now)) {
+                    rebuilt.put(digest, expiresAt);
+                }
+            });
+
+            bloom = bloomOf(rebuilt);
+            revoked = rebuilt;
+        }
+        log.debug("Загружено отозванных токенов: {}", active.size());
+    }
+
+    // Вызывается каждую минуту, поэтому таблица не перечитывается: просроченные записи убираются из памяти,
+    // а фильтр пересобирается из оставшихся, только если что-то было удалено
+    public int deleteExpired(LocalDateTime now) {
+        int deletedCount = revokedTokenRepository.deleteExpired(now);
+
+        synchronized (lock) {
+            if (revoked.values().removeIf(expiresAt -> !expiresAt.isAfter(now))) {
+                bloom = bloomOf(revoked);
+            }
+        }
+        return deletedCount;
+    }
+
+    public int size() {
+        return revoked.size();
+    }
+
+    private AtomicLongArray bloomOf(Map<String, LocalDateTime> entries) {
+        AtomicLongArray bits = new AtomicLongArray((bloomBits + 63) / 64);
+        entries.keySet().forEach(digest -> add(bits, digest));
+        return bits;
+    }
+
+    private void add(AtomicLongArray bits, String digest) {
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            int bit = bitIndex(digest, i);
+            bits.getAndUpdate(bit >>> 6, word -> word | (1L << bit));
+        }
+    }
+
+    private boolean mightContain(AtomicLongArray bits, String digest) {
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            int bit = bitIndex(digest, i);
+            if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Дайджест - равномерно распределенный HMAC, поэтому его 64-битные части служат независимыми хэш-функциями
+    private int bitIndex(String digest, int i) {
+        return (int) Math.floorMod(HexFormat.fromHexDigitsToLong(digest, i * 16, i * 16 + 16), (long) bloomBits);
+    }
+}
@@ -0,0 +1,273 @@
+package ru.netology.cloudservise.service;
+
+import ru.netology.cloudservise.entity.Blob;
+import ru.netology.cloudservise.repository.BlobRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Хранилище содержимого с адресацией по SHA-256.
+ * Хэш считается во время записи загружаемого потока во временный локальный файл; если такое содержимое
+ * уже есть, увеличивается счетчик ссылок и временный файл удаляется, иначе он сохраняется в StorageBackend
+ * под ключом blobs/<hash> с разбиением по подкаталогам согласно StorageLayout.
+ * Новое содержимое перед переносом может быть сжато согласно CompressionPolicy; кодек записывается в blob.
+ * Blob без ссылок удаляет сборщик после периода ожидания app.storage.reclaim.grace-period.
+ */
+@Slf4j
+@Service
+public class BlobStore {
+
+    private static final String BLOBS_DIR = "blobs";
+    private static final String TEMP_DIR = ".tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final BlobRepository blobRepository;
+    private final CompressionPolicy compressionPolicy;
+    private final StorageLayout storageLayout;
+    private final StorageBackend storageBackend;
+    private final HotFileCache hotFileCache;
+    private final Counter deduplicatedCounter;
+    private final Counter reclaimedCounter;
+
+    @Value("${app.file-storage.path}")
+    public String storagePath;
+
+    @Value("${app.storage.reclaim.grace-period:PT1H}")
+    private Duration reclaimGracePeriod = Duration.ofHours(1);
+
+    public BlobStore(BlobRepository blobRepository, CompressionPolicy compressionPolicy,
+                     StorageLayout storageLayout, StorageBackend storageBackend, HotFileCache hotFileCache,
+                     MeterRegistry meterRegistry) {
+        this.blobRepository = blobRepository;
+        this.compressionPolicy = compressionPolicy;
+        this.storageLayout = storageLayout;
+        this.storageBackend = storageBackend;
+        this.hotFileCache = hotFileCache;
+        this.deduplicatedCounter = Counter.builder("storage.blobs.deduplicated")
+                .description("Загрузки, для которых содержимое уже было в хранилище")
+                .register(meterRegistry);
+        this.reclaimedCounter = Counter.builder("storage.blobs.reclaimed")
+                .description("Удалено blob без ссылок")
+                .register(meterRegistry);
+    }
+
+    // Записывает поток во временный файл, вычисляя хэш. Содержимое, которого еще нет в хранилище, сразу
+    // сохраняется под своим ключом: долгая запись идет до транзакции, а ссылка на blob появляется в acquire.
+    // Если транзакция так и не зафиксируется, вызывающий передает записанный объект сборщику через abandon
+    public StagedContent stage(InputStream content) throws IOException {
+        Path tempDir = Paths.get(storagePath, TEMP_DIR);
+        Files.createDirectories(tempDir);
+        Path temp = Files.createTempFile(tempDir, "upload-", ".tmp");
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long size = 0;
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                int read;
+                while ((read = content.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    size += read;
+                }
+            }
+
+            String contentHash = HexFormat.of().formatHex(digest.digest());
+            StorageCodec storedCodec = blobRepository.existsByContentHash(contentHash)
+                    ? null
+                    : putEncoded(temp, size, keyFor(contentHash));
+            return new StagedContent(temp, contentHash, size, storedCodec);
+        } catch (NoSuchAlgorithmException e) {
+            Files.deleteIfExists(temp);
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    // Возвращает blob с учтенной ссылкой. Выполняется в транзакции вызывающего, поэтому счетчик ссылок
+    // фиксируется или откатывается вместе с его строками. Одновременная вставка того же нового содержимого
+    // нарушает уникальность хэша: DataIntegrityViolationException откатывает транзакцию, и вызывающий
+    // повторяет ее - повтор находит уже зафиксированный blob
+    public Blob acquire(StagedContent staged) throws IOException {
+        String contentHash = staged.contentHash();
+
+        if (blobRepository.incrementRefCount(contentHash) == 1) {
+            deduplicatedCounter.increment();
+            Blob existing = blobRepository.findByContentHash(contentHash).orElseThrow();
+            restoreIfMissing(existing, staged.file());
+            return existing;
+        }
+
+        // При подготовке blob еще существовал, но с тех пор его удалил сборщик: содержимое записывается заново
+        String key = keyFor(contentHash);
+        StorageCodec codec = staged.storedCodec() != null
+                ? staged.storedCodec()
+                : putEncoded(staged.file(), staged.size(), key);
+
+        Blob blob = new Blob();
+        blob.setContentHash(contentHash);
+        blob.setSize(staged.size());
+        blob.setStoragePath(key);
+        blob.setCodec(codec);
+        blob.setRefCount(1);
+        return blobRepository.saveAndFlush(blob);
+    }
+
+    // Транзакция со ссылкой на подготовленное содержимое не зафиксировалась. Объект, записанный в stage,
+    // получает строку без ссылок, и сборщик удалит его после периода ожидания, если на него так никто и
+    // не сошлется. Строку того же содержимого, вставленную другой загрузкой, объект просто дополняет.
+    // Ошибка здесь не маскирует исходную: объект остается в хранилище, и о нем пишется в журнал
+    public void abandon(StagedContent staged) {
+        if (staged.storedCodec() == null) {
+            return;
+        }
+
+        try {
+            if (blobRepository.existsByContentHash(staged.contentHash())) {
+                return;
+            }
+            Blob blob = new Blob();
+            blob.setContentHash(staged.contentHash());
+            blob.setSize(staged.size());
+            blob.setStoragePath(keyFor(staged.contentHash()));
+            blob.setCodec(staged.storedCodec());
+            blob.setRefCount(0);
+            blob.setUnreferencedAt(LocalDateTime.now());
+            blobRepository.saveAndFlush(blob);
+        } catch (DataIntegrityViolationException e) {
+            // Строку одновременно вставила другая загрузка того же содержимого
+        } catch (RuntimeException e) {
+            log.warn("Объект {} без строки blob оставлен в хранилище: {}", staged.contentHash(), e.getMessage());
+        }
+    }
+
+    // Подготовка и ссылка одним вызовом, в транзакции вызывающего
+    public Blob store(InputStream content) throws IOException {
+        try (StagedContent staged = stage(content)) {
+            return acquire(staged);
+        }
+    }
+
+    // Ссылка на уже сохраненное содержимое без передачи байтов; пусто, если его нет или размер не совпал
+    public Optional<Blob> acquireExisting(String contentHash, long size) throws IOException {
+        Optional<Blob> blob = blobRepository.findByContentHash(contentHash)
+                .filter(existing -> existing.getSize() == size);
+        if (blob.isEmpty() || blobRepository.incrementRefCount(contentHash) == 0) {
+            return Optional.empty();
+        }
+
+        if (!storageBackend.exists(blob.get().getStoragePath())) {
+            release(blob.get());
+            return Optional.empty();
+        }
+        deduplicatedCounter.increment();
+        return blob;
+    }
+
+    // Ключ, под которым содержимое с этим хэшем хранится в текущей раскладке
+    public String keyFor(String contentHash) {
+        return storageLayout.key(BLOBS_DIR, contentHash);
+    }
+
+    public void release(Blob blob) {
+        blobRepository.decrementRefCount(blob.getId(), LocalDateTime.now());
+    }
+
+    // Удаляет порцию blob без ссылок: строки блокируются и удаляются в одной транзакции с файлами
+    @Transactional
+    public int reclaimUnreferenced(int limit) {
+        List<Blob> blobs = blobRepository.lockUnreferenced(LocalDateTime.now().minus(reclaimGracePeriod), limit);
+        if (blobs.isEmpty()) {
+            return 0;
+        }
+
+        blobRepository.deleteAll(blobs);
+        blobRepository.flush();
+        for (Blob blob : blobs) {
+            try {
+                hotFileCache.invalidate(blob.getStoragePath());
+                storageBackend.delete(blob.getStoragePath());
+            } catch (IOException e) {
+                // Оставшийся файл не мешает: при повторной загрузке того же содержимого он будет перезаписан
+                log.warn("Не удалось удалить файл blob {}: {}", blob.getContentHash(), e.getMessage());
+            }
+        }
+        reclaimedCounter.increment(blobs.size());
+        return blobs.size();
+    }
+
+    // Файл мог пропасть, если транзакция сборщика не зафиксировалась после удаления файлов
+    private void restoreIfMissing(Blob blob, Path temp) throws IOException {
+        String key = blob.getStoragePath();
+        if (storageBackend.exists(key)) {
+            return;
+        }
+
+        log.warn("Файл blob {} отсутствовал и восстановлен из загрузки", blob.getContentHash());
+        StorageCodec codec = blob.getCodec() != null ? blob.getCodec() : StorageCodec.NONE;
+        if (codec == StorageCodec.NONE) {
+            storageBackend.putFile(key, temp);
+            return;
+        }
+
+        // Восстановленный файл должен быть в том же кодеке, что записан в blob
+        Path encoded = encodedSibling(temp);
+        try {
+            try (InputStream in = Files.newInputStream(temp);
+                 OutputStream out = codec.encode(Files.newOutputStream(encoded))) {
+                in.transferTo(out);
+            }
+            storageBackend.putFile(key, encoded);
+        } finally {
+            Files.deleteIfExists(encoded);
+        }
+    }
+
+    // Сохраняет содержимое под ключом, сжав его, если политика сочла это выгодным
+    private StorageCodec putEncoded(Path temp, long size, String key) throws IOException {
+        Path encoded = encodedSibling(temp);
+        try {
+            StorageCodec codec = compressionPolicy.compress(temp, size, encoded);
+            storageBackend.putFile(key, codec == StorageCodec.NONE ? temp : encoded);
+            return codec;
+        } finally {
+            Files.deleteIfExists(encoded);
+        }
+    }
+
+    private static Path encodedSibling(Path temp) {
+        return temp.resolveSibling(temp.getFileName() + ".enc");
+    }
+
+    /**
+     * Загруженное содержимое во временном файле; закрытие удаляет файл.
+     * storedCodec - кодек, с которым содержимое уже сохранено при подготовке, null - не сохранялось.
+     */
+    public record StagedContent(Path file, String contentHash, long size, StorageCodec storedCodec) implements Closeable {
+        @Override
+        public void close() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package ru.netology.cloudservise.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Решает, сжимать ли новое содержимое перед записью в хранилище.
+ * Тип определяется по первым байтам: уже сжатые форматы пропускаются, при text-only - и любые двоичные данные.
+ * Сжатый вариант сохраняется, только если он меньше исходного хотя бы на min-gain.
+ */
+@Component
+public class CompressionPolicy {
+
+    private static final int SNIFF_BYTES = 8192;
+
+    // Сигнатуры форматов, которые уже сжаты и повторно не сжимаются
+    private static final byte[][] COMPRESSED_SIGNATURES = {
+            {0x1f, (byte) 0x8b},                                    // gzip
+            {0x50, 0x4b, 0x03, 0x04},                               // zip, docx, xlsx, jar
+            {(byte) 0x89, 0x50, 0x4e, 0x47},                        // png
+            {(byte) 0xff, (byte) 0xd8, (byte) 0xff},                // jpeg
+            {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd},                 // zstd
+            {(byte) 0xfd, 0x37, 0x7a, 0x58, 0x5a, 0x00},            // xz
+            {0x42, 0x5a, 0x68},                                     // bzip2
+            {0x37, 0x7a, (byte) 0xbc, (byte) 0xaf, 0x27, 0x1c},     // 7z
+            {0x52, 0x61, 0x72, 0x21},                               // rar
+            {0x47, 0x49, 0x46, 0x38}                                // gif
+    };
+
+    private final boolean enabled;
+    private final long minSize;
+    private final double minGain;
+    private final boolean textOnly;
+
+    public CompressionPolicy(@Value("${app.storage.compression.enabled:true}") boolean enabled,
+                             @Value("${app.storage.compression.min-size:1024}") long minSize,
+                             @Value("${app.storage.compression.min-gain:0.1}") double minGain,
+                             @Value("${app.storage.compression.text-only:true}") boolean textOnly) {
+        this.enabled = enabled;
+        this.minSize = minSize;
+        this.minGain = minGain;
+        this.textOnly = textOnly;
+    }
+
+    // Сжимает raw в target, если это выгодно; возвращает кодек содержимого target или NONE, если target не создан
+    public StorageCodec compress(Path raw, long size, Path target) throws IOException {
+        if (!enabled || size < minSize || !compressible(raw)) {
+            return StorageCodec.NONE;
+        }
+
+        try (InputStream in = Files.newInputStream(raw);
+             OutputStream out = StorageCodec.GZIP.encode(Files.newOutputStream(target))) {
+            in.transferTo(out);
+        }
+
+        if (Files.size(target) <= size * (1 - minGain)) {
+            return StorageCodec.GZIP;
+        }
+        Files.deleteIfExists(target);
+        return StorageCodec.NONE;
+    }
+
+    private boolean compressible(Path raw) throws IOException {
+        byte[] head;
+        try (InputStream in = Files.newInputStream(raw)) {
+            head = in.readNBytes(SNIFF_BYTES);
+        }
+
+        for (byte[] signature : COMPRESSED_SIGNATURES) {
+            if (startsWith(head, signature)) {
+                return false;
+            }
+        }
+        return !textOnly || looksLikeText(head);
+    }
+
+    // Текст (включая UTF-8, JSON, CSV, логи) не содержит нулевых байтов и почти не содержит управляющих символов
+    private static boolean looksLikeText(byte[] head) {
+        int control = 0;
+        for (byte b : head) {
+            if (b == 0) {
+                return false;
+            }
+            if (b >= 0 && b < 0x20 && b != '\n' && b != '\r' && b != '\t' && b != '\f' && b != 0x1b) {
+                control++;
+            }
+        }
+        return control * 100 < head.length;
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,48 @@
+package ru.netology.cloudservise.service;
+
+import org.springframework.core.io.AbstractResource;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Сжатый в хранилище файл, читаемый как исходное содержимое: каждый getInputStream() распаковывает объект
+ * потоком заново, поэтому Spring может нарезать его на диапазоны так же, как обычный файл.
+ */
+public class DecodedFileResource extends AbstractResource {
+
+    private final StorageBackend backend;
+    private final String key;
+    private final StorageCodec codec;
+    private final long size;
+
+    public DecodedFileResource(StorageBackend backend, String key, StorageCodec codec, long size) {
+        this.backend = backend;
+        this.key = key;
+        this.codec = codec;
+        this.size = size;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return codec.decode(backend.get(key));
+    }
+
+    @Override
+    public boolean exists() {
+        try {
+            return backend.exists(key);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public long contentLength() {
+        return size;
+    }
+
+    @Override
+    public String getDescription() {
+        return "decoded storage object [" + key + ", " + codec + "]";
+    }
+}
@@ -0,0 +1,14 @@
+package ru.netology.cloudservise.service;
+
+/**
+ * Когда записанные в хранилище данные сбрасываются на диск.
+ * NONE полагается на кэш страниц ОС: при сбое питания теряются последние записи, хотя строки о них уже в БД.
+ * FILE синхронизирует каждый файл и каталог сразу после записи.
+ * GROUP собирает запросы одновременных загрузок в общий сегмент packed и синхронизирует их одним fsync;
+ * отдельные файлы и каталоги синхронизируются как в FILE, поэтому для хранилища local GROUP не отличается от FILE.
+ */
+public enum DurabilityMode {
+    NONE,
+    FILE,
+    GROUP
+}
@@ -0,0 +1,33 @@
+package ru.netology.cloudservise.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Позиция в списке файлов пользователя: время загрузки и id последней отданной строки.
+ * Следующая страница начинается строго после нее, поэтому вставки и удаления между запросами
+ * не сдвигают страницы. Для клиента курсор непрозрачен: base64url от "<uploadedAt>/<id>".
+ */
+public record FileListCursor(LocalDateTime uploadedAt, long id) {
+
+    public String encode() {
+        String value = uploadedAt + "/" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static FileListCursor decode(String cursor) {
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = value.lastIndexOf('/');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Некорректный курсор списка файлов");
+            }
+            return new FileListCursor(LocalDateTime.parse(value.substring(0, separator)),
+                    Long.parseLong(value.substring(separator + 1)));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Некорректный курсор списка файлов", e);
+        }
+    }
+}
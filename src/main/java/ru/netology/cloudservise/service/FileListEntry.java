@@ -0,0 +1,23 @@
+package ru.netology.cloudservise.service;
+
+import ru.netology.cloudservise.dto.FileInfoResponse;
+import java.time.LocalDateTime;
+
+/**
+ * Проекция строки user_files для списка файлов: поля ответа и ключ сортировки для курсора,
+ * выбираемые запросом без загрузки сущностей.
+ */
+public record FileListEntry(
+        Long id,
+        String filename,
+        Long size,
+        LocalDateTime uploadedAt
+) {
+    public FileInfoResponse toResponse() {
+        return new FileInfoResponse(filename, size);
+    }
+
+    public FileListCursor cursor() {
+        return new FileListCursor(uploadedAt, id);
+    }
+}
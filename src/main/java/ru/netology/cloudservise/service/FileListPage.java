@@ -0,0 +1,10 @@
+package ru.netology.cloudservise.service;
+
+import ru.netology.cloudservise.dto.FileInfoResponse;
+import java.util.List;
+
+/**
+ * Страница списка файлов; nextCursor равен null, если страница последняя.
+ */
+public record FileListPage(List<FileInfoResponse> files, String nextCursor) {
+}
@@ -1,22 +1,35 @@
 package ru.netology.cloudservise.service;
 
-import ru.netology.cloudservise.dto.FileInfoResponse;
-import ru.netology.cloudservise.entity.User;
+import ru.netology.cloudservise.entity.Blob;
 import ru.netology.cloudservise.entity.UserFile;
 import ru.netology.cloudservise.repository.UserFileRepository;
+import ru.netology.cloudservise.repository.UserRepository;
+import ru.netology.cloudservise.security.AuthenticatedUser;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
 
 /**
  * Сервис для управления файлами пользователей.
+ * Каждое изменение - одна транзакция: счетчик ссылок blob, строка user_files и версия списка фиксируются
+ * вместе, а файлы в хранилище удаляются только после фиксации.
  */
 @Slf4j
 @Service
@@ -24,74 +37,243 @@ import java.util.List;
 public class FileStorageService {
 
     private final UserFileRepository userFileRepository;
+    private final UserRepository userRepository;
+    private final BlobStore blobStore;
+    private final StorageBackend storageBackend;
+    private final HotFileCache hotFileCache;
+    private final TransactionOperations transactionOperations;
 
     @Value("${app.file-storage.path}")
     public String storagePath;
 
-    public void storeFile(User user, String filename, MultipartFile file) throws IOException {
-        Path userDir = Paths.get(storagePath, user.getId().toString());
-        Files.createDirectories(userDir);
+    @Value("${app.storage.instant-upload.scope:user}")
+    private InstantUploadScope instantUploadScope = InstantUploadScope.USER;
 
-        Path filePath = userDir.resolve(filename);
-        Files.write(filePath, file.getBytes());
+    public void storeFile(AuthenticatedUser user, String filename, MultipartFile file) throws IOException {
+        try (InputStream content = file.getInputStream()) {
+            storeFile(user, filename, content);
+        }
+    }
+
+    // Содержимое хэшируется на лету и попадает в хранилище blob; повторно загруженный файл
+    // не записывается на диск второй раз, а только получает еще одну ссылку.
+    // Поток читается до транзакции, чтобы медленный клиент не удерживал соединение с БД
+    public void storeFile(AuthenticatedUser user, String filename, InputStream content) throws IOException {
+        try (BlobStore.StagedContent staged = blobStore.stage(content)) {
+            try {
+                try {
+                    saveStaged(user, filename, staged);
+                } catch (DataIntegrityViolationException e) {
+                    // То же новое содержимое одновременно сохранил другой запрос; повтор добавит ссылку на его blob
+                    saveStaged(user, filename, staged);
+                }
+            } catch (IOException | RuntimeException e) {
+                // Строка не появилась, а объект уже записан при подготовке: без этого сборщик его не увидит
+                blobStore.abandon(staged);
+                throw e;
+            }
+        }
+    }
+
+    // Мгновенная загрузка: если содержимое с таким хэшем и размером уже хранится (у этого пользователя
+    // или, при scope=global, у любого), файл создается ссылкой на него без передачи байтов
+    @Transactional(rollbackFor = IOException.class)
+    public boolean storeExisting(AuthenticatedUser user, String filename, String contentHash, long size) throws IOException {
+        String hash = contentHash.toLowerCase(Locale.ROOT);
+        boolean allowed = switch (instantUploadScope) {
+            case DISABLED -> false;
+            case USER -> userFileRepository.existsByUserIdAndBlobContentHash(user.id(), hash);
+            case GLOBAL -> true;
+        };
+        if (!allowed) {
+            return false;
+        }
+
+        Optional<Blob> blob = blobStore.acquireExisting(hash, size);
+        if (blob.isEmpty()) {
+            return false;
+        }
 
+        saveUserFile(user, filename, blob.get());
+        return true;
+    }
+
+    private void saveStaged(AuthenticatedUser user, String filename, BlobStore.StagedContent staged) throws IOException {
+        try {
+            transactionOperations.executeWithoutResult(status -> {
+                try {
+                    saveUserFile(user, filename, blobStore.acquire(staged));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Вызывается в транзакции: при ошибке ссылка на blob откатывается вместе со строкой
+    private void saveUserFile(AuthenticatedUser user, String filename, Blob blob) {
         UserFile userFile = new UserFile();
-        userFile.setUser(user);
+        userFile.setUser(userRepository.getReferenceById(user.id()));
         userFile.setFilename(filename);
-        userFile.setSize(file.getSize());
-        userFile.setStoragePath(filePath.toString());
+        userFile.setSize(blob.getSize());
+        userFile.setStoragePath(blob.getStoragePath());
+        userFile.setCodec(blob.getCodec());
+        userFile.setContentHash(blob.getContentHash());
+        userFile.setBlob(blob);
 
         userFileRepository.save(userFile);
-        log.info("Файл успешно сохранен: {} для пользователя {}", filename, user.getLogin());
+        userRepository.incrementListingVersion(user.id());
+        log.info("Файл успешно сохранен: {} для пользователя {}", filename, user.login());
     }
 
-    public byte[] loadFile(User user, String filename) throws IOException {
-        UserFile userFile = userFileRepository.findByUserAndFilename(user, filename)
+    // Файл не читается целиком: контроллер отдает его потоком. Размер, время и версия берутся
+    // из метаданных, к хранилищу обращается только сама отдача содержимого
+    public StoredFile loadFile(AuthenticatedUser user, String filename) {
+        UserFile userFile = userFileRepository.findByUserIdAndFilename(user.id(), filename)
                 .orElseThrow(() -> new RuntimeException("Файл не найден"));
 
-        return Files.readAllBytes(Paths.get(userFile.getStoragePath()));
+        StorageCodec codec = userFile.getCodec() != null ? userFile.getCodec() : StorageCodec.NONE;
+        Instant uploadedAt = userFile.getUploadedAt().atZone(ZoneId.systemDefault()).toInstant();
+        // Небольшие часто скачиваемые объекты читаются из кэша вне кучи без обращения к хранилищу
+        return new StoredFile(hotFileCache.reader(), userFile.getStoragePath(), userFile.getSize(),
+                uploadedAt, codec, contentVersion(userFile));
+    }
+
+    // Хэш содержимого меняется только вместе с байтами. Файлы без blob не перезаписываются на месте,
+    // поэтому их версией служат id строки и размер
+    private static String contentVersion(UserFile userFile) {
+        if (userFile.getContentHash() != null) {
+            return userFile.getContentHash();
+        }
+        if (userFile.getBlob() != null) {
+            // Строка сохранена до появления копии хэша. Содержимое blob с данным id не меняется, а id
+            // доступен без загрузки blob (вне транзакции ленивая связь не инициализируется)
+            return "b" + userFile.getBlob().getId();
+        }
+        return "f" + userFile.getId() + "-" + userFile.getSize();
     }
 
-    public void deleteFile(User user, String filename) throws IOException {
-        UserFile userFile = userFileRepository.findByUserAndFilename(user, filename)
+    // Строка читается с блокировкой: иначе удаление, начатое до переноса файла старого формата в хранилище
+    // blob, удалило бы старый путь и не освободило бы ссылку на новый blob
+    @Transactional
+    public void deleteFile(AuthenticatedUser user, String filename) {
+        UserFile userFile = userFileRepository.lockByUserIdAndFilename(user.id(), filename)
                 .orElseThrow(() -> new RuntimeException("Файл не найден"));
 
-        Files.deleteIfExists(Paths.get(userFile.getStoragePath()));
         userFileRepository.delete(userFile);
-        log.info("Файл успешно удален: {} для пользователя {}", filename, user.getLogin());
+        if (userFile.getBlob() != null) {
+            // Сам blob удалит сборщик, когда на него не останется ссылок
+            blobStore.release(userFile.getBlob());
+        } else {
+            // При откате строка остается, поэтому файл удаляется только после фиксации
+            String key = userFile.getStoragePath();
+            afterCommit(() -> deleteQuietly(key));
+        }
+        userRepository.incrementListingVersion(user.id());
+        log.info("Файл успешно удален: {} для пользователя {}", filename, user.login());
     }
 
-    public void renameFile(User user, String oldFilename, String newFilename) throws IOException {
-        UserFile userFile = userFileRepository.findByUserAndFilename(user, oldFilename)
+    // Строка читается с блокировкой: сохранение прочитанной до переноса копии вернуло бы blob_id = NULL
+    // и старый путь, уже удаленный переносом
+    @Transactional(rollbackFor = IOException.class)
+    public void renameFile(AuthenticatedUser user, String oldFilename, String newFilename) throws IOException {
+        UserFile userFile = userFileRepository.lockByUserIdAndFilename(user.id(), oldFilename)
                 .orElseThrow(() -> new RuntimeException("Файл не найден"));
 
-        if (userFileRepository.existsByUserAndFilename(user, newFilename)) {
+        if (userFileRepository.existsByUserIdAndFilename(user.id(), newFilename)) {
             throw new RuntimeException("Файл с новым именем уже существует");
         }
 
-        Path oldPath = Paths.get(userFile.getStoragePath());
-        Path newPath = oldPath.resolveSibling(newFilename);
-        Files.move(oldPath, newPath);
+        // Содержимое в хранилище blob не зависит от имени, переименование меняет только метаданные.
+        // Файл старого формата переносится до фиксации и возвращается на место, если транзакция откатится
+        if (userFile.getBlob() == null) {
+            String oldKey = userFile.getStoragePath();
+            String newKey = Paths.get(oldKey).resolveSibling(newFilename).toString();
+            storageBackend.move(oldKey, newKey);
+            hotFileCache.invalidate(oldKey);
+            afterRollback(() -> moveBack(newKey, oldKey));
+            userFile.setStoragePath(newKey);
+        }
 
         userFile.setFilename(newFilename);
-        userFile.setStoragePath(newPath.toString());
         userFileRepository.save(userFile);
-        log.info("Файл переименован с {} на {} для пользователя {}", oldFilename, newFilename, user.getLogin());
+        userRepository.incrementListingVersion(user.id());
+        log.info("Файл переименован с {} на {} для пользователя {}", oldFilename, newFilename, user.login());
+    }
+
+    // Версия увеличивается после изменения, а читается до списка: список не старше версии,
+    // которой он помечен, и неизменившийся каталог проверяется одним запросом по первичному ключу
+    public long listingVersion(AuthenticatedUser user) {
+        return userRepository.findListingVersion(user.id()).orElse(0L);
     }
 
-    public List<FileInfoResponse> getUserFiles(User user, Integer limit) {
-        List<UserFile> files = userFileRepository.findByUserOrderByUploadedAtDesc(user);
+    // Новые файлы первыми, after - позиция, после которой начинается страница (null - с начала).
+    // Выбирается на одну строку больше лимита: так известно, есть ли следующая страница,
+    // без отдельного запроса и без пустой последней страницы
+    public FileListPage getUserFiles(AuthenticatedUser user, Integer limit, FileListCursor after) {
+        boolean limited = limit != null && limit > 0;
+        Limit fetch = limited ? Limit.of(limit + 1) : Limit.unlimited();
 
-        if (limit != null && limit > 0) {
-            files = files.stream().limit(limit).toList();
+        List<FileListEntry> entries = after == null
+                ? userFileRepository.findListPage(user.id(), fetch)
+                : userFileRepository.findListPageAfter(user.id(), after.uploadedAt(), after.id(), fetch);
+
+        String nextCursor = null;
+        if (limited && entries.size() > limit) {
+            entries = entries.subList(0, limit);
+            nextCursor = entries.getLast().cursor().encode();
         }
+        return new FileListPage(entries.stream().map(FileListEntry::toResponse).toList(), nextCursor);
+    }
 
-        return files.stream()
-                .map(file -> new FileInfoResponse(file.getFilename(), file.getSize()))
-                .toList();
+    public boolean fileExists(AuthenticatedUser user, String filename) {
+        return userFileRepository.existsByUserIdAndFilename(user.id(), filename);
     }
 
-    public boolean fileExists(User user, String filename) {
-        return userFileRepository.existsByUserAndFilename(user, filename);
+    private void deleteQuietly(String key) {
+        hotFileCache.invalidate(key);
+        try {
+            storageBackend.delete(key);
+        } catch (IOException e) {
+            log.warn("Не удалось удалить файл {}: {}", key, e.getMessage());
+        }
+    }
+
+    private void moveBack(String currentKey, String originalKey) {
+        try {
+            storageBackend.move(currentKey, originalKey);
+        } catch (IOException e) {
+            log.error("Не удалось вернуть файл {} на место {} после отката переименования", currentKey, originalKey, e);
+        }
+    }
+
+    // Без активной транзакции (вызов вне прокси) действие выполняется сразу
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private static void afterRollback(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    action.run();
+                }
+            }
+        });
     }
 }
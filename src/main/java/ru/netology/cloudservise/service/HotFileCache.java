@@ -0,0 +1,447 @@
+package ru.netology.cloudservise.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Кэш содержимого небольших часто скачиваемых объектов вне кучи (FFM), ключ - ключ объекта в хранилище.
+ * Память - один MemorySegment из страниц по PAGE_SIZE байт; объект занимает список страниц, свободные страницы
+ * хранятся в стеке, поэтому кэш не создает нагрузки на GC.
+ * Вытеснение - сегментированный LRU: новый объект попадает в пробный сегмент и переходит в защищенный
+ * (до 80% емкости) только при повторном обращении, так что однократный проход по многим файлам
+ * вытесняет лишь пробный сегмент.
+ * Страницы объекта освобождаются, когда он вытеснен и дочитаны все открытые из него потоки.
+ */
+@Slf4j
+@Component
+public class HotFileCache implements MeterBinder {
+
+    private static final int PAGE_SIZE = 4096;
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private final StorageBackend backend;
+    private final boolean enabled;
+    private final long maxObjectSize;
+    private final int pageCount;
+    private final int protectedLimit;
+
+    private final Arena arena;
+    private final MemorySegment pages;
+    private final int[] freePages;
+    private int freeCount;
+
+    // Оба сегмента в порядке обращений: первым идет давно не использованный объект
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private int protectedPages;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong cachedBytes = new AtomicLong();
+
+    private final StorageBackend reader;
+
+    public HotFileCache(StorageBackend backend,
+                        @Value("${app.storage.hot-cache.enabled:true}") boolean enabled,
+                        @Value("${app.storage.hot-cache.capacity:67108864}") long capacity,
+                        @Value("${app.storage.hot-cache.max-object-size:262144}") long maxObjectSize) {
+        this.backend = backend;
+        this.enabled = enabled && capacity >= PAGE_SIZE;
+        this.maxObjectSize = Math.min(maxObjectSize, capacity);
+        this.pageCount = this.enabled ? (int) Math.min(capacity / PAGE_SIZE, Integer.MAX_VALUE) : 0;
+        this.protectedLimit = (int) (pageCount * PROTECTED_SHARE);
+
+        this.freePages = new int[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            freePages[i] = pageCount - 1 - i;
+        }
+        this.freeCount = pageCount;
+
+        if (this.enabled) {
+            this.arena = Arena.ofShared();
+            this.pages = arena.allocate((long) pageCount * PAGE_SIZE, 64);
+            log.info("Кэш файлов вне кучи: {} МБ, объекты до {} КБ", pages.byteSize() >> 20, this.maxObjectSize >> 10);
+        } else {
+            this.arena = null;
+            this.pages = null;
+        }
+        this.reader = this.enabled ? new CachingReader() : backend;
+    }
+
+    // Хранилище для чтения при скачивании: небольшие объекты отдаются из кэша и попадают в него при промахе
+    public StorageBackend reader() {
+        return reader;
+    }
+
+    // Вызывается, когда байты под ключом удалены или заменены
+    public void invalidate(String key) {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            Entry entry = probation.remove(key);
+            if (entry == null) {
+                entry = protectedSegment.remove(key);
+                if (entry != null) {
+                    protectedPages -= entry.pages.length;
+                }
+            }
+            if (entry != null) {
+                evicted(entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long cachedBytes() {
+        return cachedBytes.get();
+    }
+
+    public double hitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!enabled) {
+            return;
+        }
+        Gauge.builder("storage.hot.cache.bytes", this, HotFileCache::cachedBytes)
+                .description("Байты объектов в кэше файлов вне кучи")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("storage.hot.cache.capacity", pages, MemorySegment::byteSize)
+                .description("Емкость кэша файлов вне кучи")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("storage.hot.cache.hit.ratio", this, HotFileCache::hitRatio)
+                .description("Доля чтений, обслуженных кэшем файлов")
+                .register(registry);
+        FunctionCounter.builder("storage.hot.cache.requests", hits, AtomicLong::get)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("storage.hot.cache.requests", misses, AtomicLong::get)
+                .tag("result", "miss")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (arena != null) {
+            arena.close();
+        }
+    }
+
+    // Возвращает объект с учтенной ссылкой читателя или null
+    private Entry lookup(String key) {
+        lock.lock();
+        try {
+            Entry entry = protectedSegment.get(key);
+            if (entry == null) {
+                entry = probation.remove(key);
+                if (entry != null) {
+                    promote(key, entry);
+                }
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            entry.refs.incrementAndGet();
+            hits.incrementAndGet();
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void promote(String key, Entry entry) {
+        protectedSegment.put(key, entry);
+        protectedPages += entry.pages.length;
+        Iterator<Map.Entry<String, Entry>> eldest = protectedSegment.entrySet().iterator();
+        while (protectedPages > protectedLimit && eldest.hasNext()) {
+            Map.Entry<String, Entry> demoted = eldest.next();
+            eldest.remove();
+            protectedPages -= demoted.getValue().pages.length;
+            probation.put(demoted.getKey(), demoted.getValue());
+        }
+    }
+
+    private void admit(String key, byte[] data, long lastModified) {
+        int needed = Math.max(1, (data.length + PAGE_SIZE - 1) / PAGE_SIZE);
+        int[] allocated;
+        lock.lock();
+        try {
+            if (probation.containsKey(key) || protectedSegment.containsKey(key) || !reserve(needed)) {
+                return;
+            }
+            allocated = new int[needed];
+            for (int i = 0; i < needed; i++) {
+                allocated[i] = freePages[--freeCount];
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (int i = 0, copied = 0; copied < data.length; i++) {
+            int length = Math.min(PAGE_SIZE, data.length - copied);
+            MemorySegment.copy(data, copied, pages, ValueLayout.JAVA_BYTE, (long) allocated[i] * PAGE_SIZE, length);
+            copied += length;
+        }
+
+        Entry entry = new Entry(allocated, data.length, lastModified);
+        lock.lock();
+        try {
+            if (probation.containsKey(key) || protectedSegment.containsKey(key)) {
+                release(entry);
+                return;
+            }
+            probation.put(key, entry);
+            cachedBytes.addAndGet(data.length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Освобождает место, вытесняя сначала пробный сегмент; вызывается под блокировкой
+    private boolean reserve(int needed) {
+        if (needed > pageCount) {
+            return false;
+        }
+        while (freeCount < needed) {
+            LinkedHashMap<String, Entry> victims = probation.isEmpty() ? protectedSegment : probation;
+            Iterator<Entry> eldest = victims.values().iterator();
+            if (!eldest.hasNext()) {
+                // Остальные страницы заняты объектами, которые еще дочитываются
+                return false;
+            }
+            Entry victim = eldest.next();
+            eldest.remove();
+            if (victims == protectedSegment) {
+                protectedPages -= victim.pages.length;
+            }
+            evicted(victim);
+        }
+        return true;
+    }
+
+    private void evicted(Entry entry) {
+        if (entry.evicted) {
+            return;
+        }
+        entry.evicted = true;
+        cachedBytes.addAndGet(-entry.size);
+        release(entry);
+    }
+
+    private void release(Entry entry) {
+        if (entry.refs.decrementAndGet() > 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            for (int page : entry.pages) {
+                freePages[freeCount++] = page;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Entry {
+
+        final int[] pages;
+        final int size;
+        final long lastModified;
+        // Одна ссылка принадлежит самому кэшу, остальные - открытым потокам
+        final AtomicInteger refs = new AtomicInteger(1);
+        boolean evicted;
+
+        Entry(int[] pages, int size, long lastModified) {
+            this.pages = pages;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final class CachedInputStream extends InputStream {
+
+        private final Entry entry;
+        private final long end;
+        private long position;
+        private boolean closed;
+
+        CachedInputStream(Entry entry, long start, long end) {
+            this.entry = entry;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Поток закрыт");
+            }
+            if (position >= end) {
+                return -1;
+            }
+            int read = 0;
+            while (read < len && position < end) {
+                int page = entry.pages[(int) (position / PAGE_SIZE)];
+                int inPage = (int) (position % PAGE_SIZE);
+                int length = (int) Math.min(Math.min(len - read, PAGE_SIZE - inPage), end - position);
+                MemorySegment.copy(pages, ValueLayout.JAVA_BYTE, (long) page * PAGE_SIZE + inPage, buffer, off + read, length);
+                read += length;
+                position += length;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(entry);
+            }
+        }
+    }
+
+    private final class CachingReader implements StorageBackend {
+
+        @Override
+        public InputStream get(String key) throws IOException {
+            Entry entry = lookup(key);
+            if (entry != null) {
+                return new CachedInputStream(entry, 0, entry.size);
+            }
+
+            // Небольшой объект читается целиком: он же уходит клиенту и копируется в кэш,
+            // у крупного прочитанное начало отдается перед остатком потока
+            InputStream content = backend.get(key);
+            byte[] data;
+            try {
+                data = content.readNBytes((int) maxObjectSize + 1);
+            } catch (IOException e) {
+                content.close();
+                throw e;
+            }
+            if (data.length > maxObjectSize) {
+                return new SequenceInputStream(new ByteArrayInputStream(data), content);
+            }
+            content.close();
+            admit(key, data, backend.stat(key).lastModified().toEpochMilli());
+            return new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public InputStream get(String key, long offset, long length) throws IOException {
+            Entry entry = lookup(key);
+            if (entry == null) {
+                return backend.get(key, offset, length);
+            }
+            long start = Math.min(offset, entry.size);
+            return new CachedInputStream(entry, start, Math.min(entry.size, start + length));
+        }
+
+        @Override
+        public StorageObject stat(String key) throws IOException {
+            lock.lock();
+            try {
+                Entry entry = protectedSegment.containsKey(key) ? protectedSegment.get(key) : probation.get(key);
+                if (entry != null) {
+                    return new StorageObject(entry.size, Instant.ofEpochMilli(entry.lastModified));
+                }
+            } finally {
+                lock.unlock();
+            }
+            return backend.stat(key);
+        }
+
+        // sendfile только для объектов крупнее max-object-size: небольшой объект, даже еще не закэшированный,
+        // должен пройти через get(), иначе при включенном в контейнере sendfile он никогда не попадет в кэш
+        @Override
+        public Optional<Path> localPath(String key) {
+            Optional<Path> path = backend.localPath(key);
+            if (path.isEmpty()) {
+                return path;
+            }
+            try {
+                return Files.size(path.get()) > maxObjectSize ? path : Optional.empty();
+            } catch (IOException e) {
+                // Отсутствующий объект обнаружится при чтении через get()
+                return Optional.empty();
+            }
+        }
+
+        @Override
+        public void put(String key, InputStream content, long size) throws IOException {
+            backend.put(key, content, size);
+            invalidate(key);
+        }
+
+        @Override
+        public void putFile(String key, Path source) throws IOException {
+            backend.putFile(key, source);
+            invalidate(key);
+        }
+
+        @Override
+        public boolean delete(String key) throws IOException {
+            invalidate(key);
+            return backend.delete(key);
+        }
+
+        @Override
+        public void move(String fromKey, String toKey) throws IOException {
+            invalidate(fromKey);
+            invalidate(toKey);
+            backend.move(fromKey, toKey);
+        }
+    }
+}
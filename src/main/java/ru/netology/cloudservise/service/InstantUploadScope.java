@@ -0,0 +1,11 @@
+package ru.netology.cloudservise.service;
+
+/**
+ * Где искать уже сохраненное содержимое для мгновенной загрузки по хэшу.
+ * GLOBAL экономит больше трафика, но позволяет по хэшу узнать, что такое содержимое есть у кого-то еще.
+ */
+public enum InstantUploadScope {
+    DISABLED,
+    USER,
+    GLOBAL
+}
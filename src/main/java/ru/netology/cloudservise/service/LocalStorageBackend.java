@@ -0,0 +1,179 @@
+package ru.netology.cloudservise.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Optional;
+
+/**
+ * Хранилище на локальном диске в каталоге app.file-storage.path.
+ * Запись идет во временный файл рядом с целевым и завершается атомарным переименованием,
+ * поэтому читатель никогда не видит частично записанный объект. Временный файл сбрасывается на диск
+ * до переименования, а каталог - после, согласно режиму StorageSync: после возврата из put объект
+ * переживет сбой питания, и строку о нем можно фиксировать в БД.
+ */
+@Component
+@ConditionalOnProperty(name = "app.storage.backend", havingValue = "local", matchIfMissing = true)
+public class LocalStorageBackend implements StorageBackend {
+
+    private final Path root;
+    private final StorageSync sync;
+
+    public LocalStorageBackend(@Value("${app.file-storage.path}") String storagePath, StorageSync sync) {
+        this.root = Paths.get(storagePath);
+        this.sync = sync;
+    }
+
+    // Строки, сохраненные до появления ключей, содержат путь вместе с корнем (./uploads/...)
+    public Path resolve(String key) {
+        Path path = Paths.get(key);
+        return path.isAbsolute() || path.startsWith(root) ? path : root.resolve(path);
+    }
+
+    @Override
+    public void put(String key, InputStream content, long size) throws IOException {
+        Path target = resolve(key);
+        createParents(target);
+        Path temp = Files.createTempFile(target.getParent(), ".put-", ".tmp");
+        try {
+            long written = Files.copy(content, temp, StandardCopyOption.REPLACE_EXISTING);
+            if (written != size) {
+                throw new IOException("Записано " + written + " байт вместо " + size + " для " + key);
+            }
+            sync.force(temp);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            sync.force(target.getParent());
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public void putFile(String key, Path source) throws IOException {
+        Path target = resolve(key);
+        createParents(target);
+        sync.force(source);
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        sync.force(target.getParent());
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        return Files.newInputStream(resolve(key));
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(resolve(key));
+        try {
+            channel.position(offset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new BoundedInputStream(Channels.newInputStream(channel), length);
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        return Files.deleteIfExists(resolve(key));
+    }
+
+    @Override
+    public void move(String fromKey, String toKey) throws IOException {
+        Path source = resolve(fromKey);
+        Path target = resolve(toKey);
+        createParents(target);
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        sync.force(target.getParent());
+        if (!source.getParent().equals(target.getParent())) {
+            sync.force(source.getParent());
+        }
+    }
+
+    @Override
+    public StorageObject stat(String key) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(resolve(key), BasicFileAttributes.class);
+        return new StorageObject(attributes.size(), attributes.lastModifiedTime().toInstant());
+    }
+
+    @Override
+    public Optional<Path> localPath(String key) {
+        return Optional.of(resolve(key));
+    }
+
+    // Новый каталог раскладки тоже должен пережить сбой: синхронизируется каталог, в котором он создан
+    private void createParents(Path target) throws IOException {
+        Path parent = target.getParent();
+        Path existing = parent;
+        while (existing != null && !Files.isDirectory(existing)) {
+            existing = existing.getParent();
+        }
+        if (existing == parent) {
+            return;
+        }
+
+        Files.createDirectories(parent);
+        for (Path created = parent; created != null && !created.equals(existing); created = created.getParent()) {
+            if (created.getParent() != null) {
+                sync.force(created.getParent());
+            }
+        }
+    }
+
+    private static final class BoundedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(buffer, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+    }
+}
@@ -0,0 +1,580 @@
+package ru.netology.cloudservise.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Хранилище, упаковывающее мелкие объекты (не больше app.storage.packed.small-file-threshold) в сегментные файлы
+ * segments/segment-NNNNNN.seg, которые только дописываются в конец. Крупные объекты хранятся обычными файлами
+ * через LocalStorageBackend.
+ * Запись сегмента - заголовок (сигнатура, тип, длина ключа, длина данных, CRC32C, время), ключ и данные.
+ * Индекс ключ -> (сегмент, смещение, длина, CRC32C) держится в памяти и при старте восстанавливается
+ * чтением заголовков; неполная последняя запись после сбоя отрезается.
+ * Записи сбрасываются на диск через StorageSync после снятия блокировки записи, поэтому в режиме group
+ * одновременные загрузки в общий сегмент синхронизируются одним fsync.
+ * Удаление дописывает запись-надгробие, а compact() переписывает живые записи из сегментов,
+ * где мусора больше app.storage.packed.compaction-garbage-ratio, и удаляет эти сегменты.
+ * Надгробие считается живой записью, пока существует более старый сегмент, который может содержать
+ * запись удаленного ключа; после этого оно становится мусором и при уплотнении не переносится.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.storage.backend", havingValue = "packed")
+public class PackedStorageBackend implements StorageBackend, MeterBinder {
+
+    private static final int MAGIC = 0x53454731;
+    private static final byte PUT = 1;
+    private static final byte TOMBSTONE = 2;
+    // magic + тип + длина ключа + длина данных + CRC32C + время изменения
+    private static final int HEADER_SIZE = 4 + 1 + 2 + 8 + 4 + 8;
+    private static final String SEGMENTS_DIR = "segments";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final LocalStorageBackend files;
+    private final StorageSync sync;
+    private final Path segmentsDir;
+    private final int threshold;
+    private final long segmentSize;
+    private final double compactionGarbageRatio;
+
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    // Последнее надгробие каждого удаленного ключа, которое еще заслоняет записи в старых сегментах
+    private final Map<String, Entry> tombstones = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    // Порядок записей в сегментах совпадает с порядком изменений индекса: и то, и другое - под этой блокировкой
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile Segment active;
+
+    public PackedStorageBackend(@Value("${app.file-storage.path}") String storagePath,
+                                StorageSync sync,
+                                @Value("${app.storage.packed.small-file-threshold:65536}") int threshold,
+                                @Value("${app.storage.packed.segment-size:268435456}") long segmentSize,
+                                @Value("${app.storage.packed.compaction-garbage-ratio:0.5}") double compactionGarbageRatio)
+            throws IOException {
+        this.files = new LocalStorageBackend(storagePath, sync);
+        this.sync = sync;
+        this.segmentsDir = Paths.get(storagePath, SEGMENTS_DIR);
+        this.threshold = threshold;
+        this.segmentSize = segmentSize;
+        this.compactionGarbageRatio = compactionGarbageRatio;
+
+        Files.createDirectories(segmentsDir);
+        recover();
+    }
+
+    @Override
+    public void put(String key, InputStream content, long size) throws IOException {
+        if (size > threshold) {
+            files.put(key, content, size);
+            deletePacked(key);
+            return;
+        }
+
+        byte[] data = content.readNBytes((int) size);
+        if (data.length != size) {
+            throw new IOException("Получено " + data.length + " байт вместо " + size + " для " + key);
+        }
+        force(append(PUT, key, data, System.currentTimeMillis()));
+        files.delete(key);
+    }
+
+    @Override
+    public void putFile(String key, Path source) throws IOException {
+        long size = Files.size(source);
+        if (size > threshold) {
+            files.putFile(key, source);
+            deletePacked(key);
+            return;
+        }
+        try (InputStream content = Files.newInputStream(source)) {
+            put(key, content, size);
+        }
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            Entry entry = index.get(key);
+            if (entry == null) {
+                return files.get(key);
+            }
+            try {
+                return new ByteArrayInputStream(read(entry));
+            } catch (ClosedChannelException e) {
+                // Сегмент удален уплотнением после чтения индекса; запись уже перенесена, повторяем поиск
+                if (attempt > 0) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            Entry entry = index.get(key);
+            if (entry == null) {
+                return files.get(key, offset, length);
+            }
+            try {
+                int from = (int) Math.min(offset, entry.length());
+                int count = (int) Math.min(length, entry.length() - from);
+                return new ByteArrayInputStream(readAt(entry.segment(), entry.offset() + from, count));
+            } catch (ClosedChannelException e) {
+                if (attempt > 0) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        boolean packed = deletePacked(key);
+        return files.delete(key) || packed;
+    }
+
+    @Override
+    public void move(String fromKey, String toKey) throws IOException {
+        if (!index.containsKey(fromKey)) {
+            files.move(fromKey, toKey);
+            deletePacked(toKey);
+            return;
+        }
+
+        byte[] data;
+        try (InputStream content = get(fromKey)) {
+            data = content.readAllBytes();
+        }
+        Segment written;
+        Segment tombstone;
+        writeLock.lock();
+        try {
+            written = append(PUT, toKey, data, System.currentTimeMillis());
+            tombstone = append(TOMBSTONE, fromKey, new byte[0], System.currentTimeMillis());
+        } finally {
+            writeLock.unlock();
+        }
+        force(written);
+        if (tombstone != written) {
+            force(tombstone);
+        }
+        files.delete(toKey);
+    }
+
+    @Override
+    public StorageObject stat(String key) throws IOException {
+        Entry entry = index.get(key);
+        if (entry == null) {
+            return files.stat(key);
+        }
+        return new StorageObject(entry.length(), Instant.ofEpochMilli(entry.timestamp()));
+    }
+
+    // Упакованный объект не является отдельным файлом, поэтому sendfile для него недоступен
+    @Override
+    public Optional<Path> localPath(String key) {
+        return index.containsKey(key) ? Optional.empty() : files.localPath(key);
+    }
+
+    // Переписывает сегменты с большой долей мусора; возвращает число удаленных сегментов
+    public int compact() throws IOException {
+        int compacted = 0;
+        for (Segment segment : List.copyOf(segments.values())) {
+            if (segment == active || segment.garbageRatio() < compactionGarbageRatio) {
+                continue;
+            }
+            rewrite(segment);
+            compacted++;
+        }
+        return compacted;
+    }
+
+    public int objectCount() {
+        return index.size();
+    }
+
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    public long garbageBytes() {
+        return segments.values().stream().mapToLong(segment -> segment.size - segment.liveBytes.get()).sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("storage.packed.objects", this, PackedStorageBackend::objectCount)
+                .description("Объекты, упакованные в сегменты")
+                .register(registry);
+        Gauge.builder("storage.packed.segments", this, PackedStorageBackend::segmentCount)
+                .description("Число сегментных файлов")
+                .register(registry);
+        Gauge.builder("storage.packed.garbage", this, PackedStorageBackend::garbageBytes)
+                .description("Байты удаленных и перезаписанных объектов, ожидающие уплотнения")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.channel.close();
+        }
+    }
+
+    // Надгробие тоже сбрасывается на диск: иначе после сбоя удаленная запись заслонила бы новый файл
+    private boolean deletePacked(String key) throws IOException {
+        Segment segment;
+        writeLock.lock();
+        try {
+            if (!index.containsKey(key)) {
+                return false;
+            }
+            segment = append(TOMBSTONE, key, new byte[0], System.currentTimeMillis());
+        } finally {
+            writeLock.unlock();
+        }
+        force(segment);
+        return true;
+    }
+
+    // Сброс идет после снятия блокировки, и уплотнение успевает закрыть сегмент. Живые записи из него
+    // к этому моменту уже перенесены в более новые сегменты и сброшены на диск, поэтому закрытый канал
+    // удаленного сегмента - не ошибка
+    private void force(Segment segment) throws IOException {
+        try {
+            sync.force(segment.channel);
+        } catch (ClosedChannelException e) {
+            if (segments.containsKey(segment.id)) {
+                throw e;
+            }
+        }
+    }
+
+    // Возвращает сегмент, в который попала запись
+    private Segment append(byte type, String key, byte[] data, long timestamp) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > 0xFFFF) {
+            throw new IOException("Слишком длинный ключ: " + key);
+        }
+        int crc = crc(data, 0, data.length);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + data.length)
+                .putInt(MAGIC)
+                .put(type)
+                .putShort((short) keyBytes.length)
+                .putLong(data.length)
+                .putInt(crc)
+                .putLong(timestamp)
+                .put(keyBytes)
+                .put(data)
+                .flip();
+
+        writeLock.lock();
+        try {
+            Segment segment = active;
+            if (segment.size > 0 && segment.size + record.remaining() > segmentSize) {
+                segment = roll();
+            }
+            long position = segment.size;
+            writeFully(segment.channel, record, position);
+            segment.size = position + record.capacity();
+            apply(type, key, new Entry(segment.id, position + HEADER_SIZE + keyBytes.length, data.length, crc,
+                    timestamp, record.capacity(), segment.id));
+            return segment;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Новая запись наследует самый старый сегмент, где могут остаться записи ключа: он нужен, чтобы решить,
+    // заслоняет ли надгробие что-нибудь
+    private void apply(byte type, String key, Entry record) {
+        Entry previous = index.get(key);
+        Entry tombstone = tombstones.get(key);
+        Entry ancestor = previous != null ? previous : tombstone;
+        Entry entry = ancestor == null ? record : record.withOldestSegment(ancestor.oldestSegment());
+        if (type == PUT) {
+            index.put(key, entry);
+            tombstones.remove(key);
+        } else {
+            index.remove(key);
+            tombstones.put(key, entry);
+        }
+        segments.get(entry.segment()).liveBytes.addAndGet(entry.recordSize());
+        release(previous);
+        release(tombstone);
+    }
+
+    private void release(Entry entry) {
+        if (entry != null) {
+            Segment segment = segments.get(entry.segment());
+            if (segment != null) {
+                segment.liveBytes.addAndGet(-entry.recordSize());
+            }
+        }
+    }
+
+    // Есть ли сегмент старше надгробия, в котором может лежать запись удаленного ключа
+    private boolean shadowsOlderRecords(Entry tombstone) {
+        return !segments.subMap(tombstone.oldestSegment(), true, tombstone.segment(), false).isEmpty();
+    }
+
+    private byte[] read(Entry entry) throws IOException {
+        byte[] data = readAt(entry.segment(), entry.offset(), entry.length());
+        if (crc(data, 0, data.length) != entry.crc()) {
+            throw new IOException("Контрольная сумма не совпала: сегмент " + entry.segment() + ", смещение " + entry.offset());
+        }
+        return data;
+    }
+
+    private byte[] readAt(int segmentId, long position, int length) throws IOException {
+        Segment segment = segments.get(segmentId);
+        if (segment == null) {
+            throw new ClosedChannelException();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(segment.channel, buffer, position);
+        return buffer.array();
+    }
+
+    private void rewrite(Segment segment) throws IOException {
+        forEachRecord(segment, false, (type, key, entry) -> {
+            if (type == PUT) {
+                if (!entry.sameRecord(index.get(key))) {
+                    return;
+                }
+                byte[] data = read(entry);
+                writeLock.lock();
+                try {
+                    // Объект мог быть перезаписан или удален, пока читались данные
+                    if (entry.sameRecord(index.get(key))) {
+                        append(PUT, key, data, entry.timestamp());
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+                return;
+            }
+            writeLock.lock();
+            try {
+                Entry tombstone = tombstones.get(key);
+                if (!entry.sameRecord(tombstone)) {
+                    return;
+                }
+                // Надгробие переносится, только пока в более старых сегментах может остаться запись ключа:
+                // иначе удаленный объект вернулся бы при восстановлении индекса
+                if (shadowsOlderRecords(tombstone)) {
+                    append(TOMBSTONE, key, new byte[0], entry.timestamp());
+                } else {
+                    tombstones.remove(key);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        });
+
+        // Перенесенные записи должны быть на диске раньше, чем исчезнет сегмент с оригиналами
+        for (Segment newer : segments.tailMap(segment.id, false).values()) {
+            sync.force(newer.channel);
+        }
+        segments.remove(segment.id);
+        segment.channel.close();
+        Files.deleteIfExists(segment.path);
+        sync.force(segmentsDir);
+        releaseObsoleteTombstones();
+        log.info("Сегмент {} уплотнен", segment.path.getFileName());
+    }
+
+    // После удаления сегмента часть надгробий в других сегментах больше ничего не заслоняет и становится мусором
+    private void releaseObsoleteTombstones() {
+        writeLock.lock();
+        try {
+            tombstones.entrySet().removeIf(tombstone -> {
+                if (shadowsOlderRecords(tombstone.getValue())) {
+                    return false;
+                }
+                release(tombstone.getValue());
+                return true;
+            });
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> paths;
+        try (Stream<Path> list = Files.list(segmentsDir)) {
+            paths = new ArrayList<>(list
+                    .filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList());
+        }
+
+        for (int i = 0; i < paths.size(); i++) {
+            Path path = paths.get(i);
+            String name = path.getFileName().toString();
+            int id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = new Segment(id, path);
+            segments.put(id, segment);
+
+            boolean last = i == paths.size() - 1;
+            long end = forEachRecord(segment, last, (type, key, entry) -> apply(type, key, entry));
+            if (end < segment.channel.size()) {
+                log.warn("Сегмент {}: неполная или поврежденная запись со смещения {}", name, end);
+                if (last) {
+                    segment.channel.truncate(end);
+                }
+            }
+            segment.size = end;
+        }
+
+        active = segments.isEmpty() ? createSegment(1) : segments.lastEntry().getValue();
+        releaseObsoleteTombstones();
+        log.info("Восстановлен индекс упакованного хранилища: объектов {}, сегментов {}", index.size(), segments.size());
+    }
+
+    // Обходит записи сегмента по порядку и возвращает смещение конца последней целой записи
+    private long forEachRecord(Segment segment, boolean verify, RecordVisitor visitor) throws IOException {
+        long size = segment.channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(segment.channel, header, position);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                break;
+            }
+            byte type = header.get();
+            int keyLength = Short.toUnsignedInt(header.getShort());
+            long length = header.getLong();
+            int crc = header.getInt();
+            long timestamp = header.getLong();
+
+            long dataOffset = position + HEADER_SIZE + keyLength;
+            if ((type != PUT && type != TOMBSTONE) || length < 0 || dataOffset + length > size) {
+                break;
+            }
+            ByteBuffer key = ByteBuffer.allocate(keyLength);
+            readFully(segment.channel, key, position + HEADER_SIZE);
+            Entry entry = new Entry(segment.id, dataOffset, (int) length, crc, timestamp,
+                    (int) (dataOffset + length - position), segment.id);
+            if (verify && type == PUT) {
+                ByteBuffer data = ByteBuffer.allocate((int) length);
+                readFully(segment.channel, data, dataOffset);
+                if (crc(data.array(), 0, data.capacity()) != crc) {
+                    break;
+                }
+            }
+
+            visitor.visit(type, new String(key.array(), StandardCharsets.UTF_8), entry);
+            position = dataOffset + length;
+        }
+        return position;
+    }
+
+    private Segment roll() throws IOException {
+        Segment next = createSegment(active.id + 1);
+        active = next;
+        return next;
+    }
+
+    private Segment createSegment(int id) throws IOException {
+        Segment segment = new Segment(id, segmentsDir.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)));
+        segments.put(id, segment);
+        sync.force(segmentsDir);
+        return segment;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static int crc(byte[] data, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(byte type, String key, Entry entry) throws IOException;
+    }
+
+    // offset указывает на начало данных, recordSize - размер всей записи вместе с заголовком и ключом,
+    // oldestSegment - самый старый сегмент, в котором может оставаться более ранняя запись того же ключа
+    private record Entry(int segment, long offset, int length, int crc, long timestamp, int recordSize,
+                         int oldestSegment) {
+
+        Entry withOldestSegment(int oldestSegment) {
+            return new Entry(segment, offset, length, crc, timestamp, recordSize, Math.min(this.oldestSegment, oldestSegment));
+        }
+
+        boolean sameRecord(Entry other) {
+            return other != null && other.segment == segment && other.offset == offset;
+        }
+    }
+
+    private static final class Segment {
+
+        final int id;
+        final Path path;
+        final FileChannel channel;
+        final AtomicLong liveBytes = new AtomicLong();
+        volatile long size;
+
+        Segment(int id, Path path) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        double garbageRatio() {
+            return size == 0 ? 0 : 1 - (double) liveBytes.get() / size;
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package ru.netology.cloudservise.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Хранилище в S3-совместимом сервисе (AWS S3, MinIO, Ceph RGW) с адресацией endpoint/bucket/key.
+ * Запросы подписываются AWS Signature V4 с UNSIGNED-PAYLOAD, поэтому тело передается потоком без
+ * предварительного хэширования. Клиент построен на java.net.http, отдельный SDK не нужен.
+ * Одиночный PUT и копирование в S3 ограничены 5 GiB, поэтому объекты больше multipart-threshold
+ * загружаются и копируются по частям (multipart upload).
+ */
+@Component
+@ConditionalOnProperty(name = "app.storage.backend", havingValue = "s3")
+public class S3StorageBackend implements StorageBackend {
+
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+    private static final DateTimeFormatter DATE_STAMP = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(10);
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    private static final long MAX_SINGLE_PUT_SIZE = 5L * 1024 * 1024 * 1024;
+    private static final int MAX_PARTS = 10_000;
+    private static final Pattern UPLOAD_ID = Pattern.compile("<UploadId>([^<]+)</UploadId>");
+    private static final Pattern ETAG = Pattern.compile("<ETag>([^<]+)</ETag>");
+
+    private final URI endpoint;
+    private final String bucket;
+    private final String region;
+    private final String accessKey;
+    private final String secretKey;
+    private final long multipartThreshold;
+    private final long partSize;
+    private final HttpClient client;
+
+    public S3StorageBackend(@Value("${app.storage.s3.endpoint}") String endpoint,
+                            @Value("${app.storage.s3.bucket}") String bucket,
+                            @Value("${app.storage.s3.region:us-east-1}") String region,
+                            @Value("${app.storage.s3.access-key}") String accessKey,
+                            @Value("${app.storage.s3.secret-key}") String secretKey,
+                            @Value("${app.storage.s3.multipart-threshold:104857600}") long multipartThreshold,
+                            @Value("${app.storage.s3.part-size:67108864}") long partSize) {
+        if (multipartThreshold > MAX_SINGLE_PUT_SIZE || partSize < MIN_PART_SIZE || partSize > MAX_SINGLE_PUT_SIZE) {
+            throw new IllegalArgumentException("Недопустимые параметры загрузки S3: multipart-threshold "
+                    + multipartThreshold + ", part-size " + partSize);
+        }
+        this.endpoint = URI.create(endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint);
+        this.bucket = bucket;
+        this.region = region;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.multipartThreshold = multipartThreshold;
+        this.partSize = partSize;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    @Override
+    public void put(String key, InputStream content, long size) throws IOException {
+        if (size > multipartThreshold) {
+            putMultipart(key, content, size);
+            return;
+        }
+        HttpResponse<String> response = send(signed("PUT", key, Map.of(), Map.of()).PUT(body(content, size)),
+                HttpResponse.BodyHandlers.ofString());
+        expect(response, key, 200);
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        HttpResponse<InputStream> response = send(signed("GET", key, Map.of(), Map.of()).GET(), HttpResponse.BodyHandlers.ofInputStream());
+        expect(response, key, 200);
+        return response.body();
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        if (length == 0) {
+            stat(key);
+            return InputStream.nullInputStream();
+        }
+        HttpRequest.Builder request = signed("GET", key, Map.of(), Map.of())
+                .header("Range", "bytes=" + offset + "-" + (offset + length - 1))
+                .GET();
+        HttpResponse<InputStream> response = send(request, HttpResponse.BodyHandlers.ofInputStream());
+        expect(response, key, 206);
+        return response.body();
+    }
+
+    // S3 не сообщает, существовал ли объект: успешное удаление всегда возвращает true
+    @Override
+    public boolean delete(String key) throws IOException {
+        HttpResponse<String> response = send(signed("DELETE", key, Map.of(), Map.of()).DELETE(), HttpResponse.BodyHandlers.ofString());
+        expect(response, key, 204, 200);
+        return true;
+    }
+
+    // Копирование выполняется на стороне сервера, байты через приложение не проходят
+    @Override
+    public void move(String fromKey, String toKey) throws IOException {
+        long size = stat(fromKey).size();
+        if (size > multipartThreshold) {
+            copyMultipart(fromKey, toKey, size);
+        } else {
+            HttpResponse<String> response = send(signed("PUT", toKey, Map.of(), copySource(fromKey))
+                    .PUT(HttpRequest.BodyPublishers.noBody()), HttpResponse.BodyHandlers.ofString());
+            expect(response, fromKey, 200);
+            // Источник удаляется ниже, поэтому ошибка копирования в теле ответа со статусом 200 не должна пройти
+            expectNoError(response, "S3 не смог скопировать " + fromKey + " в " + toKey);
+        }
+        delete(fromKey);
+    }
+
+    @Override
+    public StorageObject stat(String key) throws IOException {
+        HttpRequest.Builder request = signed("HEAD", key, Map.of(), Map.of()).HEAD();
+        HttpResponse<Void> response = send(request, HttpResponse.BodyHandlers.discarding());
+        expect(response, key, 200);
+
+        long size = response.headers().firstValueAsLong("Content-Length").orElse(0);
+        Instant lastModified = response.headers().firstValue("Last-Modified")
+                .map(value -> ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant())
+                .orElse(Instant.EPOCH);
+        return new StorageObject(size, lastModified);
+    }
+
+    private void putMultipart(String key, InputStream content, long size) throws IOException {
+        long length = partSize(size);
+        String uploadId = createMultipartUpload(key);
+        try {
+            List<String> etags = new ArrayList<>();
+            for (long offset = 0; offset < size; offset += length) {
+                long partLength = Math.min(length, size - offset);
+                HttpRequest.Builder request = signed("PUT", key, partQuery(etags.size() + 1, uploadId), Map.of())
+                        .PUT(body(new PartInputStream(content, partLength), partLength));
+                HttpResponse<String> response = send(request, HttpResponse.BodyHandlers.ofString());
+                expect(response, key, 200);
+                etags.add(response.headers().firstValue("ETag")
+                        .orElseThrow(() -> new IOException("S3 не вернул ETag части для " + key)));
+            }
+            completeMultipartUpload(key, uploadId, etags);
+        } catch (IOException | RuntimeException e) {
+            abortMultipartUpload(key, uploadId, e);
+            throw e;
+        }
+    }
+
+    private void copyMultipart(String fromKey, String toKey, long size) throws IOException {
+        long length = partSize(size);
+        String uploadId = createMultipartUpload(toKey);
+        try {
+            List<String> etags = new ArrayList<>();
+            for (long offset = 0; offset < size; offset += length) {
+                long last = Math.min(offset + length, size) - 1;
+                Map<String, String> headers = new TreeMap<>(copySource(fromKey));
+                headers.put("x-amz-copy-source-range", "bytes=" + offset + "-" + last);
+                HttpRequest.Builder request = signed("PUT", toKey, partQuery(etags.size() + 1, uploadId), headers)
+                        .PUT(HttpRequest.BodyPublishers.noBody());
+                HttpResponse<String> response = send(request, HttpResponse.BodyHandlers.ofString());
+                expect(response, fromKey, 200);
+                etags.add(match(ETAG, response.body(), fromKey));
+            }
+            completeMultipartUpload(toKey, uploadId, etags);
+        } catch (IOException | RuntimeException e) {
+            abortMultipartUpload(toKey, uploadId, e);
+            throw e;
+        }
+    }
+
+    // Частей не больше 10 000, поэтому для очень больших объектов часть увеличивается
+    private long partSize(long size) {
+        return Math.max(partSize, Math.ceilDiv(size, MAX_PARTS));
+    }
+
+    private String createMultipartUpload(String key) throws IOException {
+        HttpRequest.Builder request = signed("POST", key, Map.of("uploads", ""), Map.of())
+                .POST(HttpRequest.BodyPublishers.noBody());
+        HttpResponse<String> response = send(request, HttpResponse.BodyHandlers.ofString());
+        expect(response, key, 200);
+        return match(UPLOAD_ID, response.body(), key);
+    }
+
+    private void completeMultipartUpload(String key, String uploadId, List<String> etags) throws IOException {
+        StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+        for (int i = 0; i < etags.size(); i++) {
+            xml.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+                    .append(etags.get(i)).append("</ETag></Part>");
+        }
+        xml.append("</CompleteMultipartUpload>");
+
+        HttpRequest.Builder request = signed("POST", key, Map.of("uploadId", uploadId), Map.of())
+                .POST(HttpRequest.BodyPublishers.ofString(xml.toString()));
+        HttpResponse<String> response = send(request, HttpResponse.BodyHandlers.ofString());
+        expect(response, key, 200);
+        expectNoError(response, "S3 не смог собрать " + key + " из частей");
+    }
+
+    // CopyObject и CompleteMultipartUpload могут сообщить об ошибке телом ответа со статусом 200
+    private static void expectNoError(HttpResponse<String> response, String message) throws IOException {
+        if (response.body().contains("<Error>")) {
+            throw new IOException(message + ": " + response.body());
+        }
+    }
+
+    // Незавершенная загрузка продолжает занимать место в бакете, поэтому ее части удаляются явно
+    private void abortMultipartUpload(String key, String uploadId, Exception cause) {
+        try {
+            HttpResponse<String> response = send(signed("DELETE", key, Map.of("uploadId", uploadId), Map.of()).DELETE(),
+                    HttpResponse.BodyHandlers.ofString());
+            expect(response, key, 204, 200, 404);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    private static Map<String, String> partQuery(int partNumber, String uploadId) {
+        return Map.of("partNumber", Integer.toString(partNumber), "uploadId", uploadId);
+    }
+
+    private Map<String, String> copySource(String key) {
+        return Map.of("x-amz-copy-source", "/" + bucket + "/" + encodePath(key));
+    }
+
+    private static HttpRequest.BodyPublisher body(InputStream content, long size) {
+        return HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofInputStream(() -> content), size);
+    }
+
+    private static String match(Pattern pattern, String body, String key) throws IOException {
+        Matcher matcher = pattern.matcher(body);
+        if (!matcher.find()) {
+            throw new IOException("Неожиданный ответ S3 для " + key + ": " + body);
+        }
+        return matcher.group(1);
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest.Builder request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        try {
+            return client.send(request.timeout(REQUEST_TIMEOUT).build(), handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Запрос к S3 прерван", e);
+        }
+    }
+
+    private static void expect(HttpResponse<?> response, String key, int... statuses) throws IOException {
+        for (int status : statuses) {
+            if (response.statusCode() == status) {
+                return;
+            }
+        }
+        if (response.body() instanceof InputStream body) {
+            body.close();
+        }
+        if (response.statusCode() == 404) {
+            throw new NoSuchFileException(key);
+        }
+        throw new IOException("S3 вернул " + response.statusCode() + " для " + key);
+    }
+
+    // Подпись AWS Signature V4: https://docs.aws.amazon.com/AmazonS3/latest/API/sig-v4-header-based-auth.html
+    private HttpRequest.Builder signed(String method, String key, Map<String, String> query,
+                                      Map<String, String> extraHeaders) {
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        String amzDate = AMZ_DATE.format(now);
+        String dateStamp = DATE_STAMP.format(now);
+        String canonicalUri = "/" + bucket + "/" + encodePath(key);
+        Map<String, String> sortedQuery = new TreeMap<>();
+        query.forEach((name, value) -> sortedQuery.put(encode(name), encode(value)));
+        StringBuilder canonicalQuery = new StringBuilder();
+        sortedQuery.forEach((name, value) -> canonicalQuery.append(canonicalQuery.isEmpty() ? "" : "&")
+                .append(name).append('=').append(value));
+        URI uri = URI.create(endpoint + canonicalUri + (canonicalQuery.isEmpty() ? "" : "?" + canonicalQuery));
+
+        Map<String, String> headers = new TreeMap<>();
+        headers.put("host", uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort());
+        headers.put("x-amz-content-sha256", UNSIGNED_PAYLOAD);
+        headers.put("x-amz-date", amzDate);
+        headers.putAll(extraHeaders);
+
+        StringBuilder canonicalHeaders = new StringBuilder();
+        headers.forEach((name, value) -> canonicalHeaders.append(name).append(':').append(value.trim()).append('\n'));
+        String signedHeaders = String.join(";", headers.keySet());
+
+        String canonicalRequest = method + "\n" + canonicalUri + "\n" + canonicalQuery + "\n" + canonicalHeaders + "\n"
+                + signedHeaders + "\n" + UNSIGNED_PAYLOAD;
+        String scope = dateStamp + "/" + region + "/s3/aws4_request";
+        String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope + "\n" + sha256Hex(canonicalRequest);
+
+        byte[] signingKey = hmac(hmac(hmac(hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), dateStamp),
+                region), "s3"), "aws4_request");
+        String signature = HexFormat.of().formatHex(hmac(signingKey, stringToSign));
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .header("Authorization", "AWS4-HMAC-SHA256 Credential=" + accessKey + "/" + scope
+                        + ", SignedHeaders=" + signedHeaders + ", Signature=" + signature);
+        headers.forEach((name, value) -> {
+            if (!name.equals("host")) {
+                builder.header(name, value);
+            }
+        });
+        return builder;
+    }
+
+    // Каждый сегмент ключа кодируется по RFC 3986, разделители "/" сохраняются
+    private static String encodePath(String key) {
+        StringBuilder encoded = new StringBuilder();
+        for (String segment : key.split("/", -1)) {
+            if (!encoded.isEmpty()) {
+                encoded.append('/');
+            }
+            encoded.append(encode(segment));
+        }
+        return encoded.toString();
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8)
+                .replace("+", "%20")
+                .replace("*", "%2A")
+                .replace("%7E", "~");
+    }
+
+    private static String sha256Hex(String value) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                    .digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String value) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Не удалось вычислить подпись запроса S3", e);
+        }
+    }
+
+    // Отдает ровно length байт исходного потока и не закрывает его: HttpClient закрывает тело после отправки части
+    private static final class PartInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        PartInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
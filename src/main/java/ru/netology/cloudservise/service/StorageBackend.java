@@ -0,0 +1,53 @@
+package ru.netology.cloudservise.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Хранилище байтов по ключу, на котором построены BlobStore и FileStorageService.
+ * Ключ - путь с разделителем "/", например blobs/ab/cd/<sha256>; он сохраняется в storage_path.
+ * Отсутствующий объект во всех операциях чтения обозначается NoSuchFileException.
+ * Реализация выбирается параметром app.storage.backend.
+ */
+public interface StorageBackend {
+
+    // Записывает содержимое известного размера целиком; существующий объект заменяется
+    void put(String key, InputStream content, long size) throws IOException;
+
+    // Сохраняет локальный файл; после вызова файл source больше не нужен и может быть перенесен
+    default void putFile(String key, Path source) throws IOException {
+        try (InputStream content = Files.newInputStream(source)) {
+            put(key, content, Files.size(source));
+        }
+    }
+
+    InputStream get(String key) throws IOException;
+
+    // Читает length байт, начиная с offset, не передавая остальное содержимое
+    InputStream get(String key, long offset, long length) throws IOException;
+
+    // Возвращает false, если объекта уже не было (если хранилище это сообщает)
+    boolean delete(String key) throws IOException;
+
+    void move(String fromKey, String toKey) throws IOException;
+
+    StorageObject stat(String key) throws IOException;
+
+    default boolean exists(String key) throws IOException {
+        try {
+            stat(key);
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    // Путь на локальном диске для отдачи через sendfile; у удаленных хранилищ его нет
+    default Optional<Path> localPath(String key) {
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,54 @@
+package ru.netology.cloudservise.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Кодек, которым содержимое сжато на диске. Имя кодека совпадает с HTTP Content-Encoding,
+ * поэтому сжатые байты можно отдать клиенту как есть.
+ */
+public enum StorageCodec {
+
+    NONE(null) {
+        @Override
+        public OutputStream encode(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        public InputStream decode(InputStream in) {
+            return in;
+        }
+    },
+
+    GZIP("gzip") {
+        @Override
+        public OutputStream encode(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+
+        @Override
+        public InputStream decode(InputStream in) throws IOException {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String contentEncoding;
+
+    StorageCodec(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    public String contentEncoding() {
+        return contentEncoding;
+    }
+
+    public abstract OutputStream encode(OutputStream out) throws IOException;
+
+    public abstract InputStream decode(InputStream in) throws IOException;
+}
@@ -0,0 +1,35 @@
+package ru.netology.cloudservise.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Раскладка ключей хранилища по подкаталогам из префиксов хэша: при двух уровнях по два символа
+ * blob abcdef... получает ключ blobs/ab/cd/abcdef..., так что в одном каталоге не больше 256 записей
+ * на уровень вместо всех файлов сразу.
+ */
+@Component
+public class StorageLayout {
+
+    private static final int HASH_LENGTH = 64;
+
+    private final int levels;
+    private final int width;
+
+    public StorageLayout(@Value("${app.storage.layout.fanout-levels:2}") int levels,
+                         @Value("${app.storage.layout.fanout-width:2}") int width) {
+        if (levels < 0 || width < 1 || levels * width >= HASH_LENGTH) {
+            throw new IllegalArgumentException("Недопустимая раскладка хранилища: уровней " + levels + ", ширина " + width);
+        }
+        this.levels = levels;
+        this.width = width;
+    }
+
+    public String key(String directory, String contentHash) {
+        StringBuilder key = new StringBuilder(directory);
+        for (int level = 0; level < levels; level++) {
+            key.append('/').append(contentHash, level * width, (level + 1) * width);
+        }
+        return key.append('/').append(contentHash).toString();
+    }
+}
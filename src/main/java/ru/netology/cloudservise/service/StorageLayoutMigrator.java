@@ -0,0 +1,151 @@
+package ru.netology.cloudservise.service;
+
+import ru.netology.cloudservise.entity.Blob;
+import ru.netology.cloudservise.entity.UserFile;
+import ru.netology.cloudservise.repository.BlobRepository;
+import ru.netology.cloudservise.repository.UserFileRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Перенос существующих файлов в раскладку StorageLayout без остановки сервиса.
+ * Ключи blob, записанные как путь вместе с корнем хранилища, заменяются относительными.
+ * Работа идет порциями по диапазонам id, каждая порция - отдельная транзакция, блокирующая только свои строки.
+ * Blob получает новый путь через жесткую ссылку, старый путь удаляется только после фиксации транзакции,
+ * поэтому читатель, успевший получить старый путь, по-прежнему находит файл.
+ * Файлы, загруженные до появления хранилища blob, лежат на локальном диске; они копируются в текущий
+ * StorageBackend и становятся обычными ссылками на blob.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StorageLayoutMigrator {
+
+    private final BlobRepository blobRepository;
+    private final UserFileRepository userFileRepository;
+    private final BlobStore blobStore;
+    private final StorageBackend storageBackend;
+
+    // Переносить blob между каталогами имеет смысл только в локальном хранилище
+    public boolean relayoutSupported() {
+        return storageBackend instanceof LocalStorageBackend;
+    }
+
+    public long maxBlobId() {
+        return blobRepository.findMaxId();
+    }
+
+    public long maxUserFileId() {
+        return userFileRepository.findMaxId();
+    }
+
+    // Переносит blob с id из [fromId, toId), лежащие не на своем месте; возвращает число перенесенных
+    @Transactional
+    public int migrateBlobs(long fromId, long toId) throws IOException {
+        if (!(storageBackend instanceof LocalStorageBackend local)) {
+            return 0;
+        }
+        List<Path> created = new ArrayList<>();
+        List<Path> obsolete = new ArrayList<>();
+        afterCompletion(created, obsolete);
+
+        int migrated = 0;
+        for (Blob blob : blobRepository.lockRange(fromId, toId)) {
+            String targetKey = blobStore.keyFor(blob.getContentHash());
+            if (targetKey.equals(blob.getStoragePath())) {
+                continue;
+            }
+
+            Path current = local.resolve(blob.getStoragePath());
+            Path target = local.resolve(targetKey);
+            if (!sameFile(current, target)) {
+                if (!Files.exists(current)) {
+                    log.warn("Файл blob {} не найден по пути {}, перенос пропущен", blob.getContentHash(), current);
+                    continue;
+                }
+                Files.createDirectories(target.getParent());
+                link(current, target);
+                created.add(target);
+                obsolete.add(current);
+            }
+
+            blob.setStoragePath(targetKey);
+            userFileRepository.updateStoragePathByBlobId(blob.getId(), targetKey);
+            migrated++;
+        }
+        return migrated;
+    }
+
+    // Копирует в хранилище blob файлы старого формата с id из [fromId, toId); возвращает число перенесенных
+    @Transactional
+    public int migrateLegacyFiles(long fromId, long toId) throws IOException {
+        List<Path> obsolete = new ArrayList<>();
+        afterCompletion(List.of(), obsolete);
+
+        for (UserFile userFile : userFileRepository.lockLegacyRange(fromId, toId)) {
+            Path current = Paths.get(userFile.getStoragePath());
+            if (!Files.isReadable(current)) {
+                log.warn("Файл {} (id {}) не найден, перенос пропущен", current, userFile.getId());
+                continue;
+            }
+
+            // Ссылка на blob откатывается вместе с транзакцией, если она не зафиксируется
+            Blob blob;
+            try (InputStream content = Files.newInputStream(current)) {
+                blob = blobStore.store(content);
+            }
+            userFile.setBlob(blob);
+            userFile.setStoragePath(blob.getStoragePath());
+            userFile.setCodec(blob.getCodec());
+            userFile.setContentHash(blob.getContentHash());
+            userFile.setSize(blob.getSize());
+            obsolete.add(current);
+        }
+        return obsolete.size();
+    }
+
+    private static boolean sameFile(Path first, Path second) {
+        return first.toAbsolutePath().normalize().equals(second.toAbsolutePath().normalize());
+    }
+
+    // Жесткая ссылка не копирует данные; если файловая система их не поддерживает, файл копируется
+    private static void link(Path current, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, current);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(current, target);
+        }
+    }
+
+    // После фиксации удаляются старые пути, после отката - созданные ссылки
+    private static void afterCompletion(List<Path> created, List<Path> obsolete) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                deleteQuietly(status == STATUS_COMMITTED ? obsolete : created);
+            }
+        });
+    }
+
+    private static void deleteQuietly(List<Path> paths) {
+        for (Path path : paths) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Не удалось удалить {}: {}", path, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package ru.netology.cloudservise.service;
+
+import java.time.Instant;
+
+/**
+ * Метаданные объекта хранилища: размер байтов в хранилище и время последнего изменения.
+ */
+public record StorageObject(long size, Instant lastModified) {
+}
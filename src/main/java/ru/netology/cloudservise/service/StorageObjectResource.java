@@ -0,0 +1,86 @@
+package ru.netology.cloudservise.service;
+
+import org.springframework.core.io.AbstractResource;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Объект хранилища как Resource. Поток открывается лениво: если до первого чтения вызван skip(),
+ * как это делает Spring при отдаче диапазона, запрашивается только нужная часть объекта.
+ */
+public class StorageObjectResource extends AbstractResource {
+
+    private final StorageBackend backend;
+    private final String key;
+    private final long size;
+
+    public StorageObjectResource(StorageBackend backend, String key, long size) {
+        this.backend = backend;
+        this.key = key;
+        this.size = size;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new RangeOpeningInputStream();
+    }
+
+    @Override
+    public boolean exists() {
+        try {
+            return backend.exists(key);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public long contentLength() {
+        return size;
+    }
+
+    @Override
+    public String getDescription() {
+        return "storage object [" + key + "]";
+    }
+
+    private final class RangeOpeningInputStream extends InputStream {
+
+        private long offset;
+        private InputStream delegate;
+
+        @Override
+        public int read() throws IOException {
+            return open().read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            return open().read(buffer, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (delegate != null) {
+                return delegate.skip(n);
+            }
+            long skipped = Math.max(0, Math.min(n, size - offset));
+            offset += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (delegate != null) {
+                delegate.close();
+            }
+        }
+
+        private InputStream open() throws IOException {
+            if (delegate == null) {
+                delegate = offset == 0 ? backend.get(key) : backend.get(key, offset, size - offset);
+            }
+            return delegate;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package ru.netology.cloudservise.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Сброс записанных данных на диск до фиксации метаданных в БД; режим задает app.storage.durability.mode.
+ * В режиме GROUP запросы на сброс открытых сегментов складываются в очередь, а один поток забирает все
+ * накопившиеся за group-window (не больше group-max-batch) и синхронизирует каждый сегмент один раз:
+ * одновременные загрузки в общий сегмент сбрасываются одним fsync. Отдельные файлы и каталоги (хранилище local
+ * и крупные объекты packed) синхронизируются сразу в вызывающем потоке, как в режиме FILE: у каждой загрузки
+ * свой файл, объединять нечего, а очередь к одному потоку только выстроила бы их fsync друг за другом.
+ * В любом режиме, кроме NONE, вызов возвращается только после того, как данные вызывающего на диске.
+ */
+@Slf4j
+@Component
+public class StorageSync implements MeterBinder {
+
+    private final DurabilityMode mode;
+    private final long groupWindowNanos;
+    private final int groupMaxBatch;
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+    private volatile boolean stopped;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+
+    public StorageSync(@Value("${app.storage.durability.mode:file}") DurabilityMode mode,
+                       @Value("${app.storage.durability.group-window:PT0.002S}") Duration groupWindow,
+                       @Value("${app.storage.durability.group-max-batch:256}") int groupMaxBatch) {
+        this.mode = mode;
+        this.groupWindowNanos = groupWindow.toNanos();
+        this.groupMaxBatch = Math.max(1, groupMaxBatch);
+
+        if (mode == DurabilityMode.GROUP) {
+            // Платформенный поток: fsync блокирует несущий поток, а этот поток живет все время работы приложения
+            flusher = new Thread(this::flushLoop, "storage-sync");
+            flusher.setDaemon(true);
+            flusher.start();
+        } else {
+            flusher = null;
+        }
+    }
+
+    // Без сброса на диск: для тестов и инструментов, которым долговечность записи не нужна
+    public static StorageSync none() {
+        return new StorageSync(DurabilityMode.NONE, Duration.ZERO, 1);
+    }
+
+    public DurabilityMode mode() {
+        return mode;
+    }
+
+    // Открытый файл, в который дописываются данные (сегмент)
+    public void force(FileChannel channel) throws IOException {
+        sync(channel);
+    }
+
+    // Файл после записи или каталог после создания и переименования в нем
+    public void force(Path path) throws IOException {
+        sync(path.toAbsolutePath().normalize());
+    }
+
+    public long requestCount() {
+        return requests.get();
+    }
+
+    public long flushCount() {
+        return flushes.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("storage.sync.requests", requests, AtomicLong::get)
+                .description("Запросы на сброс данных хранилища на диск")
+                .register(registry);
+        FunctionCounter.builder("storage.sync.flushes", flushes, AtomicLong::get)
+                .description("Выполненные fsync; в режиме group для сегментов меньше числа запросов")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        if (flusher == null) {
+            return;
+        }
+        stopped = true;
+        flusher.interrupt();
+        flusher.join();
+    }
+
+    private void sync(Object target) throws IOException {
+        if (mode == DurabilityMode.NONE) {
+            return;
+        }
+        requests.incrementAndGet();
+        if (mode == DurabilityMode.FILE || !(target instanceof FileChannel channel)) {
+            forceNow(target);
+            return;
+        }
+
+        Request request = new Request(channel, new CompletableFuture<>());
+        queue.add(request);
+        // Поток мог остановиться, пока запрос добавлялся; тогда он не будет обработан
+        if (stopped && queue.remove(request)) {
+            throw new IOException("Синхронизация хранилища остановлена");
+        }
+        try {
+            request.done().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Прервано ожидание синхронизации хранилища");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+    }
+
+    private void flushLoop() {
+        List<Request> batch = new ArrayList<>();
+        while (!stopped) {
+            try {
+                batch.add(queue.take());
+                // Запросы, пришедшие во время предыдущего fsync, уже в очереди; окно добирает еще
+                queue.drainTo(batch, groupMaxBatch - batch.size());
+                long deadline = System.nanoTime() + groupWindowNanos;
+                while (batch.size() < groupMaxBatch) {
+                    long remaining = deadline - System.nanoTime();
+                    Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                stopped = true;
+            }
+            flush(batch);
+            batch.clear();
+        }
+
+        queue.drainTo(batch);
+        for (Request request : batch) {
+            request.done().completeExceptionally(new IOException("Синхронизация хранилища остановлена"));
+        }
+    }
+
+    private void flush(List<Request> batch) {
+        // Каналы сравниваются по ссылке
+        Map<FileChannel, List<CompletableFuture<Void>>> targets = new LinkedHashMap<>();
+        for (Request request : batch) {
+            targets.computeIfAbsent(request.target(), key -> new ArrayList<>()).add(request.done());
+        }
+
+        for (Map.Entry<FileChannel, List<CompletableFuture<Void>>> entry : targets.entrySet()) {
+            try {
+                forceNow(entry.getKey());
+                entry.getValue().forEach(done -> done.complete(null));
+            } catch (IOException | RuntimeException e) {
+                entry.getValue().forEach(done -> done.completeExceptionally(e));
+            }
+        }
+    }
+
+    private void forceNow(Object target) throws IOException {
+        flushes.incrementAndGet();
+        if (target instanceof FileChannel channel) {
+            // Для дописываемого файла достаточно fdatasync: длина файла сбрасывается вместе с данными
+            channel.force(false);
+            return;
+        }
+
+        Path path = (Path) target;
+        if (Files.isDirectory(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException e) {
+                // Не все платформы позволяют открыть и синхронизировать каталог (Windows)
+                log.debug("Каталог {} не синхронизирован: {}", path, e.getMessage());
+            }
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private record Request(FileChannel target, CompletableFuture<Void> done) {
+    }
+}
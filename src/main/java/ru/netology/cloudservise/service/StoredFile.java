@@ -0,0 +1,48 @@
+package ru.netology.cloudservise.service;
+
+import org.springframework.core.io.Resource;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Сохраненный файл пользователя: ключ в хранилище, исходный размер, время загрузки, кодек сжатия
+ * и версия содержимого для ETag. Все поля берутся из метаданных, поэтому условный запрос
+ * проверяется без обращения к хранилищу; содержимое не читается в память, а отдается потоком.
+ */
+public record StoredFile(StorageBackend backend, String key, long size, Instant lastModified,
+                         StorageCodec codec, String version) {
+
+    public boolean compressed() {
+        return codec != StorageCodec.NONE;
+    }
+
+    // Сильный ETag представления; у сжатых байтов, отдаваемых как есть, он свой,
+    // чтобы кэш не подставил их вместо исходного содержимого
+    public String eTag(boolean encoded) {
+        return "\"" + version + (encoded ? "-" + codec.contentEncoding() : "") + "\"";
+    }
+
+    // Объект в хранилище (наличие и размер хранимых байтов); нужен, только когда содержимое отдается
+    public StorageObject stat() throws IOException {
+        return backend.stat(key);
+    }
+
+    // Исходное содержимое; сжатый файл распаковывается при чтении
+    public Resource resource() {
+        return compressed()
+                ? new DecodedFileResource(backend, key, codec, size)
+                : new StorageObjectResource(backend, key, size);
+    }
+
+    // Байты в том виде, в каком они лежат в хранилище
+    public Resource storedResource(long storedSize) {
+        return new StorageObjectResource(backend, key, storedSize);
+    }
+
+    // Путь на локальном диске, если хранилище его предоставляет (для sendfile)
+    public Optional<Path> localPath() {
+        return backend.localPath(key);
+    }
+}
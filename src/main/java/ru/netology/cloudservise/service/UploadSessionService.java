@@ -0,0 +1,272 @@
+package ru.netology.cloudservise.service;
+
+import ru.netology.cloudservise.dto.CreateUploadRequest;
+import ru.netology.cloudservise.dto.UploadSessionResponse;
+import ru.netology.cloudservise.entity.UploadSession;
+import ru.netology.cloudservise.entity.UploadStatus;
+import ru.netology.cloudservise.exception.UploadSessionException;
+import ru.netology.cloudservise.repository.UploadSessionRepository;
+import ru.netology.cloudservise.repository.UserRepository;
+import ru.netology.cloudservise.security.AuthenticatedUser;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Возобновляемая загрузка файла частями.
+ * Каждая часть пишется в собственный файл каталога сессии, поэтому части принимаются в любом порядке
+ * и параллельно, а принятой считается только полностью записанная и переименованная часть.
+ * При завершении части читаются подряд одним потоком и сохраняются как обычный файл пользователя.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UploadSessionService {
+
+    private static final String UPLOADS_DIR = ".uploads";
+    private static final String CHUNK_SUFFIX = ".part";
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final UserRepository userRepository;
+    private final FileStorageService fileStorageService;
+
+    @Value("${app.file-storage.path}")
+    public String storagePath;
+
+    @Value("${app.upload.default-chunk-size:8388608}")
+    private long defaultChunkSize = 8L * 1024 * 1024;
+
+    @Value("${app.upload.max-chunk-size:67108864}")
+    private long maxChunkSize = 64L * 1024 * 1024;
+
+    @Value("${app.upload.max-chunks:10000}")
+    private int maxChunks = 10_000;
+
+    @Value("${app.upload.session-ttl:PT24H}")
+    private Duration sessionTtl = Duration.ofHours(24);
+
+    @Value("${app.upload.commit-timeout:PT1H}")
+    private Duration commitTimeout = Duration.ofHours(1);
+
+    public UploadSessionResponse createSession(AuthenticatedUser user, CreateUploadRequest request) throws IOException {
+        long chunkSize = request.chunkSize() != null ? request.chunkSize() : defaultChunkSize;
+        if (chunkSize > maxChunkSize) {
+            throw new UploadSessionException("Размер части превышает максимально допустимый");
+        }
+        // Округление вверх без переполнения при размере, близком к Long.MAX_VALUE
+        long chunkCount = Math.ceilDiv(request.size(), chunkSize);
+        if (chunkCount > maxChunks) {
+            throw new UploadSessionException("Слишком много частей, увеличьте размер части");
+        }
+        if (fileStorageService.fileExists(user, request.filename())) {
+            throw new UploadSessionException("Файл уже существует");
+        }
+
+        UploadSession session = new UploadSession();
+        session.setUser(userRepository.getReferenceById(user.id()));
+        session.setFilename(request.filename());
+        session.setSize(request.size());
+        session.setChunkSize(chunkSize);
+        session.setChunkCount((int) chunkCount);
+        session.setStatus(UploadStatus.OPEN);
+        session.setExpiresAt(LocalDateTime.now().plus(sessionTtl));
+        session = uploadSessionRepository.save(session);
+
+        Files.createDirectories(sessionDir(session.getId()));
+        log.info("Создана сессия загрузки {} для файла {} пользователя {}", session.getId(), request.filename(), user.login());
+        return toResponse(session, List.of());
+    }
+
+    public UploadSessionResponse getSession(AuthenticatedUser user, Long uploadId) throws IOException {
+        UploadSession session = findOpenSession(user, uploadId);
+        return toResponse(session, receivedChunks(session));
+    }
+
+    // Часть копируется из тела запроса во временный файл и атомарно переименовывается;
+    // повторная отправка той же части просто заменяет ее
+    public void writeChunk(AuthenticatedUser user, Long uploadId, int index, InputStream content) throws IOException {
+        UploadSession session = findOpenSession(user, uploadId);
+        if (index < 0 || index >= session.getChunkCount()) {
+            throw new UploadSessionException("Неверный номер части");
+        }
+
+        long expectedSize = expectedChunkSize(session, index);
+        Path dir = sessionDir(uploadId);
+        Path temp = Files.createTempFile(dir, index + "-", ".tmp");
+        try {
+            long written = copyLimited(content, temp, expectedSize);
+            if (written != expectedSize || content.read() != -1) {
+                throw new UploadSessionException("Неверный размер части");
+            }
+            Files.move(temp, chunkPath(dir, index), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public void commit(AuthenticatedUser user, Long uploadId) throws IOException {
+        UploadSession session = findOpenSession(user, uploadId);
+        if (receivedChunks(session).size() != session.getChunkCount()) {
+            throw new UploadSessionException("Получены не все части файла");
+        }
+        if (uploadSessionRepository.updateStatus(uploadId, UploadStatus.OPEN, UploadStatus.COMMITTING, LocalDateTime.now()) == 0) {
+            throw new UploadSessionException("Сессия загрузки уже завершается");
+        }
+
+        Path dir = sessionDir(uploadId);
+        try {
+            if (fileStorageService.fileExists(user, session.getFilename())) {
+                throw new UploadSessionException("Файл уже существует");
+            }
+            try (InputStream content = chunksInOrder(session, dir)) {
+                fileStorageService.storeFile(user, session.getFilename(), content);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Части остаются на месте, клиент может повторить завершение
+            uploadSessionRepository.updateStatus(uploadId, UploadStatus.COMMITTING, UploadStatus.OPEN);
+            throw e;
+        }
+
+        // Если строку удалить не удалось, сессия останется в COMMITTING, и очистка вернет ее в OPEN по commit-timeout
+        uploadSessionRepository.deleteByIdAndStatus(uploadId, UploadStatus.COMMITTING);
+        FileSystemUtils.deleteRecursively(dir);
+        log.info("Сессия загрузки {} завершена: файл {} пользователя {}", uploadId, session.getFilename(), user.login());
+    }
+
+    public void abort(AuthenticatedUser user, Long uploadId) throws IOException {
+        findOpenSession(user, uploadId);
+        // Части удаляются, только если сессию не успели начать завершать
+        if (uploadSessionRepository.deleteByIdAndStatus(uploadId, UploadStatus.OPEN) == 0) {
+            throw new UploadSessionException("Сессия загрузки уже завершается");
+        }
+        FileSystemUtils.deleteRecursively(sessionDir(uploadId));
+        log.info("Сессия загрузки {} отменена пользователем {}", uploadId, user.login());
+    }
+
+    // Удаляет брошенные сессии порциями по 100 вместе с принятыми частями. Завершаемые сессии не трогаются:
+    // сборка файла могла начаться до истечения срока. Строка удаляется условно до каталога, поэтому
+    // завершение, начатое одновременно с очисткой, либо не начнется, либо сохранит части.
+    // Завершение, оборвавшееся дольше commit-timeout назад (падение процесса, ошибка удаления строки),
+    // сначала возвращается в OPEN: клиент может повторить его, а просроченная сессия удаляется в этом же проходе
+    public int cleanupExpiredSessions() {
+        int deletedCount = 0;
+        try {
+            int reopened = uploadSessionRepository.updateStaleStatus(UploadStatus.COMMITTING, UploadStatus.OPEN,
+                    LocalDateTime.now().minus(commitTimeout));
+            if (reopened > 0) {
+                log.warn("Снова открыто {} сессий загрузки с оборвавшимся завершением", reopened);
+            }
+
+            List<UploadSession> expired;
+            do {
+                expired = uploadSessionRepository.findTop100ByStatusAndExpiresAtBefore(UploadStatus.OPEN, LocalDateTime.now());
+                for (UploadSession session : expired) {
+                    if (uploadSessionRepository.deleteByIdAndStatus(session.getId(), UploadStatus.OPEN) == 0) {
+                        continue;
+                    }
+                    FileSystemUtils.deleteRecursively(sessionDir(session.getId()));
+                    deletedCount++;
+                }
+            } while (expired.size() == 100);
+        } catch (Exception e) {
+            log.error("Ошибка при очистке брошенных сессий загрузки", e);
+        }
+        return deletedCount;
+    }
+
+    private UploadSession findOpenSession(AuthenticatedUser user, Long uploadId) {
+        return uploadSessionRepository.findByIdAndUserId(uploadId, user.id())
+                .filter(session -> session.getStatus() == UploadStatus.OPEN)
+                .filter(session -> session.getExpiresAt().isAfter(LocalDateTime.now()))
+                .orElseThrow(() -> new UploadSessionException("Сессия загрузки не найдена"));
+    }
+
+    private List<Integer> receivedChunks(UploadSession session) throws IOException {
+        Path dir = sessionDir(session.getId());
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+
+        List<Integer> received = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(CHUNK_SUFFIX))
+                    .map(name -> Integer.parseInt(name.substring(0, name.length() - CHUNK_SUFFIX.length())))
+                    .sorted()
+                    .forEach(received::add);
+        }
+        return received;
+    }
+
+    // Части читаются подряд как один поток, файлы частей открываются по очереди
+    private InputStream chunksInOrder(UploadSession session, Path dir) {
+        Iterator<Integer> indexes = IntStream.range(0, session.getChunkCount()).iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return indexes.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return Files.newInputStream(chunkPath(dir, indexes.next()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    private long copyLimited(InputStream content, Path target, long limit) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(content);
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            long position = 0;
+            long transferred;
+            while (position < limit && (transferred = channel.transferFrom(source, position, limit - position)) > 0) {
+                position += transferred;
+            }
+            return position;
+        }
+    }
+
+    private long expectedChunkSize(UploadSession session, int index) {
+        long offset = (long) index * session.getChunkSize();
+        return Math.min(session.getChunkSize(), session.getSize() - offset);
+    }
+
+    private Path sessionDir(Long uploadId) {
+        return Paths.get(storagePath, UPLOADS_DIR, uploadId.toString());
+    }
+
+    private static Path chunkPath(Path dir, int index) {
+        return dir.resolve(index + CHUNK_SUFFIX);
+    }
+
+    private static UploadSessionResponse toResponse(UploadSession session, List<Integer> receivedChunks) {
+        return new UploadSessionResponse(session.getId(), session.getFilename(), session.getSize(),
+                session.getChunkSize(), session.getChunkCount(), receivedChunks);
+    }
+}
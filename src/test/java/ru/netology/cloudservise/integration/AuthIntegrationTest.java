@@ -23,6 +23,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
         "spring.jpa.hibernate.ddl-auto=create-drop",
         "spring.sql.init.mode=never",
         "app.file-storage.path=./test-uploads",
+        "app.token.secret=integration-test-secret",
         "app.token.expiration-hours=1"
 })
 class AuthIntegrationTest {
@@ -14,9 +14,28 @@ import org.springframework.test.web.servlet.MvcResult;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jayway.jsonpath.JsonPath;
 import ru.netology.cloudservise.dto.LoginRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.netology.cloudservise.entity.User;
+import ru.netology.cloudservise.entity.UserFile;
+import ru.netology.cloudservise.repository.UserFileRepository;
 import ru.netology.cloudservise.repository.UserRepository;
-
+import ru.netology.cloudservise.security.AuthenticatedUser;
+import ru.netology.cloudservise.service.FileStorageService;
+import ru.netology.cloudservise.service.StorageLayoutMigrator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -25,7 +44,8 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @TestPropertySource(properties = {
         "spring.jpa.hibernate.ddl-auto=create-drop",
         "spring.sql.init.mode=never",
-        "app.file-storage.path=./test-uploads"
+        "app.file-storage.path=./test-uploads",
+        "app.token.secret=integration-test-secret"
 })
 class FileStorageIntegrationTest {
 
@@ -41,10 +61,23 @@ class FileStorageIntegrationTest {
     @Autowired
     private PasswordEncoder passwordEncoder;
 
+    @Autowired
+    private UserFileRepository userFileRepository;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private StorageLayoutMigrator migrator;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     private String authToken;
 
     @BeforeEach
     void setUp() throws Exception {
+        userFileRepository.deleteAll();
         userRepository.deleteAll();
 
         // Создаем тестового пользователя
@@ -91,4 +124,55 @@ class FileStorageIntegrationTest {
                 .andExpect(status().isOk())
                 .andExpect(content().bytes("file content".getBytes()));
     }
-}
\ No newline at end of file
+
+    @Test
+    void renameInFlight_MigratorSkipsLockedRowAndMigratesRenamedFileAfterwards() throws Exception {
+
+        User user = userRepository.findByLogin("testuser").orElseThrow();
+        AuthenticatedUser principal = new AuthenticatedUser(user.getId(), user.getLogin());
+        Path legacy = Files.writeString(Files.createDirectories(Paths.get("./test-uploads/legacy").toAbsolutePath())
+                .resolve("old.txt"), "legacy content");
+        UserFile userFile = new UserFile();
+        userFile.setUser(user);
+        userFile.setFilename("old.txt");
+        userFile.setSize(14L);
+        userFile.setStoragePath(legacy.toString());
+        long id = userFileRepository.save(userFile).getId();
+
+        // Переименование держит блокировку строки, пока перенос не отработает
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        CountDownLatch renamed = new CountDownLatch(1);
+        CountDownLatch migrationAttempted = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> rename = executor.submit(() -> transaction.executeWithoutResult(status -> {
+            try {
+                fileStorageService.renameFile(principal, "old.txt", "new.txt");
+                renamed.countDown();
+                migrationAttempted.await(10, TimeUnit.SECONDS);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        assertTrue(renamed.await(10, TimeUnit.SECONDS));
+
+
+        int migratedDuringRename = migrator.migrateLegacyFiles(id, id + 1);
+        migrationAttempted.countDown();
+        rename.get(10, TimeUnit.SECONDS);
+        executor.shutdown();
+        int migratedAfterRename = migrator.migrateLegacyFiles(id, id + 1);
+
+
+        assertEquals(0, migratedDuringRename);
+        assertEquals(1, migratedAfterRename);
+        UserFile migrated = userFileRepository.findByUserIdAndFilename(user.getId(), "new.txt").orElseThrow();
+        assertNotNull(migrated.getContentHash());
+        mockMvc.perform(get("/file")
+                        .param("filename", "new.txt")
+                        .header("auth-token", authToken))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes("legacy content".getBytes()));
+    }
+}
@@ -11,8 +11,13 @@ import org.springframework.test.web.servlet.MockMvc;
 import ru.netology.cloudservise.config.TestSecurityConfig;
 import ru.netology.cloudservise.dto.LoginRequest;
 import ru.netology.cloudservise.entity.User;
+import ru.netology.cloudservise.exception.ServiceOverloadedException;
+import ru.netology.cloudservise.exception.TooManyLoginAttemptsException;
+import ru.netology.cloudservise.security.LoginAttemptLimiter;
 import ru.netology.cloudservise.security.SecureTokenService;
 import java.util.Optional;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -27,6 +32,9 @@ class AuthControllerTest {
     @MockBean
     private SecureTokenService tokenService;
 
+    @MockBean
+    private LoginAttemptLimiter loginAttemptLimiter;
+
     @Autowired
     private ObjectMapper objectMapper;
 
@@ -59,4 +67,38 @@ class AuthControllerTest {
                 .andExpect(status().isBadRequest())
                 .andExpect(jsonPath("$.message").value("Неверные учетные данные"));
     }
+
+    @Test
+    void login_HashingOverloaded_ReturnsServiceUnavailable() throws Exception {
+        LoginRequest request = new LoginRequest("user1", "password");
+
+        when(tokenService.authenticate("user1", "password"))
+                .thenThrow(new ServiceOverloadedException("Очередь хэширования паролей переполнена", 2));
+
+        mockMvc.perform(post("/login")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "2"));
+
+        verify(tokenService, never()).createToken(any());
+        verify(loginAttemptLimiter).release(eq("user1"), any());
+        verify(loginAttemptLimiter, never()).recordFailure();
+    }
+
+    @Test
+    void login_TooManyFailures_RejectedBeforeAuthentication() throws Exception {
+        LoginRequest request = new LoginRequest("user1", "password");
+
+        doThrow(new TooManyLoginAttemptsException("Слишком много неудачных попыток входа для логина", 60))
+                .when(loginAttemptLimiter).reserve(eq("user1"), any());
+
+        mockMvc.perform(post("/login")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "60"));
+
+        verify(tokenService, never()).authenticate(any(), any());
+    }
 }
\ No newline at end of file
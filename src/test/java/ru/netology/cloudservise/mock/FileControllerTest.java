@@ -0,0 +1,469 @@
+package ru.netology.cloudservise.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.CannotCreateTransactionException;
+import ru.netology.cloudservise.config.TestSecurityConfig;
+import ru.netology.cloudservise.dto.FileInfoResponse;
+import ru.netology.cloudservise.repository.AuthTokenRepository;
+import ru.netology.cloudservise.repository.RevokedTokenRepository;
+import ru.netology.cloudservise.repository.UserRepository;
+import ru.netology.cloudservise.security.AuthenticatedUser;
+import ru.netology.cloudservise.security.LoginAttemptLimiter;
+import ru.netology.cloudservise.security.OffHeapSessionTable;
+import ru.netology.cloudservise.security.PasswordHashingExecutor;
+import ru.netology.cloudservise.security.SecureTokenService;
+import ru.netology.cloudservise.security.SignedTokenCodec;
+import ru.netology.cloudservise.security.TokenAuthenticationFilter;
+import ru.netology.cloudservise.security.TokenCache;
+import ru.netology.cloudservise.security.TokenDigester;
+import ru.netology.cloudservise.security.TokenRevocationList;
+import ru.netology.cloudservise.service.FileListCursor;
+import ru.netology.cloudservise.service.FileListPage;
+import ru.netology.cloudservise.service.FileStorageService;
+import ru.netology.cloudservise.service.HotFileCache;
+import ru.netology.cloudservise.service.LocalStorageBackend;
+import ru.netology.cloudservise.service.StorageCodec;
+import ru.netology.cloudservise.service.StorageSync;
+import ru.netology.cloudservise.service.StoredFile;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.authentication;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(FileController.class)
+@Import(TestSecurityConfig.class)
+class FileControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private SecureTokenService tokenService;
+
+    @MockBean
+    private FileStorageService fileStorageService;
+
+    @TempDir
+    Path storageDir;
+
+    private final AuthenticatedUser user = new AuthenticatedUser(1L, "user1");
+
+
+    @Test
+    void getFileList_AuthenticatedUser_UsesPrincipalWithoutRevalidation() throws Exception {
+        AuthenticatedUser user = new AuthenticatedUser(1L, "user1");
+
+        when(fileStorageService.getUserFiles(user, 3, null))
+                .thenReturn(new FileListPage(List.of(new FileInfoResponse("file1.txt", 100L)), "next"));
+
+        mockMvc.perform(get("/list")
+                        .param("limit", "3")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"0-3\""))
+                .andExpect(header().string("X-Next-Cursor", "next"))
+                .andExpect(jsonPath("$[0].filename").value("file1.txt"));
+
+        verify(fileStorageService).getUserFiles(user, 3, null);
+        verify(tokenService, never()).validateToken(anyString(), any());
+    }
+
+    @Test
+    void downloadFile_StreamsResourceWithContentLength() throws Exception {
+        Path path = Files.writeString(storageDir.resolve("file1.txt"), "file content");
+        when(fileStorageService.loadFile(user, "file1.txt")).thenReturn(storedFile(path));
+
+        mockMvc.perform(get("/file")
+                        .param("filename", "file1.txt")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isOk())
+                .andExpect(header().longValue("Content-Length", 12L))
+                .andExpect(content().string("file content"));
+    }
+
+    @Test
+    void downloadFile_SendfileSupported_DelegatesToContainer() throws Exception {
+        Path path = Files.writeString(storageDir.resolve("file1.txt"), "file content");
+        when(fileStorageService.loadFile(user, "file1.txt")).thenReturn(storedFile(path));
+
+        mockMvc.perform(get("/file")
+                        .param("filename", "file1.txt")
+                        .requestAttr("org.apache.tomcat.sendfile.support", Boolean.TRUE)
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isOk())
+                .andExpect(header().longValue("Content-Length", 12L))
+                .andExpect(request().attribute("org.apache.tomcat.sendfile.filename", path.toAbsolutePath().toString()))
+                .andExpect(request().attribute("org.apache.tomcat.sendfile.end", 12L))
+                .andExpect(content().bytes(new byte[0]));
+    }
+
+    @Test
+    void downloadFile_SmallFileWithSendfileSupported_ServedFromHotCacheOnRepeat() throws Exception {
+        Path path = Files.writeString(storageDir.resolve("file1.txt"), "file content");
+        HotFileCache cache = new HotFileCache(new LocalStorageBackend(storageDir.toString(), StorageSync.none()),
+                true, 1024 * 1024, 64 * 1024);
+        when(fileStorageService.loadFile(user, "file1.txt")).thenReturn(new StoredFile(cache.reader(), path.toString(),
+                12L, Files.getLastModifiedTime(path).toInstant(), StorageCodec.NONE, "v1"));
+
+        try {
+            for (int attempt = 0; attempt < 2; attempt++) {
+                mockMvc.perform(get("/file")
+                                .param("filename", "file1.txt")
+                                .requestAttr("org.apache.tomcat.sendfile.support", Boolean.TRUE)
+                                .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                        .andExpect(status().isOk())
+                        .andExpect(request().attribute("org.apache.tomcat.sendfile.filename", nullValue()))
+                        .andExpect(content().string("file content"));
+                // Второе скачивание не может обратиться к диску
+                Files.deleteIfExists(path);
+            }
+
+            assertEquals(12L, cache.cachedBytes());
+            assertTrue(cache.hitRatio() > 0);
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    void downloadFile_SingleRange_ReturnsPartialContent() throws Exception {
+        Path path = Files.writeString(storageDir.resolve("file1.txt"), "file content");
+        when(fileStorageService.loadFile(user, "file1.txt"))
+                .thenReturn(storedFile(path));
+
+        mockMvc.perform(get("/file")
+                        .param("filename", "file1.txt")
+                        .header("Range", "bytes=5-")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Accept-Ranges", "bytes"))
+                .andExpect(header().string("Content-Range", "bytes 5-11/12"))
+                .andExpect(content().string("content"));
+    }
+
+    @Test
+    void downloadFile_MultipleRanges_ReturnsMultipartByteranges() throws Exception {
+        Path path = Files.writeString(storageDir.resolve("file1.txt"), "file content");
+        when(fileStorageService.loadFile(user, "file1.txt"))
+                .thenReturn(storedFile(path));
+
+        String body = mockMvc.perform(get("/file")
+                        .param("filename", "file1.txt")
+                        .header("Range", "bytes=0-3,5-11")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Content-Type", startsWith("multipart/byteranges")))
+                .andReturn().getResponse().getContentAsString();
+
+        assertTrue(body.contains("Content-Range: bytes 0-3/12"));
+        assertTrue(body.contains("Content-Range: bytes 5-11/12"));
+    }
+
+    @Test
+    void downloadFile_SingleRangeWithSendfile_PassesOffsetsToContainer() throws Exception {
+        Path path = Files.writeString(storageDir.resolve("file1.txt"), "file content");
+        when(fileStorageService.loadFile(user, "file1.txt"))
+                .thenReturn(storedFile(path));
+
+        mockMvc.perform(get("/file")
+                        .param("filename", "file1.txt")
+                        .header("Range", "bytes=-4")
+                        .requestAttr("org.apache.tomcat.sendfile.support", Boolean.TRUE)
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Content-Range", "bytes 8-11/12"))
+                .andExpect(header().longValue("Content-Length", 4L))
+                .andExpect(request().attribute("org.apache.tomcat.sendfile.start", 8L))
+                .andExpect(request().attribute("org.apache.tomcat.sendfile.end", 12L));
+    }
+
+    @Test
+    void downloadFile_UnsatisfiableRange_Returns416() throws Exception {
+        Path path = Files.writeString(storageDir.resolve("file1.txt"), "file content");
+        when(fileStorageService.loadFile(user, "file1.txt"))
+                .thenReturn(storedFile(path));
+
+        mockMvc.perform(get("/file")
+                        .param("filename", "file1.txt")
+                        .header("Range", "bytes=100-200")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string("Content-Range", "bytes */12"));
+    }
+
+    @Test
+    void downloadFile_IfRangeStale_ReturnsFullContent() throws Exception {
+        Path path = Files.writeString(storageDir.resolve("file1.txt"), "file content");
+        when(fileStorageService.loadFile(user, "file1.txt"))
+                .thenReturn(storedFile(path));
+
+        mockMvc.perform(get("/file")
+                        .param("filename", "file1.txt")
+                        .header("Range", "bytes=5-")
+                        .header("If-Range", "Wed, 21 Oct 2015 07:28:00 GMT")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isOk())
+                .andExpect(header().longValue("Content-Length", 12L))
+                .andExpect(content().string("file content"));
+    }
+
+    @Test
+    void downloadFile_CompressedAndClientAcceptsGzip_PassesEncodedBytes() throws Exception {
+        StoredFile storedFile = gzipFile("file content");
+
+        mockMvc.perform(get("/file")
+                        .param("filename", "file1.txt")
+                        .header("Accept-Encoding", "br, gzip;q=0.8")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andExpect(header().stringValues("Vary", hasItem("Accept-Encoding")))
+                .andExpect(header().string("ETag", "\"v1-gzip\""))
+                .andExpect(header().longValue("Content-Length", storedFile.stat().size()))
+                .andExpect(content().bytes(Files.readAllBytes(storedFile.localPath().orElseThrow())));
+    }
+
+    @Test
+    void downloadFile_CompressedWithoutAcceptEncoding_Decodes() throws Exception {
+        gzipFile("file content");
+
+        mockMvc.perform(get("/file")
+                        .param("filename", "file1.txt")
+                        .header("Accept-Encoding", "gzip;q=0")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("Content-Encoding"))
+                .andExpect(header().string("Content-Length", "12"))
+                .andExpect(content().string("file content"));
+    }
+
+    @Test
+    void downloadFile_CompressedWithRange_SlicesDecodedContent() throws Exception {
+        gzipFile("file content");
+
+        mockMvc.perform(get("/file")
+                        .param("filename", "file1.txt")
+                        .header("Accept-Encoding", "gzip")
+                        .header("Range", "bytes=5-")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().doesNotExist("Content-Encoding"))
+                .andExpect(header().string("Content-Range", "bytes 5-11/12"))
+                .andExpect(content().string("content"));
+    }
+
+    @Test
+    void downloadFile_IfNoneMatch_ReturnsNotModifiedWithoutTouchingStorage() throws Exception {
+        // Объекта в хранилище нет: 304 должен отдаваться только по метаданным
+        when(fileStorageService.loadFile(user, "file1.txt")).thenReturn(new StoredFile(
+                new LocalStorageBackend(storageDir.toString(), StorageSync.none()), storageDir.resolve("missing").toString(),
+                12L, Instant.parse("2025-01-01T00:00:00Z"), StorageCodec.NONE, "v1"));
+
+        mockMvc.perform(get("/file")
+                        .param("filename", "file1.txt")
+                        .header("If-None-Match", "\"v0\", W/\"v1\"")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "\"v1\""))
+                .andExpect(content().bytes(new byte[0]));
+    }
+
+    @Test
+    void downloadFile_IfModifiedSince_ReturnsNotModifiedUnlessChanged() throws Exception {
+        Path path = Files.writeString(storageDir.resolve("file1.txt"), "file content");
+        when(fileStorageService.loadFile(user, "file1.txt")).thenReturn(new StoredFile(
+                new LocalStorageBackend(storageDir.toString(), StorageSync.none()), path.toString(),
+                12L, Instant.parse("2025-01-01T00:00:00Z"), StorageCodec.NONE, "v1"));
+
+        mockMvc.perform(get("/file")
+                        .param("filename", "file1.txt")
+                        .header("If-Modified-Since", "Wed, 01 Jan 2025 00:00:00 GMT")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isNotModified());
+
+        // Несовпавший ETag важнее даты
+        mockMvc.perform(get("/file")
+                        .param("filename", "file1.txt")
+                        .header("If-None-Match", "\"v0\"")
+                        .header("If-Modified-Since", "Wed, 01 Jan 2025 00:00:00 GMT")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isOk())
+                .andExpect(content().string("file content"));
+    }
+
+    @Test
+    void downloadFile_IfRangeWithCurrentETag_ReturnsPartialContent() throws Exception {
+        Path path = Files.writeString(storageDir.resolve("file1.txt"), "file content");
+        when(fileStorageService.loadFile(user, "file1.txt")).thenReturn(storedFile(path));
+
+        mockMvc.perform(get("/file")
+                        .param("filename", "file1.txt")
+                        .header("Range", "bytes=5-")
+                        .header("If-Range", "\"v1\"")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().string("content"));
+
+        mockMvc.perform(get("/file")
+                        .param("filename", "file1.txt")
+                        .header("Range", "bytes=5-")
+                        .header("If-Range", "\"v0\"")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isOk())
+                .andExpect(content().string("file content"));
+    }
+
+    @Test
+    void getFileList_IfNoneMatchCurrentVersion_ReturnsNotModifiedWithoutQueryingFiles() throws Exception {
+        when(fileStorageService.listingVersion(user)).thenReturn(7L);
+
+        mockMvc.perform(get("/list")
+                        .param("limit", "3")
+                        .header("If-None-Match", "\"7-3\"")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "\"7-3\""));
+
+        verify(fileStorageService, never()).getUserFiles(any(), any(), any());
+    }
+
+    @Test
+    void getFileList_MalformedCursor_Returns400EvenIfETagMatches() throws Exception {
+        when(fileStorageService.listingVersion(user)).thenReturn(7L);
+
+        mockMvc.perform(get("/list")
+                        .param("limit", "3")
+                        .param("cursor", "bad")
+                        .header("If-None-Match", "\"7-3-bad\"")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isBadRequest());
+
+        verify(fileStorageService, never()).getUserFiles(any(), any(), any());
+    }
+
+    @Test
+    void getFileList_CursorWithQuote_Returns400() throws Exception {
+
+        mockMvc.perform(get("/list")
+                        .param("limit", "3")
+                        .param("cursor", "a\"b")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isBadRequest());
+
+        verify(fileStorageService, never()).getUserFiles(any(), any(), any());
+    }
+
+    @Test
+    void getFileList_WithCursor_ETagUsesReencodedCursor() throws Exception {
+        FileListCursor cursor = new FileListCursor(LocalDateTime.of(2025, 1, 1, 12, 0), 9L);
+        when(fileStorageService.listingVersion(user)).thenReturn(7L);
+        when(fileStorageService.getUserFiles(user, 3, cursor)).thenReturn(new FileListPage(List.of(), null));
+
+        mockMvc.perform(get("/list")
+                        .param("limit", "3")
+                        .param("cursor", cursor.encode())
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"7-3-" + cursor.encode() + "\""));
+    }
+
+    @Test
+    void getFileList_ConnectionPoolExhausted_Returns503() throws Exception {
+        when(fileStorageService.getUserFiles(user, 3, null)).thenThrow(poolExhausted());
+
+        mockMvc.perform(get("/list")
+                        .param("limit", "3")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"))
+                .andExpect(jsonPath("$.id").value(503));
+    }
+
+    @Test
+    void anyRequest_ConnectionPoolExhaustedDuringTokenCheck_Returns503() throws Exception {
+        // Настоящие сервис токенов и фильтр: исключение идет из репозитория, а не из заглушки validateToken
+        AuthTokenRepository authTokenRepository = mock(AuthTokenRepository.class);
+        when(authTokenRepository.findByTokenHash(anyString())).thenThrow(poolExhausted());
+        TokenDigester tokenDigester = new TokenDigester("test-secret");
+        SecureTokenService realTokenService = new SecureTokenService(authTokenRepository, mock(UserRepository.class),
+                new PasswordHashingExecutor(new BCryptPasswordEncoder(4), new SimpleMeterRegistry(), 1, 1, 10, 1),
+                tokenDigester, new OffHeapSessionTable(false, 16, Duration.ofMinutes(5)),
+                new TokenCache(16, Duration.ofMinutes(5)), new SignedTokenCodec(tokenDigester),
+                new TokenRevocationList(mock(RevokedTokenRepository.class), 16),
+                new LoginAttemptLimiter(new SimpleMeterRegistry(), 5, 20, Duration.ofMinutes(15), 16));
+        MockMvc filtered = MockMvcBuilders.standaloneSetup(new FileController(fileStorageService))
+                .addFilters(new TokenAuthenticationFilter(realTokenService, new ObjectMapper()))
+                .build();
+
+        filtered.perform(get("/list")
+                        .param("limit", "3")
+                        .header("auth-token", "token"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"));
+
+        verify(fileStorageService, never()).getUserFiles(any(), any(), any());
+    }
+
+    @Test
+    void instantUpload_KnownContent_CreatesFileWithoutBody() throws Exception {
+        String hash = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+        when(fileStorageService.storeExisting(user, "copy.txt", hash, 5L)).thenReturn(true);
+
+        mockMvc.perform(post("/file/instant")
+                        .param("filename", "copy.txt")
+                        .contentType("application/json")
+                        .content("{\"hash\":\"" + hash + "\",\"size\":5}")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(user, null, List.of()))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.uploaded").value(true));
+    }
+
+    private StoredFile gzipFile(String content) throws Exception {
+        Path path = storageDir.resolve("file1.txt.gz");
+        try (OutputStream out = StorageCodec.GZIP.encode(Files.newOutputStream(path))) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        StoredFile storedFile = new StoredFile(new LocalStorageBackend(storageDir.toString(), StorageSync.none()), path.toString(),
+                content.length(), Files.getLastModifiedTime(path).toInstant(), StorageCodec.GZIP, "v1");
+        when(fileStorageService.loadFile(user, "file1.txt")).thenReturn(storedFile);
+        return storedFile;
+    }
+
+    private StoredFile storedFile(Path path) throws Exception {
+        return new StoredFile(new LocalStorageBackend(storageDir.toString(), StorageSync.none()), path.toString(), Files.size(path),
+                Files.getLastModifiedTime(path).toInstant(), StorageCodec.NONE, "v1");
+    }
+
+    private static CannotCreateTransactionException poolExhausted() {
+        return new CannotCreateTransactionException("Could not open JPA EntityManager for transaction",
+                new SQLTransientConnectionException("HikariPool-1 - Connection is not available, request timed out after 30000ms."));
+    }
+}
@@ -0,0 +1,244 @@
+package ru.netology.cloudservise.unit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import ru.netology.cloudservise.entity.Blob;
+import ru.netology.cloudservise.repository.BlobRepository;
+import ru.netology.cloudservise.service.BlobStore;
+import ru.netology.cloudservise.service.CompressionPolicy;
+import ru.netology.cloudservise.service.HotFileCache;
+import ru.netology.cloudservise.service.LocalStorageBackend;
+import ru.netology.cloudservise.service.StorageCodec;
+import ru.netology.cloudservise.service.StorageLayout;
+import ru.netology.cloudservise.service.StorageSync;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BlobStoreTest {
+
+    // SHA-256 от "hello"
+    private static final String HELLO_HASH = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+    @Mock
+    private BlobRepository blobRepository;
+
+    @TempDir
+    Path storageDir;
+
+    private SimpleMeterRegistry meterRegistry;
+    private BlobStore blobStore;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        LocalStorageBackend backend = new LocalStorageBackend(storageDir.toString(), StorageSync.none());
+        blobStore = new BlobStore(blobRepository, new CompressionPolicy(true, 1024, 0.1, true),
+                new StorageLayout(2, 2), backend, new HotFileCache(backend, false, 0, 0), meterRegistry);
+        blobStore.storagePath = storageDir.toString();
+    }
+
+    @Test
+    void store_NewContent_WritesBlobUnderHash() throws Exception {
+
+        when(blobRepository.incrementRefCount(HELLO_HASH)).thenReturn(0);
+        when(blobRepository.saveAndFlush(any(Blob.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+
+        Blob blob = blobStore.store(stream("hello"));
+
+
+        Path path = storageDir.resolve("blobs/2c/f2").resolve(HELLO_HASH);
+        assertEquals(HELLO_HASH, blob.getContentHash());
+        assertEquals(5L, blob.getSize());
+        assertEquals(1, blob.getRefCount());
+        assertEquals("blobs/2c/f2/" + HELLO_HASH, blob.getStoragePath());
+        assertEquals("hello", Files.readString(path));
+        assertEquals(StorageCodec.NONE, blob.getCodec());
+        assertTempDirEmpty();
+    }
+
+    @Test
+    void store_CompressibleText_StoresGzipAndKeepsLogicalSize() throws Exception {
+
+        String content = "строка журнала, которая хорошо сжимается\n".repeat(200);
+        when(blobRepository.incrementRefCount(anyString())).thenReturn(0);
+        when(blobRepository.saveAndFlush(any(Blob.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+
+        Blob blob = blobStore.store(stream(content));
+
+
+        Path path = storageDir.resolve(blob.getStoragePath());
+        assertEquals(StorageCodec.GZIP, blob.getCodec());
+        assertEquals(content.getBytes(StandardCharsets.UTF_8).length, blob.getSize());
+        assertTrue(Files.size(path) < blob.getSize());
+        try (InputStream in = StorageCodec.GZIP.decode(Files.newInputStream(path))) {
+            assertEquals(content, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertTempDirEmpty();
+    }
+
+    @Test
+    void store_DuplicateContent_AddsReferenceWithoutSecondCopy() throws Exception {
+
+        Path path = Files.createDirectories(storageDir.resolve("blobs")).resolve(HELLO_HASH);
+        Files.writeString(path, "hello");
+        Blob existing = blob(7L, path);
+        when(blobRepository.existsByContentHash(HELLO_HASH)).thenReturn(true);
+        when(blobRepository.incrementRefCount(HELLO_HASH)).thenReturn(1);
+        when(blobRepository.findByContentHash(HELLO_HASH)).thenReturn(Optional.of(existing));
+
+
+        Blob blob = blobStore.store(stream("hello"));
+
+
+        assertSame(existing, blob);
+        verify(blobRepository, never()).saveAndFlush(any());
+        assertFalse(Files.exists(storageDir.resolve("blobs/2c/f2").resolve(HELLO_HASH)));
+        assertTempDirEmpty();
+        assertEquals(1.0, meterRegistry.get("storage.blobs.deduplicated").counter().count());
+    }
+
+    @Test
+    void store_ConcurrentInsertOfSameContent_PropagatesToCallerTransaction() throws Exception {
+
+        when(blobRepository.incrementRefCount(HELLO_HASH)).thenReturn(0);
+        when(blobRepository.saveAndFlush(any(Blob.class))).thenThrow(new DataIntegrityViolationException("duplicate"));
+
+
+        // Транзакция вызывающего уже откачена базой, повторяет ее вызывающий
+        assertThrows(DataIntegrityViolationException.class, () -> blobStore.store(stream("hello")));
+
+
+        assertEquals("hello", Files.readString(storageDir.resolve("blobs/2c/f2").resolve(HELLO_HASH)));
+        verify(blobRepository, times(1)).incrementRefCount(HELLO_HASH);
+        assertTempDirEmpty();
+    }
+
+    @Test
+    void stage_NewContent_StoresBeforeReferenceIsTaken() throws Exception {
+
+        try (BlobStore.StagedContent staged = blobStore.stage(stream("hello"))) {
+
+
+            assertEquals(HELLO_HASH, staged.contentHash());
+            assertEquals(StorageCodec.NONE, staged.storedCodec());
+            assertEquals("hello", Files.readString(storageDir.resolve("blobs/2c/f2").resolve(HELLO_HASH)));
+            verify(blobRepository, never()).incrementRefCount(anyString());
+        }
+        assertTempDirEmpty();
+    }
+
+    @Test
+    void abandon_StagedNewContent_HandedToCollectorAsUnreferencedBlob() throws Exception {
+
+        try (BlobStore.StagedContent staged = blobStore.stage(stream("hello"))) {
+
+
+            blobStore.abandon(staged);
+        }
+
+
+        verify(blobRepository).saveAndFlush(argThat(blob -> blob.getContentHash().equals(HELLO_HASH)
+                && blob.getRefCount() == 0
+                && blob.getUnreferencedAt() != null
+                && blob.getCodec() == StorageCodec.NONE
+                && blob.getStoragePath().equals(blobStore.keyFor(HELLO_HASH))));
+    }
+
+    @Test
+    void abandon_RowInsertedByAnotherUpload_LeavesItAlone() throws Exception {
+
+        when(blobRepository.existsByContentHash(HELLO_HASH)).thenReturn(false, true);
+
+        try (BlobStore.StagedContent staged = blobStore.stage(stream("hello"))) {
+
+
+            blobStore.abandon(staged);
+        }
+
+
+        verify(blobRepository, never()).saveAndFlush(any(Blob.class));
+        assertTrue(Files.exists(storageDir.resolve("blobs/2c/f2").resolve(HELLO_HASH)));
+    }
+
+    @Test
+    void acquireExisting_MatchingHashAndSize_AddsReference() throws Exception {
+
+        Path path = Files.createDirectories(storageDir.resolve("blobs")).resolve(HELLO_HASH);
+        Files.writeString(path, "hello");
+        Blob existing = blob(7L, path);
+        when(blobRepository.findByContentHash(HELLO_HASH)).thenReturn(Optional.of(existing));
+        when(blobRepository.incrementRefCount(HELLO_HASH)).thenReturn(1);
+
+
+        assertEquals(Optional.of(existing), blobStore.acquireExisting(HELLO_HASH, 5L));
+    }
+
+    @Test
+    void acquireExisting_SizeMismatch_ReturnsEmpty() throws Exception {
+
+        Blob existing = blob(7L, storageDir.resolve("blobs").resolve(HELLO_HASH));
+        when(blobRepository.findByContentHash(HELLO_HASH)).thenReturn(Optional.of(existing));
+
+
+        assertTrue(blobStore.acquireExisting(HELLO_HASH, 6L).isEmpty());
+        verify(blobRepository, never()).incrementRefCount(anyString());
+    }
+
+    @Test
+    void reclaimUnreferenced_DeletesRowsAndFiles() throws Exception {
+
+        Path path = Files.createDirectories(storageDir.resolve("blobs")).resolve(HELLO_HASH);
+        Files.writeString(path, "hello");
+        Blob unreferenced = blob(7L, path);
+        when(blobRepository.lockUnreferenced(any(LocalDateTime.class), eq(100))).thenReturn(List.of(unreferenced));
+
+
+        int reclaimed = blobStore.reclaimUnreferenced(100);
+
+
+        assertEquals(1, reclaimed);
+        verify(blobRepository).deleteAll(List.of(unreferenced));
+        assertFalse(Files.exists(path));
+    }
+
+    private void assertTempDirEmpty() throws Exception {
+        try (Stream<Path> files = Files.list(storageDir.resolve(".tmp"))) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    private static Blob blob(Long id, Path path) {
+        Blob blob = new Blob();
+        blob.setId(id);
+        blob.setContentHash(HELLO_HASH);
+        blob.setSize(5L);
+        blob.setStoragePath(path.toString());
+        blob.setRefCount(1);
+        return blob;
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,80 @@
+package ru.netology.cloudservise.unit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.netology.cloudservise.service.CompressionPolicy;
+import ru.netology.cloudservise.service.StorageCodec;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressionPolicyTest {
+
+    @TempDir
+    Path dir;
+
+    private final CompressionPolicy policy = new CompressionPolicy(true, 1024, 0.1, true);
+
+    @Test
+    void compress_RepetitiveText_ReturnsGzip() throws Exception {
+
+        Path raw = write("{\"id\":1,\"name\":\"value\"}\n".repeat(500).getBytes(StandardCharsets.UTF_8));
+        Path target = dir.resolve("target");
+
+
+        StorageCodec codec = policy.compress(raw, Files.size(raw), target);
+
+
+        assertEquals(StorageCodec.GZIP, codec);
+        assertTrue(Files.size(target) < Files.size(raw));
+    }
+
+    @Test
+    void compress_SmallFile_ReturnsNone() throws Exception {
+
+        Path raw = write("short".getBytes(StandardCharsets.UTF_8));
+        Path target = dir.resolve("target");
+
+
+        assertEquals(StorageCodec.NONE, policy.compress(raw, Files.size(raw), target));
+        assertFalse(Files.exists(target));
+    }
+
+    @Test
+    void compress_AlreadyCompressedFormat_ReturnsNone() throws Exception {
+
+        byte[] png = new byte[4096];
+        png[0] = (byte) 0x89;
+        png[1] = 0x50;
+        png[2] = 0x4e;
+        png[3] = 0x47;
+        Path raw = write(png);
+        Path target = dir.resolve("target");
+
+
+        assertEquals(StorageCodec.NONE, policy.compress(raw, Files.size(raw), target));
+        assertFalse(Files.exists(target));
+    }
+
+    @Test
+    void compress_IncompressibleData_DiscardsResult() throws Exception {
+
+        byte[] random = new byte[8192];
+        new Random(42).nextBytes(random);
+        Path raw = write(random);
+        Path target = dir.resolve("target");
+        CompressionPolicy anyType = new CompressionPolicy(true, 1024, 0.1, false);
+
+
+        assertEquals(StorageCodec.NONE, anyType.compress(raw, Files.size(raw), target));
+        assertFalse(Files.exists(target));
+    }
+
+    private Path write(byte[] content) throws Exception {
+        return Files.write(dir.resolve("raw"), content);
+    }
+}
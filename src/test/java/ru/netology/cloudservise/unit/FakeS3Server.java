@@ -0,0 +1,239 @@
+package ru.netology.cloudservise.unit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Минимальная замена S3/MinIO для тестов: объекты в памяти, PUT (в том числе копирование), GET с Range,
+ * HEAD, DELETE и multipart upload в адресации endpoint/bucket/key. Подпись не проверяется, только ее наличие.
+ */
+final class FakeS3Server {
+
+    private final HttpServer server;
+    private final String bucket;
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    private final AtomicInteger uploadedParts = new AtomicInteger();
+    private final AtomicBoolean failNextCopy = new AtomicBoolean();
+    private volatile String lastAuthorization;
+
+    private FakeS3Server(HttpServer server, String bucket) {
+        this.server = server;
+        this.bucket = bucket;
+    }
+
+    static FakeS3Server start(String bucket) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        FakeS3Server fake = new FakeS3Server(server, bucket);
+        server.createContext("/", fake::handle);
+        server.start();
+        return fake;
+    }
+
+    String endpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    String lastAuthorization() {
+        return lastAuthorization;
+    }
+
+    int uploadedParts() {
+        return uploadedParts.get();
+    }
+
+    int pendingUploads() {
+        return uploads.size();
+    }
+
+    // Следующий CopyObject ответит 200 с ошибкой в теле, как S3 при сбое во время копирования
+    void failNextCopy() {
+        failNextCopy.set(true);
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            lastAuthorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (lastAuthorization == null || !lastAuthorization.startsWith("AWS4-HMAC-SHA256 ")) {
+                exchange.sendResponseHeaders(403, -1);
+                return;
+            }
+
+            String prefix = "/" + bucket + "/";
+            String path = exchange.getRequestURI().getRawPath();
+            if (!path.startsWith(prefix)) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            String key = URLDecoder.decode(path.substring(prefix.length()), StandardCharsets.UTF_8);
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+
+            switch (exchange.getRequestMethod()) {
+                case "POST" -> post(exchange, key, query);
+                case "PUT" -> put(exchange, key, query);
+                case "GET" -> get(exchange, key);
+                case "HEAD" -> head(exchange, key);
+                case "DELETE" -> {
+                    if (query.containsKey("uploadId")) {
+                        uploads.remove(query.get("uploadId"));
+                    } else {
+                        objects.remove(key);
+                    }
+                    exchange.sendResponseHeaders(204, -1);
+                }
+                default -> exchange.sendResponseHeaders(405, -1);
+            }
+        }
+    }
+
+    // Создание (?uploads) и сборка (?uploadId) multipart upload; ETag части - ее номер
+    private void post(HttpExchange exchange, String key, Map<String, String> query) throws IOException {
+        if (query.containsKey("uploads")) {
+            String uploadId = UUID.randomUUID().toString();
+            uploads.put(uploadId, new TreeMap<>());
+            respond(exchange, "<InitiateMultipartUploadResult><UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+            return;
+        }
+        Map<Integer, byte[]> parts = uploads.remove(query.get("uploadId"));
+        if (parts == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        exchange.getRequestBody().readAllBytes();
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (byte[] part : parts.values()) {
+            content.write(part);
+        }
+        objects.put(key, content.toByteArray());
+        respond(exchange, "<CompleteMultipartUploadResult><Key>" + key + "</Key></CompleteMultipartUploadResult>");
+    }
+
+    private void put(HttpExchange exchange, String key, Map<String, String> query) throws IOException {
+        byte[] content;
+        String copySource = exchange.getRequestHeaders().getFirst("x-amz-copy-source");
+        if (copySource != null) {
+            String sourceKey = URLDecoder.decode(copySource.substring(bucket.length() + 2), StandardCharsets.UTF_8);
+            content = objects.get(sourceKey);
+            if (content == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            String range = exchange.getRequestHeaders().getFirst("x-amz-copy-source-range");
+            if (range != null) {
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                content = Arrays.copyOfRange(content, Integer.parseInt(bounds[0]), Integer.parseInt(bounds[1]) + 1);
+            }
+        } else {
+            content = exchange.getRequestBody().readAllBytes();
+        }
+
+        if (query.containsKey("uploadId")) {
+            Map<Integer, byte[]> parts = uploads.get(query.get("uploadId"));
+            if (parts == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            int partNumber = Integer.parseInt(query.get("partNumber"));
+            parts.put(partNumber, content);
+            uploadedParts.incrementAndGet();
+            String etag = "\"" + partNumber + "\"";
+            if (copySource != null) {
+                respond(exchange, "<CopyPartResult><ETag>" + etag + "</ETag></CopyPartResult>");
+            } else {
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.sendResponseHeaders(200, -1);
+            }
+            return;
+        }
+        if (copySource != null) {
+            if (failNextCopy.compareAndSet(true, false)) {
+                respond(exchange, "<Error><Code>InternalError</Code><Message>We encountered an internal error.</Message></Error>");
+                return;
+            }
+            objects.put(key, content);
+            respond(exchange, "<CopyObjectResult><ETag>\"copy\"</ETag></CopyObjectResult>");
+            return;
+        }
+        objects.put(key, content);
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+    private void get(HttpExchange exchange, String key) throws IOException {
+        byte[] content = objects.get(key);
+        if (content == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null) {
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            int start = Integer.parseInt(bounds[0]);
+            int end = Math.min(Integer.parseInt(bounds[1]), content.length - 1);
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+            content = Arrays.copyOfRange(content, start, end + 1);
+            status = 206;
+        }
+
+        exchange.sendResponseHeaders(status, content.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content);
+        }
+    }
+
+    private void head(HttpExchange exchange, String key) throws IOException {
+        byte[] content = objects.get(key);
+        if (content == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Length", Long.toString(content.length));
+        exchange.getResponseHeaders().set("Last-Modified",
+                DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC)));
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+    private static void respond(HttpExchange exchange, String xml) throws IOException {
+        byte[] body = xml.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                int separator = parameter.indexOf('=');
+                String name = separator < 0 ? parameter : parameter.substring(0, separator);
+                String value = separator < 0 ? "" : parameter.substring(separator + 1);
+                query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+}
@@ -1,20 +1,48 @@
 package ru.netology.cloudservise.unit;
 
+import org.springframework.data.domain.Limit;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.netology.cloudservise.dto.FileInfoResponse;
 import org.springframework.web.multipart.MultipartFile;
-import ru.netology.cloudservise.entity.User;
+import ru.netology.cloudservise.entity.Blob;
 import ru.netology.cloudservise.entity.UserFile;
 import ru.netology.cloudservise.repository.UserFileRepository;
+import ru.netology.cloudservise.repository.UserRepository;
+import ru.netology.cloudservise.security.AuthenticatedUser;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import ru.netology.cloudservise.service.BlobStore;
+import ru.netology.cloudservise.service.FileListCursor;
+import ru.netology.cloudservise.service.FileListEntry;
+import ru.netology.cloudservise.service.FileListPage;
 import ru.netology.cloudservise.service.FileStorageService;
+import ru.netology.cloudservise.service.HotFileCache;
+import ru.netology.cloudservise.service.InstantUploadScope;
+import ru.netology.cloudservise.service.LocalStorageBackend;
+import ru.netology.cloudservise.service.StorageSync;
+import ru.netology.cloudservise.service.StoredFile;
 
-import java.util.Arrays;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.List;
+import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -23,61 +51,365 @@ class FileStorageServiceTest {
     @Mock
     private UserFileRepository userFileRepository;
 
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private BlobStore blobStore;
+
     @Mock
     private MultipartFile multipartFile;
 
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
     private FileStorageService fileStorageService;
-    private User testUser;
+    private AuthenticatedUser testUser;
+
+    @TempDir
+    Path storageDir;
 
     @BeforeEach
     void setUp() {
-        fileStorageService = new FileStorageService(userFileRepository);
+        LocalStorageBackend backend = new LocalStorageBackend(storageDir.toString(), StorageSync.none());
+        fileStorageService = new FileStorageService(userFileRepository, userRepository, blobStore, backend,
+                new HotFileCache(backend, false, 0, 0), new TransactionTemplate(transactionManager));
         fileStorageService.storagePath = "./test-uploads";
 
-        testUser = new User();
-        testUser.setId(1L);
-        testUser.setLogin("testuser");
+        testUser = new AuthenticatedUser(1L, "testuser");
+    }
+
+    @Test
+    void getUserFiles_WithLimit_PushesLimitIntoQueryAndReturnsCursor() {
+
+        LocalDateTime uploadedAt = LocalDateTime.of(2025, 1, 1, 12, 0, 0, 123456000);
+        when(userFileRepository.findListPage(1L, Limit.of(2))).thenReturn(List.of(
+                new FileListEntry(9L, "file1.txt", 100L, uploadedAt),
+                new FileListEntry(8L, "file2.txt", 200L, uploadedAt)));
+
+
+        FileListPage result = fileStorageService.getUserFiles(testUser, 1, null);
+
+
+        assertEquals(1, result.files().size());
+        assertEquals("file1.txt", result.files().get(0).filename());
+        assertEquals(new FileListCursor(uploadedAt, 9L), FileListCursor.decode(result.nextCursor()));
+    }
+
+    @Test
+    void getUserFiles_WithCursor_ContinuesAfterIt() {
+
+        LocalDateTime uploadedAt = LocalDateTime.of(2025, 1, 1, 12, 0);
+        FileListCursor cursor = new FileListCursor(uploadedAt, 9L);
+        when(userFileRepository.findListPageAfter(1L, uploadedAt, 9L, Limit.of(3))).thenReturn(List.of(
+                new FileListEntry(8L, "file2.txt", 200L, uploadedAt)));
+
+
+        FileListPage result = fileStorageService.getUserFiles(testUser, 2, cursor);
+
+
+        assertEquals(List.of(new FileInfoResponse("file2.txt", 200L)), result.files());
+        assertNull(result.nextCursor());
+    }
+
+    @Test
+    void storeFile_SavesUserFileReferencingBlobInOneTransaction() throws Exception {
+
+        Blob blob = blob(5L, storageDir.resolve("blobs").resolve("abc"));
+        BlobStore.StagedContent staged = staged();
+        when(multipartFile.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        when(blobStore.stage(any(InputStream.class))).thenReturn(staged);
+        when(blobStore.acquire(staged)).thenReturn(blob);
+
+
+        fileStorageService.storeFile(testUser, "large.bin", multipartFile);
+
+
+        verify(multipartFile, never()).getBytes();
+        InOrder inOrder = inOrder(transactionManager, blobStore, userFileRepository, userRepository);
+        inOrder.verify(transactionManager).getTransaction(any());
+        inOrder.verify(blobStore).acquire(staged);
+        inOrder.verify(userFileRepository).save(argThat(file -> file.getBlob() == blob
+                && file.getSize() == 3L
+                && file.getStoragePath().equals(blob.getStoragePath())
+                && blob.getContentHash().equals(file.getContentHash())));
+        inOrder.verify(userRepository).incrementListingVersion(1L);
+        inOrder.verify(transactionManager).commit(any());
+        assertFalse(Files.exists(staged.file()));
+    }
+
+    @Test
+    void storeFile_MetadataSaveFails_RollsBackReference() throws Exception {
+
+        Blob blob = blob(5L, storageDir.resolve("blobs").resolve("abc"));
+        BlobStore.StagedContent staged = staged();
+        when(blobStore.stage(any(InputStream.class))).thenReturn(staged);
+        when(blobStore.acquire(staged)).thenReturn(blob);
+        when(userFileRepository.save(any(UserFile.class))).thenThrow(new RuntimeException("db"));
+
+
+        assertThrows(RuntimeException.class,
+                () -> fileStorageService.storeFile(testUser, "file.bin", new ByteArrayInputStream(new byte[]{1})));
+
+
+        // Ссылка на blob откатывается вместе со строкой, отдельного release нет
+        verify(transactionManager).rollback(any());
+        verify(transactionManager, never()).commit(any());
+        verify(blobStore, never()).release(any());
+        verify(userRepository, never()).incrementListingVersion(anyLong());
+    }
+
+    @Test
+    void storeFile_ConcurrentInsertOfSameContent_RetriesTransaction() throws Exception {
+
+        Blob blob = blob(5L, storageDir.resolve("blobs").resolve("abc"));
+        BlobStore.StagedContent staged = staged();
+        when(blobStore.stage(any(InputStream.class))).thenReturn(staged);
+        when(blobStore.acquire(staged))
+                .thenThrow(new DataIntegrityViolationException("duplicate"))
+                .thenReturn(blob);
+
+
+        fileStorageService.storeFile(testUser, "file.bin", new ByteArrayInputStream(new byte[]{1}));
+
+
+        verify(transactionManager).rollback(any());
+        verify(transactionManager).commit(any());
+        verify(userFileRepository).save(argThat(file -> file.getBlob() == blob));
+        verify(blobStore, never()).abandon(any());
+    }
+
+    @Test
+    void storeFile_RetryAlsoFails_AbandonsStagedContent() throws Exception {
+
+        BlobStore.StagedContent staged = staged();
+        when(blobStore.stage(any(InputStream.class))).thenReturn(staged);
+        when(blobStore.acquire(staged)).thenThrow(new DataIntegrityViolationException("duplicate"));
+
+
+        assertThrows(DataIntegrityViolationException.class,
+                () -> fileStorageService.storeFile(testUser, "file.bin", new ByteArrayInputStream(new byte[]{1})));
+
+
+        verify(blobStore, times(2)).acquire(staged);
+        verify(blobStore).abandon(staged);
+        verify(transactionManager, never()).commit(any());
+    }
+
+    @Test
+    void storeExisting_UserScopeOwnContent_CreatesFileWithoutTransfer() throws Exception {
+
+        Blob blob = blob(5L, storageDir.resolve("abc"));
+        when(userFileRepository.existsByUserIdAndBlobContentHash(1L, "abc")).thenReturn(true);
+        when(blobStore.acquireExisting("abc", 3L)).thenReturn(Optional.of(blob));
+
+
+        boolean uploaded = fileStorageService.storeExisting(testUser, "copy.bin", "ABC", 3L);
+
+
+        assertTrue(uploaded);
+        verify(userFileRepository).save(argThat(file -> file.getBlob() == blob && file.getFilename().equals("copy.bin")));
+    }
+
+    @Test
+    void storeExisting_UserScopeForeignContent_RequiresUpload() throws Exception {
+
+        when(userFileRepository.existsByUserIdAndBlobContentHash(1L, "abc")).thenReturn(false);
+
+
+        boolean uploaded = fileStorageService.storeExisting(testUser, "copy.bin", "abc", 3L);
+
+
+        assertFalse(uploaded);
+        verify(blobStore, never()).acquireExisting(anyString(), anyLong());
+        verify(userFileRepository, never()).save(any());
+    }
+
+    @Test
+    void storeExisting_GlobalScopeUnknownContent_RequiresUpload() throws Exception {
+
+        ReflectionTestUtils.setField(fileStorageService, "instantUploadScope", InstantUploadScope.GLOBAL);
+        when(blobStore.acquireExisting("abc", 3L)).thenReturn(Optional.empty());
+
+
+        boolean uploaded = fileStorageService.storeExisting(testUser, "copy.bin", "abc", 3L);
+
+
+        assertFalse(uploaded);
+        verify(userFileRepository, never()).existsByUserIdAndBlobContentHash(anyLong(), anyString());
+        verify(userFileRepository, never()).save(any());
+    }
+
+    @Test
+    void deleteFile_BlobFile_ReleasesReferenceOnly() throws Exception {
+
+        Path path = Files.writeString(storageDir.resolve("abc"), "content");
+        UserFile userFile = new UserFile();
+        userFile.setFilename("file1.txt");
+        userFile.setStoragePath(path.toString());
+        userFile.setBlob(blob(5L, path));
+        when(userFileRepository.lockByUserIdAndFilename(1L, "file1.txt")).thenReturn(Optional.of(userFile));
+
+
+        fileStorageService.deleteFile(testUser, "file1.txt");
+
+
+        verify(userFileRepository).delete(userFile);
+        verify(blobStore).release(userFile.getBlob());
+        verify(userRepository).incrementListingVersion(1L);
+        assertTrue(Files.exists(path));
+    }
+
+    @Test
+    void deleteFile_LegacyFile_DeletesFromStorageOnlyAfterCommit() throws Exception {
+
+        Path path = Files.writeString(storageDir.resolve("legacy.txt"), "content");
+        UserFile userFile = new UserFile();
+        userFile.setFilename("legacy.txt");
+        userFile.setStoragePath("legacy.txt");
+        when(userFileRepository.lockByUserIdAndFilename(1L, "legacy.txt")).thenReturn(Optional.of(userFile));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            fileStorageService.deleteFile(testUser, "legacy.txt");
+            assertTrue(Files.exists(path));
+
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+
+            assertFalse(Files.exists(path));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void renameFile_LegacyFileRolledBack_MovesFileBack() throws Exception {
+
+        Path path = Files.writeString(storageDir.resolve("old.txt"), "content");
+        UserFile userFile = new UserFile();
+        userFile.setFilename("old.txt");
+        userFile.setStoragePath("old.txt");
+        when(userFileRepository.lockByUserIdAndFilename(1L, "old.txt")).thenReturn(Optional.of(userFile));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            fileStorageService.renameFile(testUser, "old.txt", "new.txt");
+            assertEquals("new.txt", userFile.getStoragePath());
+            assertTrue(Files.exists(storageDir.resolve("new.txt")));
+
+
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+
+            assertTrue(Files.exists(path));
+            assertFalse(Files.exists(storageDir.resolve("new.txt")));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
     }
 
     @Test
-    void getUserFiles_WithLimit_ReturnsLimitedFiles() {
+    void renameFile_BlobFile_ChangesMetadataOnly() throws Exception {
+
+        Path path = Files.writeString(storageDir.resolve("abc"), "content");
+        UserFile userFile = new UserFile();
+        userFile.setFilename("old.txt");
+        userFile.setStoragePath(path.toString());
+        userFile.setBlob(blob(5L, path));
+        when(userFileRepository.lockByUserIdAndFilename(1L, "old.txt")).thenReturn(Optional.of(userFile));
 
-        UserFile file1 = new UserFile();
-        file1.setFilename("file1.txt");
-        file1.setSize(100L);
 
-        UserFile file2 = new UserFile();
-        file2.setFilename("file2.txt");
-        file2.setSize(200L);
+        fileStorageService.renameFile(testUser, "old.txt", "new.txt");
 
-        List<UserFile> files = Arrays.asList(file1, file2);
-        when(userFileRepository.findByUserOrderByUploadedAtDesc(testUser)).thenReturn(files);
 
+        assertEquals("new.txt", userFile.getFilename());
+        assertEquals(path.toString(), userFile.getStoragePath());
+        verify(userRepository).incrementListingVersion(1L);
+        assertTrue(Files.exists(path));
+    }
 
-        var result = fileStorageService.getUserFiles(testUser, 1);
+    @Test
+    void loadFile_ReturnsKeyAndSizeWithoutReadingContent() throws Exception {
 
-        assertEquals(1, result.size());
-        assertEquals("file1.txt", result.get(0).filename());
-        verify(userFileRepository).findByUserOrderByUploadedAtDesc(testUser);
+        Path path = Files.writeString(storageDir.resolve("file1.txt"), "file content");
+        UserFile userFile = new UserFile();
+        userFile.setFilename("file1.txt");
+        userFile.setSize(12L);
+        userFile.setStoragePath(path.toString());
+        userFile.setContentHash("abc123");
+        userFile.setUploadedAt(LocalDateTime.of(2025, 1, 1, 12, 0));
+        when(userFileRepository.findByUserIdAndFilename(1L, "file1.txt")).thenReturn(Optional.of(userFile));
+
+
+        StoredFile result = fileStorageService.loadFile(testUser, "file1.txt");
+
+
+        assertEquals(path.toString(), result.key());
+        assertEquals(Optional.of(path), result.localPath());
+        assertEquals(12L, result.size());
+        assertEquals(userFile.getUploadedAt().atZone(ZoneId.systemDefault()).toInstant(), result.lastModified());
+        assertEquals("\"abc123\"", result.eTag(false));
+    }
+
+    @Test
+    void loadFile_RowWithoutHashCopy_UsesBlobIdWithoutLoadingBlob() {
+
+        Blob blob = mock(Blob.class);
+        when(blob.getId()).thenReturn(5L);
+        UserFile userFile = new UserFile();
+        userFile.setFilename("file1.txt");
+        userFile.setSize(12L);
+        userFile.setStoragePath("blobs/abc");
+        userFile.setBlob(blob);
+        userFile.setUploadedAt(LocalDateTime.now());
+        when(userFileRepository.findByUserIdAndFilename(1L, "file1.txt")).thenReturn(Optional.of(userFile));
+
+
+        StoredFile result = fileStorageService.loadFile(testUser, "file1.txt");
+
+
+        assertEquals("\"b5\"", result.eTag(false));
+        verify(blob, never()).getContentHash();
+    }
+
+    @Test
+    void loadFile_LegacyFile_UsesRowVersionWithoutStat() {
+
+        UserFile userFile = new UserFile();
+        userFile.setId(5L);
+        userFile.setFilename("file1.txt");
+        userFile.setSize(12L);
+        userFile.setStoragePath(storageDir.resolve("missing").toString());
+        userFile.setUploadedAt(LocalDateTime.now());
+        when(userFileRepository.findByUserIdAndFilename(1L, "file1.txt")).thenReturn(Optional.of(userFile));
+
+
+        StoredFile result = fileStorageService.loadFile(testUser, "file1.txt");
+
+
+        assertEquals("\"f5-12\"", result.eTag(false));
     }
 
     @Test
     void fileExists_FileExists_ReturnsTrue() {
 
-        when(userFileRepository.existsByUserAndFilename(testUser, "testfile.txt")).thenReturn(true);
+        when(userFileRepository.existsByUserIdAndFilename(1L, "testfile.txt")).thenReturn(true);
 
 
         boolean result = fileStorageService.fileExists(testUser, "testfile.txt");
 
 
         assertTrue(result);
-        verify(userFileRepository).existsByUserAndFilename(testUser, "testfile.txt");
+        verify(userFileRepository).existsByUserIdAndFilename(1L, "testfile.txt");
     }
 
     @Test
     void fileExists_FileNotExists_ReturnsFalse() {
 
-        when(userFileRepository.existsByUserAndFilename(testUser, "nonexistent.txt")).thenReturn(false);
+        when(userFileRepository.existsByUserIdAndFilename(1L, "nonexistent.txt")).thenReturn(false);
 
 
         boolean result = fileStorageService.fileExists(testUser, "nonexistent.txt");
@@ -85,4 +417,18 @@ class FileStorageServiceTest {
 
         assertFalse(result);
     }
-}
\ No newline at end of file
+
+    private BlobStore.StagedContent staged() throws Exception {
+        return new BlobStore.StagedContent(Files.writeString(storageDir.resolve("upload.tmp"), "abc"), "abc", 3L, null);
+    }
+
+    private static Blob blob(Long id, Path path) {
+        Blob blob = new Blob();
+        blob.setId(id);
+        blob.setContentHash("abc");
+        blob.setSize(3L);
+        blob.setStoragePath(path.toString());
+        blob.setRefCount(1);
+        return blob;
+    }
+}
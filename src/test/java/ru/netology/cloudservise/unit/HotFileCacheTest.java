@@ -0,0 +1,150 @@
+package ru.netology.cloudservise.unit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.netology.cloudservise.service.HotFileCache;
+import ru.netology.cloudservise.service.LocalStorageBackend;
+import ru.netology.cloudservise.service.StorageBackend;
+import ru.netology.cloudservise.service.StorageSync;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotFileCacheTest {
+
+    private static final int PAGE = 4096;
+
+    @TempDir
+    Path storageDir;
+
+    private HotFileCache cache;
+    private StorageBackend reader;
+
+    @BeforeEach
+    void setUp() {
+        cache = new HotFileCache(new LocalStorageBackend(storageDir.toString(), StorageSync.none()), true, 10 * PAGE, 2 * PAGE);
+        reader = cache.reader();
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.close();
+    }
+
+    @Test
+    void get_SecondRead_ServedFromMemory() throws Exception {
+
+        Path file = Files.writeString(storageDir.resolve("hot"), "hot content");
+        assertEquals("hot content", read(reader.get("hot")));
+        Files.delete(file);
+
+
+        assertEquals("hot content", read(reader.get("hot")));
+        assertEquals(11L, reader.stat("hot").size());
+        assertEquals("content", read(reader.get("hot", 4, 7)));
+        assertTrue(reader.localPath("hot").isEmpty());
+        assertEquals(11L, cache.cachedBytes());
+        assertEquals(2.0 / 3, cache.hitRatio(), 1e-9);
+    }
+
+    @Test
+    void localPath_OnlyForObjectsLargerThanMaxObjectSize() throws Exception {
+
+        Files.writeString(storageDir.resolve("small"), "small content");
+        Path large = Files.write(storageDir.resolve("large"), new byte[3 * PAGE]);
+
+
+        assertTrue(reader.localPath("small").isEmpty());
+        assertEquals(large, reader.localPath("large").orElseThrow());
+    }
+
+    @Test
+    void invalidate_DropsEntry() throws Exception {
+
+        Path file = Files.writeString(storageDir.resolve("hot"), "hot content");
+        read(reader.get("hot"));
+        Files.delete(file);
+
+
+        cache.invalidate("hot");
+
+
+        assertThrows(NoSuchFileException.class, () -> reader.get("hot"));
+        assertEquals(0L, cache.cachedBytes());
+    }
+
+    @Test
+    void get_LargeObject_StreamedWithoutCaching() throws Exception {
+
+        byte[] large = new byte[3 * PAGE];
+        Arrays.fill(large, (byte) 7);
+        Files.write(storageDir.resolve("large"), large);
+
+
+        try (InputStream in = reader.get("large")) {
+            assertArrayEquals(large, in.readAllBytes());
+        }
+        assertEquals(0L, cache.cachedBytes());
+    }
+
+    @Test
+    void scan_DoesNotEvictRepeatedlyUsedObject() throws Exception {
+
+        write("hot", PAGE);
+        read(reader.get("hot"));
+        read(reader.get("hot"));
+
+
+        for (int i = 0; i < 30; i++) {
+            write("scan-" + i, PAGE);
+            read(reader.get("scan-" + i));
+        }
+        Files.delete(storageDir.resolve("hot"));
+
+
+        assertEquals(PAGE, read(reader.get("hot")).length());
+    }
+
+    @Test
+    void evictedWhileReading_OpenStreamKeepsItsPages() throws Exception {
+
+        byte[] expected = write("hot", 2 * PAGE);
+        read(reader.get("hot"));
+        InputStream open = reader.get("hot");
+        byte[] head = open.readNBytes(PAGE);
+
+
+        cache.invalidate("hot");
+        for (int i = 0; i < 20; i++) {
+            write("other-" + i, PAGE);
+            read(reader.get("other-" + i));
+        }
+        byte[] tail = open.readAllBytes();
+        open.close();
+
+
+        assertArrayEquals(Arrays.copyOfRange(expected, 0, PAGE), head);
+        assertArrayEquals(Arrays.copyOfRange(expected, PAGE, 2 * PAGE), tail);
+    }
+
+    private byte[] write(String key, int size) throws Exception {
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) ('a' + Math.abs(key.hashCode()) % 26));
+        Files.write(storageDir.resolve(key), content);
+        return content;
+    }
+
+    private static String read(InputStream in) throws Exception {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package ru.netology.cloudservise.unit;
+
+import org.junit.jupiter.api.Test;
+import ru.netology.cloudservise.service.DurabilityMode;
+import ru.netology.cloudservise.service.LocalStorageBackend;
+import ru.netology.cloudservise.service.StorageBackend;
+import ru.netology.cloudservise.service.StorageSync;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalStorageBackendTest extends StorageBackendConformanceTest {
+
+    @Override
+    protected StorageBackend createBackend() {
+        return new LocalStorageBackend(tempDir.resolve("storage").toString(),
+                new StorageSync(DurabilityMode.FILE, Duration.ZERO, 1));
+    }
+
+    @Test
+    void resolve_KeyStoredWithRoot_PointsToSameFile() throws Exception {
+        Path root = tempDir.resolve("storage");
+        Path file = Files.writeString(Files.createDirectories(root.resolve("1")).resolve("legacy.txt"), "legacy");
+
+
+        assertEquals(file, ((LocalStorageBackend) backend).resolve(file.toString()));
+        assertEquals(Optional.of(file), backend.localPath("1/legacy.txt"));
+    }
+}
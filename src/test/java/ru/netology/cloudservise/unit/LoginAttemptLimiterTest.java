@@ -0,0 +1,129 @@
+package ru.netology.cloudservise.unit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.netology.cloudservise.exception.TooManyLoginAttemptsException;
+import ru.netology.cloudservise.security.LoginAttemptLimiter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class LoginAttemptLimiterTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private LoginAttemptLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        limiter = new LoginAttemptLimiter(meterRegistry, 3, 5, Duration.ofMinutes(15), 1000);
+    }
+
+    @Test
+    void reserve_BelowLimit_Passes() {
+
+        limiter.reserve("user1", "10.0.0.1");
+        limiter.reserve("user1", "10.0.0.1");
+
+
+        assertDoesNotThrow(() -> limiter.reserve("user1", "10.0.0.1"));
+    }
+
+    @Test
+    void reserve_LoginLimitReached_Throws() {
+
+        for (int i = 0; i < 3; i++) {
+            limiter.reserve("user1", "10.0.0." + i);
+        }
+
+
+        TooManyLoginAttemptsException exception = assertThrows(TooManyLoginAttemptsException.class,
+                () -> limiter.reserve("user1", "10.0.0.99"));
+
+
+        assertTrue(exception.getRetryAfterSeconds() > 0);
+        assertDoesNotThrow(() -> limiter.reserve("user2", "10.0.0.99"));
+        assertEquals(1.0, meterRegistry.get("auth.login.throttled").tag("key", "login").counter().count());
+    }
+
+    @Test
+    void reserve_IpLimitReached_ThrowsForAnyLogin() {
+
+        for (int i = 0; i < 5; i++) {
+            limiter.reserve("user" + i, "10.0.0.1");
+        }
+
+
+        assertThrows(TooManyLoginAttemptsException.class, () -> limiter.reserve("another", "10.0.0.1"));
+        assertEquals(1.0, meterRegistry.get("auth.login.throttled").tag("key", "ip").counter().count());
+    }
+
+    @Test
+    void reserve_ConcurrentAttempts_NeverExceedLimit() throws Exception {
+
+        int attempts = 32;
+        ExecutorService executor = Executors.newFixedThreadPool(attempts);
+        CountDownLatch start = new CountDownLatch(1);
+
+
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < attempts; i++) {
+            String clientIp = "10.0.1." + i;
+            results.add(executor.submit(() -> {
+                start.await();
+                try {
+                    limiter.reserve("user1", clientIp);
+                    return true;
+                } catch (TooManyLoginAttemptsException e) {
+                    return false;
+                }
+            }));
+        }
+        start.countDown();
+        int allowed = 0;
+        for (Future<Boolean> result : results) {
+            allowed += result.get() ? 1 : 0;
+        }
+        executor.shutdown();
+
+
+        assertEquals(3, allowed);
+    }
+
+    @Test
+    void recordSuccess_ResetsLoginCounterAndReturnsIpSlot() {
+
+        limiter.reserve("user1", "10.0.0.1");
+        limiter.reserve("user1", "10.0.0.1");
+        limiter.recordSuccess("user1", "10.0.0.1");
+        limiter.reserve("user1", "10.0.0.1");
+        limiter.reserve("user1", "10.0.0.1");
+
+
+        assertDoesNotThrow(() -> limiter.reserve("user1", "10.0.0.1"));
+        // На адресе заняты 4 места из 5: место успешной попытки возвращено
+        assertDoesNotThrow(() -> limiter.reserve("user2", "10.0.0.1"));
+        assertThrows(TooManyLoginAttemptsException.class, () -> limiter.reserve("user3", "10.0.0.1"));
+    }
+
+    @Test
+    void release_AttemptNotDecided_ReturnsSlots() {
+
+        for (int i = 0; i < 3; i++) {
+            limiter.reserve("user1", "10.0.0.1");
+            limiter.release("user1", "10.0.0.1");
+        }
+
+
+        assertDoesNotThrow(() -> limiter.reserve("user1", "10.0.0.1"));
+    }
+}
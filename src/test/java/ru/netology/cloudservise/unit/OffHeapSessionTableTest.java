@@ -0,0 +1,207 @@
+package ru.netology.cloudservise.unit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.netology.cloudservise.security.AuthenticatedUser;
+import ru.netology.cloudservise.security.OffHeapSessionTable;
+import ru.netology.cloudservise.security.TokenDigester;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class OffHeapSessionTableTest {
+
+    private final TokenDigester tokenDigester = new TokenDigester("test-secret");
+    private final AuthenticatedUser user = new AuthenticatedUser(1L, "testuser");
+    private OffHeapSessionTable table;
+
+    @BeforeEach
+    void setUp() {
+        table = new OffHeapSessionTable(true, 1024, Duration.ofMinutes(5));
+    }
+
+    @AfterEach
+    void tearDown() {
+        table.close();
+    }
+
+    @Test
+    void put_ThenGet_ReturnsPrincipal() {
+
+        String digest = newDigest();
+
+
+        assertTrue(table.put(digest, user, LocalDateTime.now().plusHours(1)));
+
+
+        assertEquals(Optional.of(user), table.get(digest));
+        assertTrue(table.get(newDigest()).isEmpty());
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    void get_ExpiredSession_ReturnsEmpty() {
+
+        String digest = newDigest();
+        table.put(digest, user, LocalDateTime.now().minusSeconds(1));
+
+
+        assertTrue(table.get(digest).isEmpty());
+        assertEquals(1, table.evictExpired(LocalDateTime.now()));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    void evict_KeepsOtherSessionsReachable() {
+
+        // Части таблицы по 16 слотов заполнены плотно, поэтому цепочки пробирования пересекаются
+        List<String> digests = new ArrayList<>();
+        while (digests.size() < 500) {
+            String digest = newDigest();
+            if (table.put(digest, new AuthenticatedUser((long) digests.size(), "user" + digests.size()),
+                    LocalDateTime.now().plusHours(1))) {
+                digests.add(digest);
+            } else {
+                break;
+            }
+        }
+
+
+        for (int i = 0; i < digests.size(); i += 2) {
+            table.evict(digests.get(i));
+        }
+
+
+        for (int i = 0; i < digests.size(); i++) {
+            Optional<AuthenticatedUser> found = table.get(digests.get(i));
+            if (i % 2 == 0) {
+                assertTrue(found.isEmpty());
+            } else {
+                assertEquals(Optional.of(new AuthenticatedUser((long) i, "user" + i)), found);
+            }
+        }
+        assertEquals(digests.size() / 2, table.size());
+    }
+
+    @Test
+    void put_TableFull_RejectsNewSessions() {
+
+        int accepted = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (table.put(newDigest(), user, LocalDateTime.now().plusHours(1))) {
+                accepted++;
+            }
+        }
+
+
+        assertEquals(accepted, table.size());
+        assertTrue(table.size() <= table.capacity());
+        assertTrue(accepted < 10_000);
+    }
+
+    @Test
+    void put_TableFullOfExpired_PurgesAndAccepts() {
+
+        for (int i = 0; i < 10_000; i++) {
+            table.put(newDigest(), user, LocalDateTime.now().minusSeconds(1));
+        }
+
+
+        assertTrue(table.put(newDigest(), user, LocalDateTime.now().plusHours(1)));
+        assertTrue(table.size() < table.capacity());
+    }
+
+    @Test
+    void get_ConcurrentWriters_ReadsAreConsistent() throws Exception {
+
+        String stable = newDigest();
+        table.put(stable, user, LocalDateTime.now().plusHours(1));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    String digest = newDigest();
+                    table.put(digest, new AuthenticatedUser(2L, "other"), LocalDateTime.now().plusHours(1));
+                    table.evict(digest);
+                }
+            }));
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    assertEquals(Optional.of(user), table.get(stable));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    void put_LongLivedToken_CachedNoLongerThanTtl() {
+
+        OffHeapSessionTable shortLived = new OffHeapSessionTable(true, 1024, Duration.ZERO);
+        String digest = newDigest();
+
+
+        assertTrue(shortLived.put(digest, user, LocalDateTime.now().plusHours(24)));
+
+
+        assertTrue(shortLived.get(digest).isEmpty());
+        shortLived.close();
+    }
+
+    @Test
+    void evictExpired_DropsPrincipalsWithoutSessions() {
+
+        table.put(newDigest(), user, LocalDateTime.now().minusSeconds(1));
+        table.put(newDigest(), new AuthenticatedUser(2L, "other"), LocalDateTime.now().plusHours(1));
+
+
+        table.evictExpired(LocalDateTime.now());
+
+
+        assertEquals(1, table.principalCount());
+    }
+
+    @Test
+    void capacity_LargeValue_DoesNotOverflow() {
+
+        OffHeapSessionTable large = new OffHeapSessionTable(false, Integer.MAX_VALUE, Duration.ofMinutes(5));
+
+
+        assertTrue(large.capacity() > Integer.MAX_VALUE / 2);
+    }
+
+    @Test
+    void disabledTable_AcceptsNothing() {
+
+        OffHeapSessionTable disabled = new OffHeapSessionTable(false, 1024, Duration.ofMinutes(5));
+        String digest = newDigest();
+
+
+        assertFalse(disabled.put(digest, user, LocalDateTime.now().plusHours(1)));
+        assertTrue(disabled.get(digest).isEmpty());
+        disabled.close();
+    }
+
+    private String newDigest() {
+        return tokenDigester.digest(tokenDigester.generateToken());
+    }
+}
@@ -0,0 +1,260 @@
+package ru.netology.cloudservise.unit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.netology.cloudservise.service.DurabilityMode;
+import ru.netology.cloudservise.service.PackedStorageBackend;
+import ru.netology.cloudservise.service.StorageBackend;
+import ru.netology.cloudservise.service.StorageSync;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackedStorageBackendTest extends StorageBackendConformanceTest {
+
+    private static final StorageSync SYNC = new StorageSync(DurabilityMode.GROUP, Duration.ZERO, 64);
+
+    private static final int THRESHOLD = 300 * 1024;
+    private static final long SEGMENT_SIZE = 1024 * 1024;
+
+    private PackedStorageBackend packed;
+
+    @Override
+    protected StorageBackend createBackend() throws Exception {
+        packed = open();
+        return packed;
+    }
+
+    @AfterEach
+    void closeBackend() throws Exception {
+        packed.close();
+    }
+
+    @Test
+    void put_SmallObject_PackedIntoSegmentInsteadOfFile() throws Exception {
+
+        put("blobs/ab/small", "small content");
+
+
+        assertEquals(1, packed.objectCount());
+        assertFalse(Files.exists(root().resolve("blobs/ab/small")));
+        assertTrue(packed.localPath("blobs/ab/small").isEmpty());
+    }
+
+    @Test
+    void put_LargeObject_StoredAsSeparateFile() throws Exception {
+
+        byte[] large = new byte[THRESHOLD + 1];
+        packed.put("blobs/ab/large", new ByteArrayInputStream(large), large.length);
+
+
+        assertEquals(0, packed.objectCount());
+        assertEquals(large.length, Files.size(root().resolve("blobs/ab/large")));
+    }
+
+    @Test
+    void reopen_RebuildsIndexAndHonoursTombstones() throws Exception {
+
+        put("kept", "kept content");
+        put("deleted", "deleted content");
+        packed.delete("deleted");
+        packed.close();
+
+
+        packed = open();
+
+
+        assertEquals("kept content", read(packed.get("kept")));
+        assertFalse(packed.exists("deleted"));
+    }
+
+    @Test
+    void reopen_TruncatedTail_DropsIncompleteRecord() throws Exception {
+
+        put("first", "first content");
+        put("second", "second content");
+        packed.close();
+        Path segment = segmentFiles()[0];
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+
+        packed = open();
+
+
+        assertEquals("first content", read(packed.get("first")));
+        assertFalse(packed.exists("second"));
+        put("third", "third content");
+        assertEquals("third content", read(packed.get("third")));
+    }
+
+    @Test
+    void compact_SparseSegment_RewritesLiveObjectsAndDeletesSegment() throws Exception {
+
+        byte[] payload = new byte[200 * 1024];
+        for (int i = 0; i < 10; i++) {
+            packed.put("object-" + i, new ByteArrayInputStream(payload), payload.length);
+        }
+        put("survivor", "survivor content");
+        for (int i = 0; i < 10; i++) {
+            packed.delete("object-" + i);
+        }
+        int segmentsBefore = packed.segmentCount();
+
+
+        int compacted = packed.compact();
+
+
+        assertTrue(compacted > 0);
+        assertTrue(packed.segmentCount() < segmentsBefore);
+        assertEquals("survivor content", read(packed.get("survivor")));
+        packed.close();
+        packed = open();
+        assertEquals("survivor content", read(packed.get("survivor")));
+        assertFalse(packed.exists("object-0"));
+    }
+
+    @Test
+    void compact_TombstoneWithoutOlderRecord_IsDropped() throws Exception {
+        byte[] payload = new byte[200 * 1024];
+        for (int i = 0; i < 5; i++) {
+            packed.put("kept-" + i, new ByteArrayInputStream(payload), payload.length);
+        }
+        for (int i = 0; i < 5; i++) {
+            packed.put("deleted-" + i, new ByteArrayInputStream(payload), payload.length);
+        }
+        for (int i = 0; i < 5; i++) {
+            packed.delete("deleted-" + i);
+        }
+        packed.put("active", new ByteArrayInputStream(payload), payload.length);
+
+
+        int compacted = packed.compact();
+
+
+        assertEquals(1, compacted);
+        assertEquals(0, packed.garbageBytes());
+        packed.close();
+        packed = open();
+        assertFalse(packed.exists("deleted-0"));
+        assertTrue(packed.exists("kept-0"));
+    }
+
+    @Test
+    void compact_TombstoneOverOlderRecord_IsCarriedAndCountedAsLive() throws Exception {
+        byte[] payload = new byte[200 * 1024];
+        put("deleted", "deleted content");
+        for (int i = 0; i < 5; i++) {
+            packed.put("kept-" + i, new ByteArrayInputStream(payload), payload.length);
+        }
+        for (int i = 0; i < 5; i++) {
+            packed.put("garbage-" + i, new ByteArrayInputStream(payload), payload.length);
+        }
+        packed.delete("deleted");
+        for (int i = 0; i < 5; i++) {
+            packed.delete("garbage-" + i);
+        }
+        packed.put("active", new ByteArrayInputStream(payload), payload.length);
+
+
+        int compacted = packed.compact();
+
+
+        assertEquals(1, compacted);
+        // Мусор - только запись deleted в первом сегменте (заголовок 27 байт, ключ и данные), надгробие живое
+        assertEquals(27 + "deleted".length() + "deleted content".length(), packed.garbageBytes());
+        packed.close();
+        packed = open();
+        assertFalse(packed.exists("deleted"));
+    }
+
+    @Test
+    void put_SegmentCompactedBeforeSync_Succeeds() throws Exception {
+        InterceptingSync sync = new InterceptingSync();
+        PackedStorageBackend backend = new PackedStorageBackend(tempDir.resolve("race").toString(), sync,
+                THRESHOLD, SEGMENT_SIZE, 0.5);
+        byte[] garbage = new byte[250 * 1024];
+        for (int i = 0; i < 3; i++) {
+            backend.put("garbage-" + i, new ByteArrayInputStream(garbage), garbage.length);
+            backend.delete("garbage-" + i);
+        }
+        byte[] filler = new byte[THRESHOLD];
+        // Пока запись ждет сброса, сегмент перестает быть активным и уплотняется
+        sync.beforeForce = () -> {
+            backend.put("filler", new ByteArrayInputStream(filler), filler.length);
+            return backend.compact();
+        };
+
+        try {
+            byte[] bytes = "small content".getBytes(StandardCharsets.UTF_8);
+            backend.put("small", new ByteArrayInputStream(bytes), bytes.length);
+
+
+            assertNull(sync.beforeForce);
+            assertEquals(1, backend.segmentCount());
+            assertEquals("small content", read(backend.get("small")));
+        } finally {
+            backend.close();
+        }
+    }
+
+    private PackedStorageBackend open() throws Exception {
+        return new PackedStorageBackend(root().toString(), SYNC, THRESHOLD, SEGMENT_SIZE, 0.5);
+    }
+
+    private Path root() {
+        return tempDir.resolve("storage");
+    }
+
+    private Path[] segmentFiles() throws Exception {
+        try (Stream<Path> files = Files.list(root().resolve("segments"))) {
+            return files.sorted().toArray(Path[]::new);
+        }
+    }
+
+    private void put(String key, String content) throws Exception {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        packed.put(key, new ByteArrayInputStream(bytes), bytes.length);
+    }
+
+    private static String read(InputStream in) throws Exception {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class InterceptingSync extends StorageSync {
+
+        private Callable<?> beforeForce;
+
+        InterceptingSync() {
+            super(DurabilityMode.FILE, Duration.ZERO, 1);
+        }
+
+        @Override
+        public void force(FileChannel channel) throws IOException {
+            Callable<?> hook = beforeForce;
+            beforeForce = null;
+            if (hook != null) {
+                try {
+                    hook.call();
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+            super.force(channel);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package ru.netology.cloudservise.unit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import ru.netology.cloudservise.exception.ServiceOverloadedException;
+import ru.netology.cloudservise.security.PasswordHashingExecutor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class PasswordHashingExecutorTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    // Кодировщик, который держит поток пула до вызова release
+    private final PasswordEncoder blockingEncoder = new PasswordEncoder() {
+        @Override
+        public String encode(CharSequence rawPassword) {
+            return rawPassword.toString();
+        }
+
+        @Override
+        public boolean matches(CharSequence rawPassword, String encodedPassword) {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return rawPassword.toString().equals(encodedPassword);
+        }
+    };
+
+    private PasswordHashingExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void matches_DelegatesToEncoder() {
+
+        executor = new PasswordHashingExecutor(blockingEncoder, meterRegistry, 1, 1, 5_000, 2);
+        release.countDown();
+
+
+        assertTrue(executor.matches("secret", "secret"));
+        assertFalse(executor.matches("secret", "other"));
+        assertEquals(2, meterRegistry.get("auth.password.hash").timer().count());
+    }
+
+    @Test
+    void matchesDummy_FirstCall_CostsSingleHash() {
+
+        executor = new PasswordHashingExecutor(blockingEncoder, meterRegistry, 1, 1, 5_000, 2);
+        release.countDown();
+
+
+        assertFalse(executor.matchesDummy("secret"));
+        assertEquals(1, meterRegistry.get("auth.password.hash").timer().count());
+    }
+
+    @Test
+    void matches_QueueFull_RejectsImmediately() throws Exception {
+
+        executor = new PasswordHashingExecutor(blockingEncoder, meterRegistry, 1, 1, 5_000, 3);
+
+        CompletableFuture<Boolean> running = CompletableFuture.supplyAsync(() -> executor.matches("a", "a"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Boolean> queued = CompletableFuture.supplyAsync(() -> executor.matches("b", "b"));
+        while (meterRegistry.get("auth.password.hash.queue").gauge().value() < 1) {
+            Thread.onSpinWait();
+        }
+
+
+        ServiceOverloadedException exception = assertThrows(ServiceOverloadedException.class,
+                () -> executor.matches("c", "c"));
+
+
+        assertEquals(3, exception.getRetryAfterSeconds());
+        assertEquals(1.0, meterRegistry.get("auth.password.hash.rejected").counter().count());
+        release.countDown();
+        assertTrue(running.get(5, TimeUnit.SECONDS));
+        assertTrue(queued.get(5, TimeUnit.SECONDS));
+    }
+}
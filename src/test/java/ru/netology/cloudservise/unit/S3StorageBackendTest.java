@@ -0,0 +1,107 @@
+package ru.netology.cloudservise.unit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.netology.cloudservise.service.S3StorageBackend;
+import ru.netology.cloudservise.service.StorageBackend;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class S3StorageBackendTest extends StorageBackendConformanceTest {
+
+    private static final int PART_SIZE = 5 * 1024 * 1024;
+
+    private FakeS3Server server;
+
+    @Override
+    protected StorageBackend createBackend() throws Exception {
+        server = FakeS3Server.start("cloud-files");
+        return new S3StorageBackend(server.endpoint(), "cloud-files", "us-east-1", "access", "secret",
+                PART_SIZE + 1, PART_SIZE);
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    void requests_AreSignedWithSignatureV4() throws Exception {
+
+        backend.exists("object");
+
+
+        String authorization = server.lastAuthorization();
+        assertTrue(authorization.startsWith("AWS4-HMAC-SHA256 Credential=access/"));
+        assertTrue(authorization.contains("/us-east-1/s3/aws4_request"));
+        assertTrue(authorization.contains("SignedHeaders=host;x-amz-content-sha256;x-amz-date"));
+    }
+
+    @Test
+    void localPath_IsNotAvailable() {
+
+        assertTrue(backend.localPath("object").isEmpty());
+    }
+
+    @Test
+    void put_AboveMultipartThreshold_UploadsInParts() throws Exception {
+        byte[] content = new byte[2 * PART_SIZE + 1024];
+        new Random(7).nextBytes(content);
+
+        backend.put("large", new ByteArrayInputStream(content), content.length);
+
+
+        assertEquals(3, server.uploadedParts());
+        assertEquals(0, server.pendingUploads());
+        try (InputStream stored = backend.get("large")) {
+            assertArrayEquals(content, stored.readAllBytes());
+        }
+    }
+
+    @Test
+    void put_StreamShorterThanSize_AbortsMultipartUpload() throws Exception {
+        byte[] content = new byte[PART_SIZE + 1024];
+
+        assertThrows(IOException.class,
+                () -> backend.put("truncated", new ByteArrayInputStream(content), 2L * PART_SIZE));
+
+
+        assertEquals(0, server.pendingUploads());
+        assertFalse(backend.exists("truncated"));
+    }
+
+    @Test
+    void move_AboveMultipartThreshold_CopiesInParts() throws Exception {
+        byte[] content = new byte[PART_SIZE + 1024];
+        new Random(11).nextBytes(content);
+        backend.put("source", new ByteArrayInputStream(content), content.length);
+        int partsBeforeMove = server.uploadedParts();
+
+        backend.move("source", "target");
+
+
+        assertEquals(partsBeforeMove + 2, server.uploadedParts());
+        assertFalse(backend.exists("source"));
+        try (InputStream stored = backend.get("target")) {
+            assertArrayEquals(content, stored.readAllBytes());
+        }
+    }
+
+    @Test
+    void move_CopyFailsWithErrorBody_KeepsSource() throws Exception {
+        byte[] content = "small content".getBytes();
+        backend.put("source", new ByteArrayInputStream(content), content.length);
+        server.failNextCopy();
+
+        assertThrows(IOException.class, () -> backend.move("source", "target"));
+
+
+        assertTrue(backend.exists("source"));
+        assertFalse(backend.exists("target"));
+    }
+}
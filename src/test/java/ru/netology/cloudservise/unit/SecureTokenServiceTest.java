@@ -1,28 +1,53 @@
 package ru.netology.cloudservise.unit;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.mockito.stubbing.OngoingStubbing;
 import ru.netology.cloudservise.entity.AuthToken;
 import ru.netology.cloudservise.entity.User;
+import ru.netology.cloudservise.entity.RevokedToken;
 import ru.netology.cloudservise.repository.AuthTokenRepository;
+import ru.netology.cloudservise.repository.RevokedTokenRepository;
 import ru.netology.cloudservise.repository.UserRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.netology.cloudservise.security.AuthenticatedUser;
+import ru.netology.cloudservise.security.LoginAttemptLimiter;
+import ru.netology.cloudservise.security.OffHeapSessionTable;
+import ru.netology.cloudservise.security.PasswordHashingExecutor;
 import ru.netology.cloudservise.security.SecureTokenService;
-
+import ru.netology.cloudservise.security.SignedTokenCodec;
+import ru.netology.cloudservise.security.TokenCache;
+import ru.netology.cloudservise.security.TokenDigester;
+import ru.netology.cloudservise.security.TokenLookup;
+import ru.netology.cloudservise.security.TokenMode;
+import ru.netology.cloudservise.security.TokenRevocationList;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 
@@ -35,14 +60,33 @@ class SecureTokenServiceTest {
     @Mock
     private UserRepository userRepository;
 
+    @Mock
+    private RevokedTokenRepository revokedTokenRepository;
+
     private SecureTokenService tokenService;
     private User testUser;
     private PasswordEncoder passwordEncoder;
+    private TokenDigester tokenDigester;
+    private TokenCache tokenCache;
+    private OffHeapSessionTable sessionTable;
+    private LoginAttemptLimiter loginAttemptLimiter;
+    private TokenRevocationList revocationList;
 
     @BeforeEach
     void setUp() {
         passwordEncoder = new BCryptPasswordEncoder();
-        tokenService = new SecureTokenService(authTokenRepository, userRepository, passwordEncoder);
+        tokenDigester = new TokenDigester("test-secret");
+        tokenCache = new TokenCache(100, Duration.ofMinutes(5));
+        sessionTable = new OffHeapSessionTable(false, 1024, Duration.ofMinutes(5));
+        loginAttemptLimiter = new LoginAttemptLimiter(new SimpleMeterRegistry(), 5, 2, Duration.ofMinutes(15), 1000);
+        revocationList = new TokenRevocationList(revokedTokenRepository, 1024);
+        tokenService = new SecureTokenService(authTokenRepository, userRepository,
+                new PasswordHashingExecutor(passwordEncoder, new SimpleMeterRegistry(), 1, 4, 10_000, 2),
+                tokenDigester, sessionTable, tokenCache,
+                new SignedTokenCodec(tokenDigester), revocationList,
+                loginAttemptLimiter);
+        // Переходный период по умолчанию заканчивается в фиксированную дату; тесты не должны от нее зависеть
+        ReflectionTestUtils.setField(tokenService, "legacyMigrationUntil", Instant.now().plus(Duration.ofDays(1)));
 
         testUser = new User();
         testUser.setId(1L);
@@ -140,108 +184,271 @@ class SecureTokenServiceTest {
     @Test
     void validateToken_ValidToken_ReturnsUser() {
 
-        String rawToken = "valid_token_123";
-        String tokenHash = passwordEncoder.encode(rawToken);
+        String rawToken = tokenDigester.generateToken();
 
-        AuthToken authToken = new AuthToken();
-        authToken.setTokenHash(tokenHash);
-        authToken.setUser(testUser);
-        authToken.setExpiresAt(LocalDateTime.now().plusHours(24));
+        TokenLookup authToken = new TokenLookup(
+                tokenDigester.digest(rawToken), LocalDateTime.now().plusHours(24), 1L, "testuser");
 
-        List<AuthToken> activeTokens = Arrays.asList(authToken);
-        when(authTokenRepository.findAllActiveTokens(any(LocalDateTime.class))).thenReturn(activeTokens);
+        when(authTokenRepository.findByTokenHash(tokenDigester.digest(rawToken))).thenReturn(Optional.of(authToken));
 
 
-        Optional<User> result = tokenService.validateToken(rawToken);
+        Optional<AuthenticatedUser> result = tokenService.validateToken(rawToken);
 
         assertTrue(result.isPresent());
-        assertEquals(testUser, result.get());
-        verify(authTokenRepository).findAllActiveTokens(any(LocalDateTime.class));
+        assertEquals(new AuthenticatedUser(1L, "testuser"), result.get());
+        verify(authTokenRepository, never()).findActiveLegacyTokens(any(LocalDateTime.class), any(Limit.class));
+    }
+
+    @Test
+    void validateToken_CachedToken_SkipsRepository() {
+
+        String rawToken = tokenDigester.generateToken();
+
+        TokenLookup authToken = new TokenLookup(
+                tokenDigester.digest(rawToken), LocalDateTime.now().plusHours(24), 1L, "testuser");
+
+        when(authTokenRepository.findByTokenHash(tokenDigester.digest(rawToken))).thenReturn(Optional.of(authToken));
+
+
+        tokenService.validateToken(rawToken);
+        Optional<AuthenticatedUser> result = tokenService.validateToken(rawToken);
+
+
+        assertTrue(result.isPresent());
+        assertEquals(new AuthenticatedUser(1L, "testuser"), result.get());
+        verify(authTokenRepository, times(1)).findByTokenHash(anyString());
+    }
+
+    @Test
+    void validateToken_SessionTableEnabled_ServesFromTable() {
+
+        sessionTable = new OffHeapSessionTable(true, 1024, Duration.ofMinutes(5));
+        ReflectionTestUtils.setField(tokenService, "sessionTable", sessionTable);
+        String rawToken = tokenDigester.generateToken();
+
+        TokenLookup authToken = new TokenLookup(
+                tokenDigester.digest(rawToken), LocalDateTime.now().plusHours(24), 1L, "testuser");
+
+        when(authTokenRepository.findByTokenHash(tokenDigester.digest(rawToken))).thenReturn(Optional.of(authToken));
+
+
+        tokenService.validateToken(rawToken);
+        Optional<AuthenticatedUser> result = tokenService.validateToken(rawToken);
+
+
+        assertEquals(Optional.of(new AuthenticatedUser(1L, "testuser")), result);
+        assertEquals(1, sessionTable.size());
+        assertTrue(tokenCache.get(tokenDigester.digest(rawToken)).isEmpty());
+        verify(authTokenRepository, times(1)).findByTokenHash(anyString());
+        sessionTable.close();
+    }
+
+    @Test
+    void logout_CachedToken_EvictsFromCache() {
+
+        String rawToken = tokenDigester.generateToken();
+
+        TokenLookup authToken = new TokenLookup(
+                tokenDigester.digest(rawToken), LocalDateTime.now().plusHours(24), 1L, "testuser");
+
+        when(authTokenRepository.findByTokenHash(tokenDigester.digest(rawToken)))
+                .thenReturn(Optional.of(authToken))
+                .thenReturn(Optional.of(authToken))
+                .thenReturn(Optional.empty());
+
+
+        tokenService.validateToken(rawToken);
+        tokenService.logout(rawToken);
+        Optional<AuthenticatedUser> result = tokenService.validateToken(rawToken);
+
+
+        assertFalse(result.isPresent());
+        assertTrue(tokenCache.get(tokenDigester.digest(rawToken)).isEmpty());
+        verify(authTokenRepository).deleteByTokenHash(tokenDigester.digest(rawToken));
+    }
+
+    @Test
+    void logout_InTransaction_EvictsOnlyAfterCommit() {
+
+        String rawToken = tokenDigester.generateToken();
+        String digest = tokenDigester.digest(rawToken);
+        TokenLookup authToken = new TokenLookup(digest, LocalDateTime.now().plusHours(24), 1L, "testuser");
+        when(authTokenRepository.findByTokenHash(digest)).thenReturn(Optional.of(authToken));
+        tokenService.validateToken(rawToken);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            tokenService.logout(rawToken);
+            assertTrue(tokenCache.get(digest).isPresent());
+
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+
+            assertTrue(tokenCache.get(digest).isEmpty());
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void validateToken_ConnectionPoolExhausted_Propagates() {
+
+        when(authTokenRepository.findByTokenHash(anyString()))
+                .thenThrow(new CannotCreateTransactionException("Could not open JPA EntityManager for transaction"));
+
+
+        assertThrows(CannotCreateTransactionException.class, () -> tokenService.validateToken("some_token"));
     }
 
     @Test
     void validateToken_InvalidToken_ReturnsEmpty() {
 
         String rawToken = "invalid_token";
-        String tokenHash = passwordEncoder.encode("different_token");
+
+        when(authTokenRepository.findByTokenHash(anyString())).thenReturn(Optional.empty());
+
+
+        Optional<AuthenticatedUser> result = tokenService.validateToken(rawToken);
+
+
+        assertFalse(result.isPresent());
+        verify(authTokenRepository).findByTokenHash(tokenDigester.digest(rawToken));
+        verify(authTokenRepository, never()).findActiveLegacyTokens(any(LocalDateTime.class), any(Limit.class));
+    }
+
+    @Test
+    void validateToken_ExpiredToken_ReturnsEmpty() {
+
+        String rawToken = tokenDigester.generateToken();
+
+        TokenLookup authToken = new TokenLookup(
+                tokenDigester.digest(rawToken), LocalDateTime.now().minusHours(1), 1L, "testuser"); // Просроченный
+
+        when(authTokenRepository.findByTokenHash(tokenDigester.digest(rawToken))).thenReturn(Optional.of(authToken));
+
+
+        Optional<AuthenticatedUser> result = tokenService.validateToken(rawToken);
+
+
+        assertFalse(result.isPresent());
+    }
+
+    @Test
+    void validateToken_LegacyToken_MigratesToDigest() {
+
+        String rawToken = UUID.randomUUID().toString();
 
         AuthToken authToken = new AuthToken();
-        authToken.setTokenHash(tokenHash);
+        authToken.setTokenHash(passwordEncoder.encode(rawToken));
         authToken.setUser(testUser);
         authToken.setExpiresAt(LocalDateTime.now().plusHours(24));
 
-        List<AuthToken> activeTokens = Arrays.asList(authToken);
-        when(authTokenRepository.findAllActiveTokens(any(LocalDateTime.class))).thenReturn(activeTokens);
+        when(authTokenRepository.findByTokenHash(anyString())).thenReturn(Optional.empty());
+        when(authTokenRepository.findActiveLegacyTokens(any(LocalDateTime.class), any(Limit.class))).thenReturn(List.of(authToken));
+
+
+        Optional<AuthenticatedUser> result = tokenService.validateToken(rawToken);
+
+
+        assertTrue(result.isPresent());
+        assertEquals(tokenDigester.digest(rawToken), authToken.getTokenHash());
+        verify(authTokenRepository).save(authToken);
+    }
+
+    @Test
+    void validateToken_NoLegacyTokensLeft_StopsScanning() {
+
+        when(authTokenRepository.findByTokenHash(anyString())).thenReturn(Optional.empty());
+        when(authTokenRepository.findActiveLegacyTokens(any(LocalDateTime.class), eq(Limit.of(100))))
+                .thenReturn(List.of());
 
 
-        Optional<User> result = tokenService.validateToken(rawToken);
+        tokenService.validateToken(UUID.randomUUID().toString());
+        Optional<AuthenticatedUser> result = tokenService.validateToken(UUID.randomUUID().toString());
 
 
         assertFalse(result.isPresent());
-        verify(authTokenRepository).findAllActiveTokens(any(LocalDateTime.class));
+        verify(authTokenRepository, times(1)).findActiveLegacyTokens(any(LocalDateTime.class), any(Limit.class));
     }
 
     @Test
-    void validateToken_ExpiredToken_ReturnsEmpty() {
+    void validateToken_RepeatedUnknownLegacyTokensFromOneIp_ScanThrottled() {
 
-        String rawToken = "expired_token";
-        String tokenHash = passwordEncoder.encode(rawToken);
+        AuthToken otherToken = new AuthToken();
+        otherToken.setTokenHash(passwordEncoder.encode(UUID.randomUUID().toString()));
+        otherToken.setUser(testUser);
+        otherToken.setExpiresAt(LocalDateTime.now().plusHours(24));
+        when(authTokenRepository.findByTokenHash(anyString())).thenReturn(Optional.empty());
+        when(authTokenRepository.findActiveLegacyTokens(any(LocalDateTime.class), any(Limit.class))).thenReturn(List.of(otherToken));
 
-        AuthToken authToken = new AuthToken();
-        authToken.setTokenHash(tokenHash);
-        authToken.setUser(testUser);
-        authToken.setExpiresAt(LocalDateTime.now().minusHours(1)); // Просроченный
 
-        List<AuthToken> activeTokens = Arrays.asList();
-        when(authTokenRepository.findAllActiveTokens(any(LocalDateTime.class))).thenReturn(activeTokens);
+        for (int i = 0; i < 5; i++) {
+            tokenService.validateToken(UUID.randomUUID().toString(), "10.0.0.1");
+        }
+        tokenService.validateToken(UUID.randomUUID().toString(), "10.0.0.2");
 
 
-        Optional<User> result = tokenService.validateToken(rawToken);
+        // Два неудачных перебора с первого адреса исчерпывают его лимит, второй адрес не затронут
+        verify(authTokenRepository, times(3)).findActiveLegacyTokens(any(LocalDateTime.class), any(Limit.class));
+    }
+
+    @Test
+    void validateToken_LegacyMigrationWindowClosed_SkipsScan() {
+
+        ReflectionTestUtils.setField(tokenService, "legacyMigrationUntil", Instant.now().minusSeconds(60));
+        when(authTokenRepository.findByTokenHash(anyString())).thenReturn(Optional.empty());
+
+
+        Optional<AuthenticatedUser> result = tokenService.validateToken(UUID.randomUUID().toString());
 
 
         assertFalse(result.isPresent());
-        verify(authTokenRepository).findAllActiveTokens(any(LocalDateTime.class));
+        verify(authTokenRepository, never()).findActiveLegacyTokens(any(LocalDateTime.class), any(Limit.class));
+    }
+
+    @Test
+    void tokenDigester_PlaceholderOrMissingSecret_Rejected() {
+
+        assertThrows(IllegalStateException.class, () -> new TokenDigester("change-me-in-production"));
+        assertThrows(IllegalStateException.class, () -> new TokenDigester(""));
     }
 
     @Test
     void validateToken_NullToken_ReturnsEmpty() {
 
-        Optional<User> result = tokenService.validateToken(null);
+        Optional<AuthenticatedUser> result = tokenService.validateToken(null);
 
 
         assertFalse(result.isPresent());
-        verify(authTokenRepository, never()).findAllActiveTokens(any(LocalDateTime.class));
+        verify(authTokenRepository, never()).findByTokenHash(anyString());
     }
 
     @Test
     void validateToken_EmptyToken_ReturnsEmpty() {
 
-        Optional<User> result = tokenService.validateToken("");
+        Optional<AuthenticatedUser> result = tokenService.validateToken("");
 
 
         assertFalse(result.isPresent());
-        verify(authTokenRepository, never()).findAllActiveTokens(any(LocalDateTime.class));
+        verify(authTokenRepository, never()).findByTokenHash(anyString());
     }
 
     @Test
     void logout_ValidToken_DeletesToken() {
 
-        String rawToken = "valid_token";
-        String tokenHash = passwordEncoder.encode(rawToken);
+        String rawToken = tokenDigester.generateToken();
 
-        AuthToken authToken = new AuthToken();
-        authToken.setTokenHash(tokenHash);
-        authToken.setUser(testUser);
-        authToken.setExpiresAt(LocalDateTime.now().plusHours(24));
+        TokenLookup authToken = new TokenLookup(
+                tokenDigester.digest(rawToken), LocalDateTime.now().plusHours(24), 1L, "testuser");
 
-        List<AuthToken> activeTokens = Arrays.asList(authToken);
-        when(authTokenRepository.findAllActiveTokens(any(LocalDateTime.class))).thenReturn(activeTokens);
+        when(authTokenRepository.findByTokenHash(tokenDigester.digest(rawToken))).thenReturn(Optional.of(authToken));
 
 
         tokenService.logout(rawToken);
 
 
-        verify(authTokenRepository).delete(authToken);
+        verify(authTokenRepository).deleteByTokenHash(tokenDigester.digest(rawToken));
     }
 
     @Test
@@ -249,14 +456,13 @@ class SecureTokenServiceTest {
 
         String rawToken = "invalid_token";
 
-        List<AuthToken> activeTokens = Arrays.asList();
-        when(authTokenRepository.findAllActiveTokens(any(LocalDateTime.class))).thenReturn(activeTokens);
+        when(authTokenRepository.findByTokenHash(anyString())).thenReturn(Optional.empty());
 
 
         tokenService.logout(rawToken);
 
 
-        verify(authTokenRepository, never()).delete(any(AuthToken.class));
+        verify(authTokenRepository, never()).deleteByTokenHash(anyString());
     }
 
     @Test
@@ -265,26 +471,164 @@ class SecureTokenServiceTest {
         tokenService.logout(null);
 
 
-        verify(authTokenRepository, never()).findAllActiveTokens(any(LocalDateTime.class));
-        verify(authTokenRepository, never()).delete(any(AuthToken.class));
+        verify(authTokenRepository, never()).findByTokenHash(anyString());
+        verify(authTokenRepository, never()).deleteByTokenHash(anyString());
+    }
+
+    @Test
+    void signedMode_CreateAndValidate_NoDatabaseAccess() {
+
+        ReflectionTestUtils.setField(tokenService, "tokenMode", TokenMode.SIGNED);
+        ReflectionTestUtils.setField(tokenService, "tokenExpirationHours", 1);
+
+
+        String token = tokenService.createToken(testUser);
+        Optional<AuthenticatedUser> result = tokenService.validateToken(token);
+
+
+        assertTrue(result.isPresent());
+        assertEquals(1L, result.get().id());
+        assertEquals("testuser", result.get().login());
+        verifyNoInteractions(authTokenRepository);
+    }
+
+    @Test
+    void signedMode_TamperedToken_ReturnsEmpty() {
+
+        ReflectionTestUtils.setField(tokenService, "tokenMode", TokenMode.SIGNED);
+        ReflectionTestUtils.setField(tokenService, "tokenExpirationHours", 1);
+
+        String token = tokenService.createToken(testUser);
+        String tampered = token.substring(0, token.length() - 1) + (token.endsWith("0") ? "1" : "0");
+
+
+        Optional<AuthenticatedUser> result = tokenService.validateToken(tampered);
+
+
+        assertFalse(result.isPresent());
+    }
+
+    @Test
+    void signedMode_PayloadWithLookupDigest_ReturnsEmpty() {
+
+        ReflectionTestUtils.setField(tokenService, "tokenMode", TokenMode.SIGNED);
+        ReflectionTestUtils.setField(tokenService, "tokenExpirationHours", 1);
+
+        String token = tokenService.createToken(testUser);
+        String encodedPayload = token.substring(0, token.indexOf('.'));
+        String payload = new String(Base64.getUrlDecoder().decode(encodedPayload), StandardCharsets.UTF_8);
+
+
+        // Дайджест поиска от того же содержимого не должен приниматься как подпись
+        Optional<AuthenticatedUser> result = tokenService.validateToken(encodedPayload + "." + tokenDigester.digest(payload));
+
+
+        assertFalse(result.isPresent());
+    }
+
+    @Test
+    void signedMode_ExpiredToken_ReturnsEmpty() {
+
+        ReflectionTestUtils.setField(tokenService, "tokenMode", TokenMode.SIGNED);
+        ReflectionTestUtils.setField(tokenService, "tokenExpirationHours", -1);
+
+        String token = tokenService.createToken(testUser);
+
+
+        Optional<AuthenticatedUser> result = tokenService.validateToken(token);
+
+
+        assertFalse(result.isPresent());
+    }
+
+    @Test
+    void signedMode_Logout_RevokesToken() {
+
+        ReflectionTestUtils.setField(tokenService, "tokenMode", TokenMode.SIGNED);
+        ReflectionTestUtils.setField(tokenService, "tokenExpirationHours", 1);
+
+        String token = tokenService.createToken(testUser);
+
+
+        tokenService.logout(token);
+        Optional<AuthenticatedUser> result = tokenService.validateToken(token);
+
+
+        assertFalse(result.isPresent());
+        verify(revokedTokenRepository).save(any(RevokedToken.class));
+        verifyNoInteractions(authTokenRepository);
+    }
+
+    @Test
+    void signedMode_TokenRevokedOnAnotherInstance_RejectedAfterReload() {
+
+        ReflectionTestUtils.setField(tokenService, "tokenMode", TokenMode.SIGNED);
+        ReflectionTestUtils.setField(tokenService, "tokenExpirationHours", 1);
+        String token = tokenService.createToken(testUser);
+        RevokedToken revokedElsewhere = new RevokedToken();
+        revokedElsewhere.setTokenHash(tokenDigester.digest(token));
+        revokedElsewhere.setExpiresAt(LocalDateTime.now().plusHours(1));
+        when(revokedTokenRepository.findActive(any(LocalDateTime.class))).thenReturn(List.of(revokedElsewhere));
+
+
+        boolean acceptedBeforeReload = tokenService.validateToken(token).isPresent();
+        revocationList.reload();
+        Optional<AuthenticatedUser> result = tokenService.validateToken(token);
+
+
+        assertTrue(acceptedBeforeReload);
+        assertFalse(result.isPresent());
     }
 
     @Test
     void cleanupExpiredTokens_CallsRepository() {
 
-        when(authTokenRepository.deleteExpiredTokens(any(LocalDateTime.class))).thenReturn(5);
+        when(authTokenRepository.deleteExpiredBatch(any(LocalDateTime.class), eq(1000))).thenReturn(5);
+
+
+        int deleted = tokenService.cleanupExpiredTokens();
+
+
+        assertEquals(5, deleted);
+        verify(authTokenRepository, times(1)).deleteExpiredBatch(any(LocalDateTime.class), eq(1000));
+        verifyNoInteractions(revokedTokenRepository);
+    }
+
+    @Test
+    void cleanupExpiredTokens_SignedMode_PrunesRevocationsWithoutReload() {
+
+        ReflectionTestUtils.setField(tokenService, "tokenMode", TokenMode.SIGNED);
+        ReflectionTestUtils.setField(tokenService, "tokenExpirationHours", 1);
+        tokenService.logout(tokenService.createToken(testUser));
+        when(revokedTokenRepository.deleteExpired(any(LocalDateTime.class))).thenReturn(0);
 
 
         tokenService.cleanupExpiredTokens();
 
 
-        verify(authTokenRepository).deleteExpiredTokens(any(LocalDateTime.class));
+        verify(revokedTokenRepository).deleteExpired(any(LocalDateTime.class));
+        verify(revokedTokenRepository, never()).findActive(any(LocalDateTime.class));
+    }
+
+    @Test
+    void cleanupExpiredTokens_FullBatches_ContinuesUpToLimit() {
+
+        ReflectionTestUtils.setField(tokenService, "cleanupBatchSize", 10);
+        ReflectionTestUtils.setField(tokenService, "cleanupMaxBatches", 3);
+        when(authTokenRepository.deleteExpiredBatch(any(LocalDateTime.class), eq(10))).thenReturn(10);
+
+
+        int deleted = tokenService.cleanupExpiredTokens();
+
+
+        assertEquals(30, deleted);
+        verify(authTokenRepository, times(3)).deleteExpiredBatch(any(LocalDateTime.class), eq(10));
     }
 
     @Test
     void cleanupExpiredTokens_Exception_LogsError() {
 
-        when(authTokenRepository.deleteExpiredTokens(any(LocalDateTime.class)))
+        when(authTokenRepository.deleteExpiredBatch(any(LocalDateTime.class), anyInt()))
                 .thenThrow(new RuntimeException("Database error"));
 
 
@@ -293,6 +637,6 @@ class SecureTokenServiceTest {
         });
 
 
-        verify(authTokenRepository).deleteExpiredTokens(any(LocalDateTime.class));
+        verify(authTokenRepository).deleteExpiredBatch(any(LocalDateTime.class), anyInt());
     }
 }
\ No newline at end of file
@@ -0,0 +1,163 @@
+package ru.netology.cloudservise.unit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.netology.cloudservise.service.StorageBackend;
+import ru.netology.cloudservise.service.StorageObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Общие проверки контракта StorageBackend; каждая реализация подключается наследником с createBackend().
+ */
+abstract class StorageBackendConformanceTest {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageBackendConformanceTest.class);
+
+    @TempDir
+    Path tempDir;
+
+    protected StorageBackend backend;
+
+    protected abstract StorageBackend createBackend() throws Exception;
+
+    @BeforeEach
+    void createBackendUnderTest() throws Exception {
+        backend = createBackend();
+    }
+
+    @Test
+    void put_ThenGet_ReturnsSameBytes() throws Exception {
+
+        put("blobs/ab/cd/object", "file content");
+
+
+        assertEquals("file content", read(backend.get("blobs/ab/cd/object")));
+    }
+
+    @Test
+    void put_ExistingKey_ReplacesContent() throws Exception {
+
+        put("object", "first");
+        put("object", "second version");
+
+
+        assertEquals("second version", read(backend.get("object")));
+        assertEquals(14L, backend.stat("object").size());
+    }
+
+    @Test
+    void putFile_StoresLocalFile() throws Exception {
+
+        Path source = Files.writeString(tempDir.resolve("source"), "from file");
+
+
+        backend.putFile("object", source);
+
+
+        assertEquals("from file", read(backend.get("object")));
+    }
+
+    @Test
+    void get_Range_ReturnsOnlyRequestedBytes() throws Exception {
+
+        put("object", "file content");
+
+
+        assertEquals("content", read(backend.get("object", 5, 7)));
+        assertEquals("file", read(backend.get("object", 0, 4)));
+        assertEquals("", read(backend.get("object", 3, 0)));
+    }
+
+    @Test
+    void stat_ReturnsSizeAndModificationTime() throws Exception {
+
+        put("object", "file content");
+
+
+        StorageObject object = backend.stat("object");
+
+
+        assertEquals(12L, object.size());
+        assertNotNull(object.lastModified());
+    }
+
+    @Test
+    void missingObject_ReportedAsNoSuchFile() {
+
+        assertThrows(NoSuchFileException.class, () -> backend.stat("missing"));
+        assertThrows(NoSuchFileException.class, () -> read(backend.get("missing")));
+        assertThrows(NoSuchFileException.class, () -> read(backend.get("missing", 0, 1)));
+    }
+
+    @Test
+    void delete_RemovesObject() throws Exception {
+
+        put("object", "file content");
+
+
+        backend.delete("object");
+
+
+        assertFalse(backend.exists("object"));
+    }
+
+    @Test
+    void move_TransfersObjectToNewKey() throws Exception {
+
+        put("old/object", "file content");
+
+
+        backend.move("old/object", "new/object");
+
+
+        assertFalse(backend.exists("old/object"));
+        assertEquals("file content", read(backend.get("new/object")));
+    }
+
+    // Не проверяет порог скорости, чтобы не зависеть от машины; скорость пишется в лог для сравнения реализаций
+    @Test
+    void throughput_PutAndGetManyObjects() throws Exception {
+        int objects = 32;
+        byte[] payload = new byte[256 * 1024];
+        new Random(42).nextBytes(payload);
+
+        long started = System.nanoTime();
+        for (int i = 0; i < objects; i++) {
+            backend.put("bench/" + i, new ByteArrayInputStream(payload), payload.length);
+        }
+        long written = System.nanoTime();
+        for (int i = 0; i < objects; i++) {
+            try (InputStream in = backend.get("bench/" + i)) {
+                assertEquals(payload.length, in.readAllBytes().length);
+            }
+        }
+        long read = System.nanoTime();
+
+        double megabytes = (double) objects * payload.length / (1024 * 1024);
+        log.info("{}: запись {} МБ/с, чтение {} МБ/с", backend.getClass().getSimpleName(),
+                Math.round(megabytes / ((written - started) / 1e9)), Math.round(megabytes / ((read - written) / 1e9)));
+    }
+
+    private void put(String key, String content) throws Exception {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        backend.put(key, new ByteArrayInputStream(bytes), bytes.length);
+    }
+
+    private static String read(InputStream in) throws Exception {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package ru.netology.cloudservise.unit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.netology.cloudservise.entity.Blob;
+import ru.netology.cloudservise.entity.UserFile;
+import ru.netology.cloudservise.repository.BlobRepository;
+import ru.netology.cloudservise.repository.UserFileRepository;
+import ru.netology.cloudservise.service.BlobStore;
+import ru.netology.cloudservise.service.LocalStorageBackend;
+import ru.netology.cloudservise.service.StorageCodec;
+import ru.netology.cloudservise.service.StorageLayoutMigrator;
+import ru.netology.cloudservise.service.StorageSync;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StorageLayoutMigratorTest {
+
+    private static final String HASH = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+    private static final String KEY = "blobs/2c/f2/" + HASH;
+
+    @Mock
+    private BlobRepository blobRepository;
+
+    @Mock
+    private UserFileRepository userFileRepository;
+
+    @Mock
+    private BlobStore blobStore;
+
+    private StorageLayoutMigrator migrator;
+
+    @TempDir
+    Path storageDir;
+
+    @BeforeEach
+    void setUp() {
+        migrator = new StorageLayoutMigrator(blobRepository, userFileRepository, blobStore,
+                new LocalStorageBackend(storageDir.toString(), StorageSync.none()));
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    @Test
+    void migrateBlobs_FlatPath_MovesToFanoutAfterCommit() throws Exception {
+
+        Path flat = Files.writeString(Files.createDirectories(storageDir.resolve("blobs")).resolve(HASH), "hello");
+        Path fanout = storageDir.resolve("blobs/2c/f2").resolve(HASH);
+        Blob blob = blob(flat);
+        when(blobRepository.lockRange(1, 201)).thenReturn(List.of(blob));
+        when(blobStore.keyFor(HASH)).thenReturn(KEY);
+
+
+        int migrated = migrator.migrateBlobs(1, 201);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+
+        assertEquals(1, migrated);
+        assertEquals(KEY, blob.getStoragePath());
+        verify(userFileRepository).updateStoragePathByBlobId(7L, KEY);
+        assertEquals("hello", Files.readString(fanout));
+        assertFalse(Files.exists(flat));
+    }
+
+    @Test
+    void migrateBlobs_RolledBack_KeepsOldPathAndRemovesLink() throws Exception {
+
+        Path flat = Files.writeString(Files.createDirectories(storageDir.resolve("blobs")).resolve(HASH), "hello");
+        Path fanout = storageDir.resolve("blobs/2c/f2").resolve(HASH);
+        when(blobRepository.lockRange(1, 201)).thenReturn(List.of(blob(flat)));
+        when(blobStore.keyFor(HASH)).thenReturn(KEY);
+
+
+        migrator.migrateBlobs(1, 201);
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+
+        assertTrue(Files.exists(flat));
+        assertFalse(Files.exists(fanout));
+    }
+
+    @Test
+    void migrateBlobs_AlreadyInLayout_Skipped() throws Exception {
+
+        Blob blob = blob(storageDir.resolve(KEY));
+        blob.setStoragePath(KEY);
+        when(blobRepository.lockRange(1, 201)).thenReturn(List.of(blob));
+        when(blobStore.keyFor(HASH)).thenReturn(KEY);
+
+
+        assertEquals(0, migrator.migrateBlobs(1, 201));
+        verifyNoInteractions(userFileRepository);
+    }
+
+    @Test
+    void migrateBlobs_PathWithStorageRoot_OnlyRewritesKey() throws Exception {
+
+        Path fanout = Files.writeString(Files.createDirectories(storageDir.resolve("blobs/2c/f2")).resolve(HASH), "hello");
+        Blob blob = blob(fanout);
+        when(blobRepository.lockRange(1, 201)).thenReturn(List.of(blob));
+        when(blobStore.keyFor(HASH)).thenReturn(KEY);
+
+
+        int migrated = migrator.migrateBlobs(1, 201);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+
+        assertEquals(1, migrated);
+        assertEquals(KEY, blob.getStoragePath());
+        verify(userFileRepository).updateStoragePathByBlobId(7L, KEY);
+        assertEquals("hello", Files.readString(fanout));
+    }
+
+    @Test
+    void migrateLegacyFiles_CopiesIntoBlobStoreAndDeletesOldFileAfterCommit() throws Exception {
+
+        Path legacy = Files.writeString(Files.createDirectories(storageDir.resolve("1")).resolve("file.txt"), "hello");
+        UserFile userFile = new UserFile();
+        userFile.setId(3L);
+        userFile.setStoragePath(legacy.toString());
+        Blob blob = blob(storageDir.resolve("blobs/2c/f2").resolve(HASH));
+        blob.setCodec(StorageCodec.NONE);
+        when(userFileRepository.lockLegacyRange(1, 201)).thenReturn(List.of(userFile));
+        when(blobStore.store(any(InputStream.class))).thenReturn(blob);
+
+
+        int migrated = migrator.migrateLegacyFiles(1, 201);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+
+        assertEquals(1, migrated);
+        assertSame(blob, userFile.getBlob());
+        assertEquals(blob.getStoragePath(), userFile.getStoragePath());
+        assertFalse(Files.exists(legacy));
+    }
+
+    private static void complete(int status) {
+        TransactionSynchronizationManager.getSynchronizations().forEach(sync -> sync.afterCompletion(status));
+    }
+
+    private static Blob blob(Path path) {
+        Blob blob = new Blob();
+        blob.setId(7L);
+        blob.setContentHash(HASH);
+        blob.setSize(5L);
+        blob.setStoragePath(path.toString());
+        blob.setRefCount(1);
+        return blob;
+    }
+}
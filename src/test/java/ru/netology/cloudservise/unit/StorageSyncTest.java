@@ -0,0 +1,153 @@
+package ru.netology.cloudservise.unit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.netology.cloudservise.service.DurabilityMode;
+import ru.netology.cloudservise.service.StorageSync;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageSyncTest {
+
+    @TempDir
+    Path storageDir;
+
+    private StorageSync sync;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        sync.close();
+    }
+
+    @Test
+    void force_GroupMode_ConcurrentRequestsShareOneFsync() throws Exception {
+
+        sync = new StorageSync(DurabilityMode.GROUP, Duration.ofMillis(200), 64);
+        int writers = 16;
+
+        try (FileChannel segment = FileChannel.open(Files.writeString(storageDir.resolve("segment"), "data"),
+                StandardOpenOption.WRITE)) {
+            runConcurrently(writers, i -> sync.force(segment));
+        }
+
+
+        assertEquals(writers, sync.requestCount());
+        assertTrue(sync.flushCount() < writers, "fsync выполнено " + sync.flushCount() + " раз");
+    }
+
+    @Test
+    void force_GroupModeSeparateFiles_SyncedByCallersWithoutWaitingForWindow() throws Exception {
+
+        sync = new StorageSync(DurabilityMode.GROUP, Duration.ofSeconds(30), 64);
+        int writers = 16;
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            files.add(Files.writeString(storageDir.resolve("file" + i), "data"));
+        }
+
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> runConcurrently(writers, i -> {
+            sync.force(files.get(i));
+            sync.force(storageDir);
+        }));
+
+
+        assertEquals(2 * writers, sync.requestCount());
+        assertEquals(2 * writers, sync.flushCount());
+    }
+
+    @Test
+    void force_FileMode_FlushesEveryRequest() throws Exception {
+
+        sync = new StorageSync(DurabilityMode.FILE, Duration.ZERO, 1);
+        Path file = Files.writeString(storageDir.resolve("file"), "data");
+
+
+        sync.force(file);
+        sync.force(file);
+        sync.force(storageDir);
+
+
+        assertEquals(3, sync.flushCount());
+    }
+
+    @Test
+    void force_NoneMode_SkipsFsync() throws Exception {
+
+        sync = StorageSync.none();
+
+
+        sync.force(storageDir.resolve("missing"));
+
+
+        assertEquals(0, sync.requestCount());
+        assertEquals(0, sync.flushCount());
+    }
+
+    @Test
+    void force_GroupModeMissingFile_FailsOnlyThatRequest() throws Exception {
+
+        sync = new StorageSync(DurabilityMode.GROUP, Duration.ZERO, 64);
+        Path file = Files.writeString(storageDir.resolve("file"), "data");
+
+
+        assertThrows(NoSuchFileException.class, () -> sync.force(storageDir.resolve("missing")));
+        sync.force(file);
+    }
+
+    @Test
+    void force_GroupModeAfterClose_Rejected() throws Exception {
+
+        sync = new StorageSync(DurabilityMode.GROUP, Duration.ZERO, 64);
+
+        try (FileChannel segment = FileChannel.open(Files.writeString(storageDir.resolve("segment"), "data"),
+                StandardOpenOption.WRITE)) {
+            sync.close();
+
+
+            assertThrows(IOException.class, () -> sync.force(segment));
+        }
+    }
+
+    private static void runConcurrently(int writers, Writer writer) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < writers; i++) {
+                int index = i;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    writer.write(index);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Writer {
+        void write(int index) throws IOException;
+    }
+}
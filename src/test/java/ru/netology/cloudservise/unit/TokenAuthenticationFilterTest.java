@@ -1,6 +1,7 @@
 package ru.netology.cloudservise.unit;
 
-import ru.netology.cloudservise.entity.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.servlet.ServletException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -10,10 +11,24 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.transaction.CannotCreateTransactionException;
+import ru.netology.cloudservise.repository.AuthTokenRepository;
+import ru.netology.cloudservise.repository.RevokedTokenRepository;
+import ru.netology.cloudservise.repository.UserRepository;
+import ru.netology.cloudservise.security.AuthenticatedUser;
+import ru.netology.cloudservise.security.LoginAttemptLimiter;
+import ru.netology.cloudservise.security.OffHeapSessionTable;
+import ru.netology.cloudservise.security.PasswordHashingExecutor;
 import ru.netology.cloudservise.security.SecureTokenService;
+import ru.netology.cloudservise.security.SignedTokenCodec;
 import ru.netology.cloudservise.security.TokenAuthenticationFilter;
+import ru.netology.cloudservise.security.TokenCache;
+import ru.netology.cloudservise.security.TokenDigester;
+import ru.netology.cloudservise.security.TokenRevocationList;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -27,11 +42,20 @@ class TokenAuthenticationFilterTest {
     @Mock
     private SecureTokenService tokenService;
 
+    @Mock
+    private AuthTokenRepository authTokenRepository;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private RevokedTokenRepository revokedTokenRepository;
+
     private TokenAuthenticationFilter tokenAuthenticationFilter;
 
     @BeforeEach
     void setUp() {
-        tokenAuthenticationFilter = new TokenAuthenticationFilter(tokenService);
+        tokenAuthenticationFilter = new TokenAuthenticationFilter(tokenService, new ObjectMapper());
         SecurityContextHolder.clearContext();
     }
 
@@ -42,11 +66,10 @@ class TokenAuthenticationFilterTest {
         MockHttpServletResponse response = new MockHttpServletResponse();
 
         String validToken = "valid_token";
-        User user = new User();
-        user.setLogin("testuser");
+        AuthenticatedUser user = new AuthenticatedUser(1L, "testuser");
 
         request.addHeader("auth-token", validToken);
-        when(tokenService.validateToken(validToken)).thenReturn(Optional.of(user));
+        when(tokenService.validateToken(validToken, "127.0.0.1")).thenReturn(Optional.of(user));
 
 
         tokenAuthenticationFilter.doFilterInternal(request, response, (req, res) -> {});
@@ -54,7 +77,7 @@ class TokenAuthenticationFilterTest {
 
         assertNotNull(SecurityContextHolder.getContext().getAuthentication());
         assertEquals(user, SecurityContextHolder.getContext().getAuthentication().getPrincipal());
-        verify(tokenService).validateToken(validToken);
+        verify(tokenService).validateToken(validToken, "127.0.0.1");
     }
 
     @Test
@@ -65,13 +88,13 @@ class TokenAuthenticationFilterTest {
 
         String invalidToken = "invalid_token";
         request.addHeader("auth-token", invalidToken);
-        when(tokenService.validateToken(invalidToken)).thenReturn(Optional.empty());
+        when(tokenService.validateToken(invalidToken, "127.0.0.1")).thenReturn(Optional.empty());
 
 
         tokenAuthenticationFilter.doFilterInternal(request, response, (req, res) -> {});
 
         assertNull(SecurityContextHolder.getContext().getAuthentication());
-        verify(tokenService).validateToken(invalidToken);
+        verify(tokenService).validateToken(invalidToken, "127.0.0.1");
     }
 
     @Test
@@ -85,7 +108,7 @@ class TokenAuthenticationFilterTest {
 
 
         assertNull(SecurityContextHolder.getContext().getAuthentication());
-        verify(tokenService, never()).validateToken(anyString());
+        verify(tokenService, never()).validateToken(anyString(), any());
     }
 
     @Test
@@ -101,7 +124,7 @@ class TokenAuthenticationFilterTest {
 
 
         assertNull(SecurityContextHolder.getContext().getAuthentication());
-        verify(tokenService, never()).validateToken(anyString());
+        verify(tokenService, never()).validateToken(anyString(), any());
     }
 
     @Test
@@ -112,14 +135,40 @@ class TokenAuthenticationFilterTest {
 
         String token = "problematic_token";
         request.addHeader("auth-token", token);
-        when(tokenService.validateToken(token)).thenThrow(new RuntimeException("Validation error"));
+        when(tokenService.validateToken(token, "127.0.0.1")).thenThrow(new RuntimeException("Validation error"));
 
 
         tokenAuthenticationFilter.doFilterInternal(request, response, (req, res) -> {});
 
 
         assertNull(SecurityContextHolder.getContext().getAuthentication());
-        verify(tokenService).validateToken(token);
+        verify(tokenService).validateToken(token, "127.0.0.1");
+    }
+
+    @Test
+    void doFilterInternal_DatabaseUnavailable_Returns503WithoutContinuingChain() throws ServletException, IOException {
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        request.addHeader("auth-token", "token");
+        when(authTokenRepository.findByTokenHash(anyString())).thenThrow(new CannotCreateTransactionException("pool exhausted"));
+        TokenDigester tokenDigester = new TokenDigester("test-secret");
+        SecureTokenService realTokenService = new SecureTokenService(authTokenRepository, userRepository,
+                new PasswordHashingExecutor(new BCryptPasswordEncoder(4), new SimpleMeterRegistry(), 1, 1, 10, 1),
+                tokenDigester, new OffHeapSessionTable(false, 16, Duration.ofMinutes(5)),
+                new TokenCache(16, Duration.ofMinutes(5)), new SignedTokenCodec(tokenDigester),
+                new TokenRevocationList(revokedTokenRepository, 16),
+                new LoginAttemptLimiter(new SimpleMeterRegistry(), 5, 20, Duration.ofMinutes(15), 16));
+
+
+        new TokenAuthenticationFilter(realTokenService, new ObjectMapper())
+                .doFilterInternal(request, response, (req, res) -> fail("Цепочка не должна продолжаться"));
+
+
+        assertEquals(503, response.getStatus());
+        assertEquals("1", response.getHeader("Retry-After"));
+        assertNull(SecurityContextHolder.getContext().getAuthentication());
     }
 
     @Test
@@ -0,0 +1,259 @@
+package ru.netology.cloudservise.unit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.netology.cloudservise.dto.CreateUploadRequest;
+import ru.netology.cloudservise.dto.UploadSessionResponse;
+import ru.netology.cloudservise.entity.UploadSession;
+import ru.netology.cloudservise.entity.UploadStatus;
+import ru.netology.cloudservise.exception.UploadSessionException;
+import ru.netology.cloudservise.repository.UploadSessionRepository;
+import ru.netology.cloudservise.repository.UserRepository;
+import ru.netology.cloudservise.security.AuthenticatedUser;
+import ru.netology.cloudservise.service.FileStorageService;
+import ru.netology.cloudservise.service.UploadSessionService;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UploadSessionServiceTest {
+
+    @Mock
+    private UploadSessionRepository uploadSessionRepository;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private FileStorageService fileStorageService;
+
+    @TempDir
+    Path storageDir;
+
+    private UploadSessionService uploadSessionService;
+    private AuthenticatedUser testUser;
+
+    @BeforeEach
+    void setUp() {
+        uploadSessionService = new UploadSessionService(uploadSessionRepository, userRepository, fileStorageService);
+        uploadSessionService.storagePath = storageDir.toString();
+
+        testUser = new AuthenticatedUser(1L, "testuser");
+    }
+
+    @Test
+    void createSession_SplitsFileIntoChunks() throws Exception {
+
+        when(uploadSessionRepository.save(any(UploadSession.class))).thenAnswer(invocation -> {
+            UploadSession session = invocation.getArgument(0);
+            session.setId(10L);
+            return session;
+        });
+
+
+        UploadSessionResponse response = uploadSessionService.createSession(testUser,
+                new CreateUploadRequest("big.bin", 10L, 4L));
+
+
+        assertEquals(10L, response.uploadId());
+        assertEquals(3, response.chunkCount());
+        assertTrue(response.receivedChunks().isEmpty());
+        assertTrue(Files.isDirectory(storageDir.resolve(".uploads").resolve("10")));
+    }
+
+    @Test
+    void writeChunk_OutOfOrder_ReportsReceivedChunks() throws Exception {
+
+        openSession(10L, 10L, 4L);
+
+
+        uploadSessionService.writeChunk(testUser, 10L, 2, stream("89"));
+        uploadSessionService.writeChunk(testUser, 10L, 0, stream("0123"));
+
+
+        assertEquals(List.of(0, 2), uploadSessionService.getSession(testUser, 10L).receivedChunks());
+    }
+
+    @Test
+    void writeChunk_WrongSize_IsRejected() throws Exception {
+
+        openSession(10L, 10L, 4L);
+
+
+        assertThrows(UploadSessionException.class,
+                () -> uploadSessionService.writeChunk(testUser, 10L, 0, stream("01234")));
+        assertThrows(UploadSessionException.class,
+                () -> uploadSessionService.writeChunk(testUser, 10L, 1, stream("45")));
+
+
+        assertTrue(uploadSessionService.getSession(testUser, 10L).receivedChunks().isEmpty());
+    }
+
+    @Test
+    void commit_MissingChunks_IsRejected() throws Exception {
+
+        openSession(10L, 10L, 4L);
+        uploadSessionService.writeChunk(testUser, 10L, 0, stream("0123"));
+
+
+        assertThrows(UploadSessionException.class, () -> uploadSessionService.commit(testUser, 10L));
+
+
+        verify(uploadSessionRepository, never()).updateStatus(any(), any(), any(), any());
+        verify(fileStorageService, never()).storeFile(any(), any(), any(InputStream.class));
+    }
+
+    @Test
+    void commit_AllChunks_AssemblesFileInOrder() throws Exception {
+
+        UploadSession session = openSession(10L, 10L, 4L);
+        uploadSessionService.writeChunk(testUser, 10L, 1, stream("4567"));
+        uploadSessionService.writeChunk(testUser, 10L, 2, stream("89"));
+        uploadSessionService.writeChunk(testUser, 10L, 0, stream("0123"));
+        when(uploadSessionRepository.updateStatus(eq(10L), eq(UploadStatus.OPEN), eq(UploadStatus.COMMITTING), any(LocalDateTime.class)))
+                .thenReturn(1);
+
+        AtomicReference<String> stored = new AtomicReference<>();
+        doAnswer(invocation -> {
+            stored.set(new String(invocation.getArgument(2, InputStream.class).readAllBytes(), StandardCharsets.US_ASCII));
+            return null;
+        }).when(fileStorageService).storeFile(eq(testUser), eq("big.bin"), any(InputStream.class));
+
+
+        uploadSessionService.commit(testUser, 10L);
+
+
+        assertEquals("0123456789", stored.get());
+        verify(uploadSessionRepository).deleteByIdAndStatus(10L, UploadStatus.COMMITTING);
+        assertFalse(Files.exists(storageDir.resolve(".uploads").resolve("10")));
+    }
+
+    @Test
+    void cleanupExpiredSessions_DeletesSessionAndChunks() throws Exception {
+
+        UploadSession session = openSession(10L, 10L, 4L);
+        uploadSessionService.writeChunk(testUser, 10L, 0, stream("0123"));
+        when(uploadSessionRepository.findTop100ByStatusAndExpiresAtBefore(eq(UploadStatus.OPEN), any(LocalDateTime.class)))
+                .thenReturn(List.of(session));
+        when(uploadSessionRepository.deleteByIdAndStatus(10L, UploadStatus.OPEN)).thenReturn(1);
+
+
+        int deleted = uploadSessionService.cleanupExpiredSessions();
+
+
+        assertEquals(1, deleted);
+        assertFalse(Files.exists(storageDir.resolve(".uploads").resolve("10")));
+    }
+
+    @Test
+    void cleanupExpiredSessions_CommitStartedMeanwhile_KeepsChunks() throws Exception {
+
+        UploadSession session = openSession(10L, 10L, 4L);
+        uploadSessionService.writeChunk(testUser, 10L, 0, stream("0123"));
+        when(uploadSessionRepository.findTop100ByStatusAndExpiresAtBefore(eq(UploadStatus.OPEN), any(LocalDateTime.class)))
+                .thenReturn(List.of(session));
+        when(uploadSessionRepository.deleteByIdAndStatus(10L, UploadStatus.OPEN)).thenReturn(0);
+
+
+        int deleted = uploadSessionService.cleanupExpiredSessions();
+
+
+        assertEquals(0, deleted);
+        assertTrue(Files.exists(storageDir.resolve(".uploads").resolve("10").resolve("0.part")));
+    }
+
+    @Test
+    void cleanupExpiredSessions_StaleCommit_ReopenedAndDeletedWhenExpired() throws Exception {
+
+        UploadSession session = openSession(10L, 10L, 4L);
+        uploadSessionService.writeChunk(testUser, 10L, 0, stream("0123"));
+        when(uploadSessionRepository.updateStaleStatus(eq(UploadStatus.COMMITTING), eq(UploadStatus.OPEN), any(LocalDateTime.class)))
+                .thenReturn(1);
+        when(uploadSessionRepository.findTop100ByStatusAndExpiresAtBefore(eq(UploadStatus.OPEN), any(LocalDateTime.class)))
+                .thenReturn(List.of(session));
+        when(uploadSessionRepository.deleteByIdAndStatus(10L, UploadStatus.OPEN)).thenReturn(1);
+
+
+        int deleted = uploadSessionService.cleanupExpiredSessions();
+
+
+        assertEquals(1, deleted);
+        assertFalse(Files.exists(storageDir.resolve(".uploads").resolve("10")));
+        verify(uploadSessionRepository).updateStaleStatus(eq(UploadStatus.COMMITTING), eq(UploadStatus.OPEN),
+                argThat(before -> before.isBefore(LocalDateTime.now().minusMinutes(59))));
+    }
+
+    @Test
+    void abort_CommitStartedMeanwhile_KeepsChunks() throws Exception {
+
+        openSession(10L, 10L, 4L);
+        uploadSessionService.writeChunk(testUser, 10L, 0, stream("0123"));
+        when(uploadSessionRepository.deleteByIdAndStatus(10L, UploadStatus.OPEN)).thenReturn(0);
+
+
+        assertThrows(UploadSessionException.class, () -> uploadSessionService.abort(testUser, 10L));
+
+
+        assertTrue(Files.exists(storageDir.resolve(".uploads").resolve("10").resolve("0.part")));
+        verify(uploadSessionRepository, never()).delete(any());
+    }
+
+    @Test
+    void abort_OpenSession_DeletesSessionAndChunks() throws Exception {
+
+        openSession(10L, 10L, 4L);
+        uploadSessionService.writeChunk(testUser, 10L, 0, stream("0123"));
+        when(uploadSessionRepository.deleteByIdAndStatus(10L, UploadStatus.OPEN)).thenReturn(1);
+
+
+        uploadSessionService.abort(testUser, 10L);
+
+
+        assertFalse(Files.exists(storageDir.resolve(".uploads").resolve("10")));
+    }
+
+    @Test
+    void createSession_HugeSize_RejectedWithoutOverflow() {
+
+        CreateUploadRequest request = new CreateUploadRequest("big.bin", Long.MAX_VALUE, 64L * 1024 * 1024);
+
+
+        assertThrows(UploadSessionException.class, () -> uploadSessionService.createSession(testUser, request));
+        verify(uploadSessionRepository, never()).save(any());
+    }
+
+    private UploadSession openSession(Long id, long size, long chunkSize) throws Exception {
+        UploadSession session = new UploadSession();
+        session.setId(id);
+        session.setFilename("big.bin");
+        session.setSize(size);
+        session.setChunkSize(chunkSize);
+        session.setChunkCount((int) ((size + chunkSize - 1) / chunkSize));
+        session.setStatus(UploadStatus.OPEN);
+        session.setExpiresAt(LocalDateTime.now().plusHours(1));
+        Files.createDirectories(storageDir.resolve(".uploads").resolve(id.toString()));
+        lenient().when(uploadSessionRepository.findByIdAndUserId(id, testUser.id())).thenReturn(Optional.of(session));
+        return session;
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.US_ASCII));
+    }
+}